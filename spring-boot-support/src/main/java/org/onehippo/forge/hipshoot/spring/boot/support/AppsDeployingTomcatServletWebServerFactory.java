@@ -33,15 +33,65 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Engine;
+import org.apache.catalina.Host;
 import org.apache.catalina.Manager;
+import org.apache.catalina.Service;
+import org.apache.catalina.Valve;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.deploy.NamingResourcesImpl;
 import org.apache.catalina.loader.WebappLoader;
 import org.apache.catalina.session.StandardManager;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.valves.AccessLogValve;
+import org.apache.catalina.valves.RemoteIpValve;
 import org.apache.catalina.webresources.StandardRoot;
+import org.apache.tomcat.util.descriptor.web.ContextResource;
+import org.onehippo.forge.hipshoot.spring.boot.support.cluster.SessionReplicator;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaAccessLog;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaAdaptiveLimit;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaCluster;
 import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaConfiguration;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaGracefulShutdown;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaJspPrecompilation;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaLatencyHistogram;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaManager;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaNamingResource;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaPrecompression;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaRequestCoalescing;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaResourcePreload;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaResources;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaSaturationSampler;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaService;
+import org.onehippo.forge.hipshoot.spring.boot.support.customizer.DefaultTomcatConnectorCustomizer;
 import org.onehippo.forge.hipshoot.spring.boot.support.customizer.DefaultTomcatContextCustomizer;
+import org.onehippo.forge.hipshoot.spring.boot.support.jdbc.DataSourceMetricsCleaner;
+import org.onehippo.forge.hipshoot.spring.boot.support.jdbc.DataSourceWarmer;
+import org.onehippo.forge.hipshoot.spring.boot.support.jdbc.InstrumentedDataSourceFactory;
+import org.onehippo.forge.hipshoot.spring.boot.support.jsp.JspPrecompiler;
+import org.onehippo.forge.hipshoot.spring.boot.support.loader.InstrumentedWebappClassLoader;
+import org.onehippo.forge.hipshoot.spring.boot.support.metrics.ConnectorSaturationSampler;
+import org.onehippo.forge.hipshoot.spring.boot.support.resources.PrecompressedResourceGenerator;
+import org.onehippo.forge.hipshoot.spring.boot.support.resources.ResourceCachePreloader;
+import org.onehippo.forge.hipshoot.spring.boot.support.session.StripedSessionManager;
+import org.onehippo.forge.hipshoot.spring.boot.support.shutdown.GracefulShutdown;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.AdaptiveConcurrencyLimitValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.AsyncAccessLogValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.AsyncAccessLogWriter;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.HotSetRecorderValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.InFlightRequestValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.LatencyHistogramValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.RequestCoalescingValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.SendfileValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.SessionReplicationValve;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeansException;
 import org.springframework.boot.web.embedded.tomcat.TomcatContextCustomizer;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
 import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
@@ -75,6 +125,11 @@ import org.springframework.util.StringUtils;
  *   </LI>
  * </UL>
  * <P>
+ * If additional services are configured in {@link CatalinaConfiguration#getServices()}, each war bound to one of
+ * those is deployed in the service's own host, so that it is served only by the service's own connector and
+ * thread pool, isolated from the traffic of the other web applications.
+ * </P>
+ * <P>
  * Please see {@link CatalinaConfiguration} for a full list of the available properties.
  * </P>
  */
@@ -107,6 +162,26 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
      */
     private final CatalinaConfiguration catalinaConfiguration;
 
+    /**
+     * Connector saturation sampler, if enabled.
+     */
+    private ConnectorSaturationSampler connectorSaturationSampler;
+
+    /**
+     * Graceful shutdown listener, if enabled.
+     */
+    private GracefulShutdown gracefulShutdown;
+
+    /**
+     * Session replicator, if clustering is enabled.
+     */
+    private SessionReplicator sessionReplicator;
+
+    /**
+     * Asynchronous access log writer shared by all the web application contexts, if enabled.
+     */
+    private AsyncAccessLogWriter asyncAccessLogWriter;
+
     /**
      * Constructs with an {@link CatalinaConfiguration}.
      * @param catalinaConfig {@link CatalinaConfiguration}
@@ -117,6 +192,31 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
         this.catalinaConfiguration = catalinaConfig;
 
         addContextCustomizers(new DefaultTomcatContextCustomizer(catalinaConfig));
+        addConnectorCustomizers(new DefaultTomcatConnectorCustomizer(catalinaConfig));
+
+        final CatalinaAccessLog accessLogConfig = catalinaConfiguration.getServer().getAccessLog();
+
+        if (accessLogConfig.isEnabled()) {
+            asyncAccessLogWriter = new AsyncAccessLogWriter(accessLogConfig.getBufferSize());
+            asyncAccessLogWriter.setDirectory(accessLogConfig.getDirectory());
+            asyncAccessLogWriter.setPrefix(accessLogConfig.getPrefix());
+            asyncAccessLogWriter.setSuffix(accessLogConfig.getSuffix());
+            asyncAccessLogWriter.setWriteBufferSize(accessLogConfig.getWriteBufferSize());
+            asyncAccessLogWriter.setFlushIntervalMillis(accessLogConfig.getFlushIntervalMillis());
+
+            addContextCustomizers(context -> {
+                final AsyncAccessLogValve valve = new AsyncAccessLogValve(asyncAccessLogWriter);
+                valve.setRequestAttributesEnabled(accessLogConfig.isRequestAttributesEnabled());
+                context.getPipeline().addValve(valve);
+            });
+        }
+
+        final String protocolClassName = DefaultTomcatConnectorCustomizer
+                .getProtocolClassName(catalinaConfiguration.getConnector().getProtocol());
+
+        if (protocolClassName != null) {
+            setProtocol(protocolClassName);
+        }
 
         getSession().setPersistent(catalinaConfiguration.isPersistSession());
 
@@ -157,17 +257,61 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
     @Override
     protected TomcatWebServer getTomcatWebServer(Tomcat tomcat) {
         tomcat.enableNaming();
+        addGlobalNamingResources(tomcat);
 
         for (TomcatCustomizer tomcatCustomizer : tomcatCustomizers) {
             tomcatCustomizer.customize(tomcat);
         }
 
+        final Map<String, Host> webappHosts = addServices(tomcat);
+        addAdaptiveConcurrencyLimitValves(tomcat);
+        addConnectorSaturationSampler(tomcat);
+        addGracefulShutdown(tomcat);
+        addSessionReplicator(tomcat);
+
+        if (asyncAccessLogWriter != null) {
+            tomcat.getServer().addLifecycleListener(asyncAccessLogWriter);
+        }
+
         final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
-        addWebApplications(tomcat, contextClassLoader);
+        addWebApplications(tomcat, contextClassLoader, webappHosts);
 
         return super.getTomcatWebServer(tomcat);
     }
 
+    /**
+     * Returns the connector saturation sampler, or null if not enabled or the web server is not created yet.
+     * Applications may register gauges reading its samples with their metrics library.
+     * @return the connector saturation sampler, or null if not enabled or the web server is not created yet
+     */
+    public ConnectorSaturationSampler getConnectorSaturationSampler() {
+        return connectorSaturationSampler;
+    }
+
+    /**
+     * Returns the graceful shutdown listener, or null if not enabled or the web server is not created yet.
+     * @return the graceful shutdown listener, or null if not enabled or the web server is not created yet
+     */
+    public GracefulShutdown getGracefulShutdown() {
+        return gracefulShutdown;
+    }
+
+    /**
+     * Returns the session replicator, or null if clustering is not enabled or the web server is not created yet.
+     * @return the session replicator, or null if clustering is not enabled or the web server is not created yet
+     */
+    public SessionReplicator getSessionReplicator() {
+        return sessionReplicator;
+    }
+
+    /**
+     * Returns the asynchronous access log writer, or null if not enabled.
+     * @return the asynchronous access log writer, or null if not enabled
+     */
+    public AsyncAccessLogWriter getAsyncAccessLogWriter() {
+        return asyncAccessLogWriter;
+    }
+
     /**
      * Returns web application base directory (i.e, webapps directory) of the embedded tomcat.
      * @return web application base directory (i.e, webapps directory) of the embedded tomcat
@@ -184,31 +328,309 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
         this.appBaseDirectory = appBaseDirectory;
     }
 
-    private void addWebApplications(final Tomcat tomcat, final ClassLoader parentClassLoader) {
+    /**
+     * Adds the naming resources in the <code>global</code> scope to the global naming resources of the server,
+     * so that each of them is created only once and shared by all the contexts through resource links.
+     * Also adds a {@link DataSourceWarmer} to the server if any <code>DataSource</code> resource has warm-up
+     * enabled.
+     * @param tomcat {@link Tomcat} instance
+     */
+    protected void addGlobalNamingResources(final Tomcat tomcat) {
+        final NamingResourcesImpl globalNamingResources = tomcat.getServer().getGlobalNamingResources();
+        final List<CatalinaNamingResource> resConfs = catalinaConfiguration.getServer().getDefaultContext()
+                .getNamingResources();
+
+        for (CatalinaNamingResource resConf : resConfs) {
+            if (DataSourceWarmer.isWarmUpEnabled(resConf)) {
+                tomcat.getServer().addLifecycleListener(new DataSourceWarmer(resConfs));
+                break;
+            }
+        }
+
+        for (CatalinaNamingResource resConf : resConfs) {
+            if (!resConf.isGlobal()) {
+                continue;
+            }
+
+            final String globalName = resConf.getGlobalNameOrName();
+
+            if (globalNamingResources.findResource(globalName) != null) {
+                continue;
+            }
+
+            final ContextResource resource = new ContextResource();
+            resource.setName(globalName);
+            resource.setAuth(resConf.getAuth());
+            resource.setType(resConf.getType());
+
+            for (Map.Entry<String, Object> prop : resConf.getProperties().entrySet()) {
+                resource.setProperty(prop.getKey(), prop.getValue());
+            }
+
+            if (resConf.isMetricsEnabled() && "javax.sql.DataSource".equals(resConf.getType())) {
+                InstrumentedDataSourceFactory.instrument(resource, "global:" + globalName);
+                tomcat.getServer().addLifecycleListener(new DataSourceMetricsCleaner("global:" + globalName));
+            }
+
+            log.info("Adding global naming resource: name='{}', type='{}'.", globalName, resConf.getType());
+            globalNamingResources.addResource(resource);
+        }
+    }
+
+    /**
+     * Adds the additional services configured in {@link CatalinaConfiguration#getServices()}, each with its own
+     * engine, host and connector, and returns the hosts by the base names of the wars bound to the services.
+     * @param tomcat {@link Tomcat} instance
+     * @return the hosts by the base names of the wars bound to the additional services
+     */
+    protected Map<String, Host> addServices(final Tomcat tomcat) {
+        final Map<String, Host> webappHosts = new LinkedHashMap<>();
+
+        for (CatalinaService serviceConfig : catalinaConfiguration.getServices()) {
+            final String serviceName = serviceConfig.getName();
+
+            if (!StringUtils.hasText(serviceName)) {
+                throw new IllegalStateException("Service name must be set for each additional service.");
+            }
+
+            final StandardHost host = new StandardHost();
+            host.setName(tomcat.getHost().getName());
+            host.setAutoDeploy(false);
+
+            if (getAppBaseDirectory() != null) {
+                host.setAppBase(getAppBaseDirectory().getAbsolutePath());
+            }
+
+            final StandardEngine engine = new StandardEngine();
+            engine.setName(serviceName);
+            engine.setDefaultHost(host.getName());
+            engine.addChild(host);
+            configureServiceEngine(tomcat, engine);
+
+            final StandardService service = new StandardService();
+            service.setName(serviceName);
+            service.setContainer(engine);
+            tomcat.getServer().addService(service);
+
+            String protocol = DefaultTomcatConnectorCustomizer
+                    .getProtocolClassName(serviceConfig.getConnector().getProtocol());
+
+            if (protocol == null) {
+                protocol = tomcat.getConnector().getProtocolHandlerClassName();
+            }
+
+            final Connector connector = new Connector(protocol);
+            connector.setPort(serviceConfig.getPort());
+
+            if (getUriEncoding() != null) {
+                connector.setURIEncoding(getUriEncoding().name());
+            }
+
+            // Don't bind to the socket prematurely if ApplicationContext is slow to start
+            connector.setProperty("bindOnInit", "false");
+            service.addConnector(connector);
+            new DefaultTomcatConnectorCustomizer(serviceConfig.getConnector()).customize(connector);
+
+            final String wars = serviceConfig.getWars();
+
+            if (wars != null) {
+                for (String token : StringUtils.tokenizeToStringArray(wars, ",")) {
+                    if (!token.trim().isEmpty()) {
+                        webappHosts.put(getBaseFileName(token.trim()), host);
+                    }
+                }
+            }
+
+            log.info("Added service ('{}') with a connector on port {} for wars: {}.", serviceName,
+                    serviceConfig.getPort(), wars);
+        }
+
+        return webappHosts;
+    }
+
+    /**
+     * Configures the engine of an additional service just like Spring Boot configures the default engine, with the
+     * same background processor delay and the engine valves such as {@link RemoteIpValve} and {@link AccessLogValve}
+     * configured by <code>server.tomcat.*</code> properties.
+     * <P>
+     * As a valve cannot be shared by multiple pipelines, each engine valve is copied by its bean properties.
+     * An access log valve copy writes to its own file, having the service name appended to the prefix.
+     * </P>
+     * @param tomcat {@link Tomcat} instance
+     * @param engine engine of an additional service
+     */
+    protected void configureServiceEngine(final Tomcat tomcat, final Engine engine) {
+        engine.setBackgroundProcessorDelay(tomcat.getEngine().getBackgroundProcessorDelay());
+
+        for (Valve valve : getEngineValves()) {
+            final Valve copy;
+
+            try {
+                copy = BeanUtils.instantiateClass(valve.getClass());
+                BeanUtils.copyProperties(valve, copy, "container", "next", "domain");
+            } catch (BeansException e) {
+                log.warn("Cannot copy engine valve ({}) to service ('{}'): {}", valve.getClass().getName(),
+                        engine.getName(), e.toString());
+                continue;
+            }
+
+            if (copy instanceof AccessLogValve) {
+                final AccessLogValve accessLogValve = (AccessLogValve) copy;
+                accessLogValve.setPrefix(accessLogValve.getPrefix() + "." + engine.getName());
+            }
+
+            engine.getPipeline().addValve(copy);
+        }
+    }
+
+    /**
+     * Adds an {@link AdaptiveConcurrencyLimitValve} to the engine of each service if the adaptive concurrency limit
+     * is enabled in {@link CatalinaConfiguration#getServer()}.
+     * @param tomcat {@link Tomcat} instance
+     */
+    protected void addAdaptiveConcurrencyLimitValves(final Tomcat tomcat) {
+        final CatalinaAdaptiveLimit limitConfig = catalinaConfiguration.getServer().getAdaptiveLimit();
+
+        if (!limitConfig.isEnabled()) {
+            return;
+        }
+
+        for (Service service : tomcat.getServer().findServices()) {
+            final AdaptiveConcurrencyLimitValve valve = new AdaptiveConcurrencyLimitValve();
+            valve.setInitialLimit(limitConfig.getInitialLimit());
+            valve.setMinLimit(limitConfig.getMinLimit());
+            valve.setMaxLimit(limitConfig.getMaxLimit());
+            valve.setSmoothing(limitConfig.getSmoothing());
+            valve.setRttTolerance(limitConfig.getRttTolerance());
+            valve.setWindowMillis(limitConfig.getWindowMillis());
+            valve.setMinWindowSamples(limitConfig.getMinWindowSamples());
+            service.getContainer().getPipeline().addValve(valve);
+
+            log.info("Added adaptive concurrency limit valve to service ('{}'): initialLimit={}, minLimit={}, "
+                    + "maxLimit={}.", service.getName(), valve.getInitialLimit(), valve.getMinLimit(),
+                    valve.getMaxLimit());
+        }
+    }
+
+    /**
+     * Adds a {@link ConnectorSaturationSampler} to the server if enabled in {@link CatalinaConfiguration#getServer()}.
+     * @param tomcat {@link Tomcat} instance
+     */
+    protected void addConnectorSaturationSampler(final Tomcat tomcat) {
+        final CatalinaSaturationSampler samplerConfig = catalinaConfiguration.getServer().getSaturationSampler();
+
+        if (!samplerConfig.isEnabled()) {
+            return;
+        }
+
+        final ConnectorSaturationSampler sampler = new ConnectorSaturationSampler(tomcat.getServer());
+        sampler.setIntervalMillis(samplerConfig.getIntervalMillis());
+        tomcat.getServer().addLifecycleListener(sampler);
+        connectorSaturationSampler = sampler;
+    }
+
+    /**
+     * Adds a {@link GracefulShutdown} to the server if enabled in {@link CatalinaConfiguration#getServer()}, with an
+     * {@link InFlightRequestValve} in the engine of each service to count the requests to drain.
+     * @param tomcat {@link Tomcat} instance
+     */
+    protected void addGracefulShutdown(final Tomcat tomcat) {
+        final CatalinaGracefulShutdown shutdownConfig = catalinaConfiguration.getServer().getGracefulShutdown();
+
+        if (!shutdownConfig.isEnabled()) {
+            return;
+        }
+
+        final GracefulShutdown shutdown = new GracefulShutdown(tomcat.getServer());
+        shutdown.setDrainTimeoutMillis(shutdownConfig.getDrainTimeoutMillis());
+        shutdown.setContextStopTimeoutMillis(shutdownConfig.getContextStopTimeoutMillis());
+        shutdown.setThreads(shutdownConfig.getThreads());
+        shutdown.setHaltOnTimeout(shutdownConfig.isHaltOnTimeout());
+
+        for (Service service : tomcat.getServer().findServices()) {
+            final InFlightRequestValve valve = new InFlightRequestValve();
+            service.getContainer().getPipeline().addValve(valve);
+            shutdown.addInFlightRequestValve(valve);
+        }
+
+        tomcat.getServer().addLifecycleListener(shutdown);
+        gracefulShutdown = shutdown;
+
+        log.info("Added graceful shutdown: drainTimeoutMillis={}, contextStopTimeoutMillis={}, threads={}, "
+                + "haltOnTimeout={}.", shutdown.getDrainTimeoutMillis(), shutdown.getContextStopTimeoutMillis(),
+                shutdown.getThreads(), shutdown.isHaltOnTimeout());
+    }
+
+    /**
+     * Adds a {@link SessionReplicator} to the server if clustering is enabled in {@link CatalinaConfiguration}.
+     * @param tomcat {@link Tomcat} instance
+     */
+    protected void addSessionReplicator(final Tomcat tomcat) {
+        final CatalinaCluster clusterConfig = catalinaConfiguration.getCluster();
+
+        if (!clusterConfig.isEnabled()) {
+            return;
+        }
+
+        final SessionReplicator replicator = new SessionReplicator();
+        replicator.setBindAddress(clusterConfig.getBindAddress());
+        replicator.setPort(clusterConfig.getPort());
+        replicator.setMembers(clusterConfig.getMembers());
+        replicator.setQueueSize(clusterConfig.getQueueSize());
+        replicator.setMaxBatchSize(clusterConfig.getMaxBatchSize());
+        replicator.setConnectTimeoutMillis(clusterConfig.getConnectTimeoutMillis());
+        replicator.setSharedSecret(clusterConfig.getSharedSecret());
+
+        if (StringUtils.hasText(clusterConfig.getAttributeValueClassNameFilter())) {
+            replicator.setAttributeValueClassNameFilter(clusterConfig.getAttributeValueClassNameFilter().trim());
+        }
+
+        tomcat.getServer().addLifecycleListener(replicator);
+        sessionReplicator = replicator;
+    }
+
+    private void addWebApplications(final Tomcat tomcat, final ClassLoader parentClassLoader,
+            final Map<String, Host> webappHosts) {
         try {
             final Collection<TomcatContextCustomizer> contextCustomizers = getTomcatContextCustomizers();
 
             String contextPath;
             String basePath;
+            Host host;
             Manager manager;
 
             for (Map.Entry<String, String> entry : getWebappPathsMap().entrySet()) {
                 contextPath = entry.getKey();
                 basePath = entry.getValue();
-                Context context = tomcat.addWebapp(contextPath, basePath);
+                host = webappHosts.get(getBaseFileName(new File(basePath).getName()));
+
+                if (host == null) {
+                    host = tomcat.getHost();
+                }
+
+                Context context = tomcat.addWebapp(host, contextPath, basePath);
                 WebappLoader webappLoader = new WebappLoader(parentClassLoader);
+
+                if (catalinaConfiguration.getServer().getDefaultContext().isClassLoadingMetricsEnabled()) {
+                    webappLoader.setLoaderClass(InstrumentedWebappClassLoader.class.getName());
+                }
+
                 context.setLoader(webappLoader);
 
-                if (!getSession().isPersistent()) {
-                    manager = context.getManager();
+                manager = context.getManager();
 
-                    if (manager == null) {
-                        manager = new StandardManager();
-                        context.setManager(manager);
-                    }
+                if (manager == null) {
+                    manager = createManager(catalinaConfiguration.getServer().getDefaultContext().getManager());
+                    context.setManager(manager);
+                }
 
-                    if (manager instanceof StandardManager) {
+                if (manager instanceof StandardManager) {
+                    if (!getSession().isPersistent()) {
                         ((StandardManager) manager).setPathname(null);
+                    } else if (StringUtils.hasText(
+                            catalinaConfiguration.getServer().getDefaultContext().getManager().getPathname())) {
+                        ((StandardManager) manager).setPathname(
+                                catalinaConfiguration.getServer().getDefaultContext().getManager().getPathname());
                     }
                 }
 
@@ -219,17 +641,275 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
                         catalinaConfiguration.getServer().getDefaultContext().getResources().getCacheMaxSize());
                 context.setResources(standardRoot);
 
+                addJspPrecompiler(context);
+                addPrecompressedResourceGenerator(context);
+                addSendfileValve(context);
+                addResourceCachePreloader(context);
+                addSessionReplicationValve(context);
+                addLatencyHistogramValve(context);
+
                 if (contextCustomizers != null) {
                     for (TomcatContextCustomizer contextCustomizer : contextCustomizers) {
                         contextCustomizer.customize(context);
                     }
                 }
+
+                addRequestCoalescingValve(context);
             }
         } catch (Exception ex) {
             throw new IllegalStateException("Failed to add webapp", ex);
         }
     }
 
+    /**
+     * Adds a {@link JspPrecompiler} to the web application context if enabled in the default context configuration,
+     * compiling the JSPs into a persistent scratch directory keyed by the checksum of the war file.
+     * @param context web application context
+     */
+    protected void addJspPrecompiler(final Context context) {
+        final CatalinaJspPrecompilation jspConfig = catalinaConfiguration.getServer().getDefaultContext()
+                .getJspPrecompilation();
+
+        if (!jspConfig.isEnabled()) {
+            return;
+        }
+
+        if (!JspPrecompiler.isJasperAvailable()) {
+            log.warn("Skipping JSP precompilation of context ('{}') as Jasper is not in the classpath.",
+                    context.getPath());
+            return;
+        }
+
+        final File workBaseDir = StringUtils.hasText(jspConfig.getWorkDirectory())
+                ? new File(jspConfig.getWorkDirectory().trim())
+                : new File(System.getProperty("java.io.tmpdir"), "hipshoot-jsp-work");
+
+        final File scratchDir;
+
+        try {
+            scratchDir = JspPrecompiler.getScratchDirectory(context, workBaseDir, new File(context.getDocBase()));
+        } catch (IOException e) {
+            log.warn("Skipping JSP precompilation of context ('{}'): {}", context.getPath(), e.toString());
+            return;
+        }
+
+        if (jspConfig.isRemoveObsoleteDirectories()) {
+            JspPrecompiler.removeObsoleteScratchDirectories(context, workBaseDir, scratchDir);
+        }
+
+        final JspPrecompiler precompiler = new JspPrecompiler(scratchDir);
+        precompiler.setThreads(jspConfig.getThreads());
+        precompiler.setFailOnError(jspConfig.isFailOnError());
+        context.addLifecycleListener(precompiler);
+
+        log.info("Added JSP precompiler in context ('{}'): scratchDir='{}', threads={}.", context.getPath(),
+                scratchDir, precompiler.getThreads());
+    }
+
+    /**
+     * Adds a {@link PrecompressedResourceGenerator} to the web application context if enabled in the default context
+     * configuration, to generate precompressed sidecar files once the war file is expanded.
+     * @param context web application context
+     */
+    protected void addPrecompressedResourceGenerator(final Context context) {
+        final CatalinaPrecompression precompressionConfig = catalinaConfiguration.getServer().getDefaultContext()
+                .getResources().getPrecompression();
+
+        if (!precompressionConfig.isEnabled()) {
+            return;
+        }
+
+        final PrecompressedResourceGenerator generator = new PrecompressedResourceGenerator();
+        generator.setExtensions(precompressionConfig.getExtensions());
+        generator.setMinSize(precompressionConfig.getMinSize());
+        generator.setThreads(precompressionConfig.getThreads());
+
+        if (StringUtils.hasText(precompressionConfig.getCacheDirectory())) {
+            generator.setCacheDirectory(new File(precompressionConfig.getCacheDirectory().trim()));
+        } else {
+            generator.setCacheDirectory(new File(System.getProperty("java.io.tmpdir"), "hipshoot-precompressed"));
+        }
+
+        context.addLifecycleListener(generator);
+    }
+
+    /**
+     * Adds a {@link SendfileValve} to the web application context if enabled in the default context configuration.
+     * <P>
+     * The maximum size of a resource cached in memory is also limited to the sendfile size, as the files sent by
+     * sendfile are always read from the file system.
+     * </P>
+     * @param context web application context
+     */
+    protected void addSendfileValve(final Context context) {
+        final CatalinaResources resourcesConfig = catalinaConfiguration.getServer().getDefaultContext()
+                .getResources();
+
+        if (!resourcesConfig.isSendfileEnabled()) {
+            return;
+        }
+
+        final SendfileValve valve = new SendfileValve();
+        valve.setSendfileSize(resourcesConfig.getSendfileSize());
+        context.getPipeline().addValve(valve);
+
+        final WebResourceRoot resources = context.getResources();
+
+        if (resources != null && resources.getCacheObjectMaxSize() > resourcesConfig.getSendfileSize()) {
+            resources.setCacheObjectMaxSize(resourcesConfig.getSendfileSize());
+        }
+
+        log.info("Added sendfile valve in context ('{}'): sendfileSize={}KB.", context.getPath(),
+                valve.getSendfileSize());
+    }
+
+    /**
+     * Adds a {@link ResourceCachePreloader} to the web application context if enabled in the default context
+     * configuration, with a {@link HotSetRecorderValve} to record the hot set for the next start if
+     * <code>hotSetDirectory</code> is set.
+     * @param context web application context
+     */
+    protected void addResourceCachePreloader(final Context context) {
+        final CatalinaResourcePreload preloadConfig = catalinaConfiguration.getServer().getDefaultContext()
+                .getResources().getPreload();
+
+        if (!preloadConfig.isEnabled()) {
+            return;
+        }
+
+        final ResourceCachePreloader preloader = new ResourceCachePreloader();
+        preloader.setPatterns(preloadConfig.getPatterns());
+        preloader.setHotSetMaxSize(preloadConfig.getHotSetMaxSize());
+        preloader.setThreads(preloadConfig.getThreads());
+
+        if (StringUtils.hasText(preloadConfig.getHotSetDirectory())) {
+            preloader.setHotSetFile(new File(preloadConfig.getHotSetDirectory().trim(),
+                    context.getBaseName() + ".hotset"));
+
+            final HotSetRecorderValve valve = new HotSetRecorderValve();
+            context.getPipeline().addValve(valve);
+            preloader.setHotSetRecorder(valve);
+        }
+
+        context.addLifecycleListener(preloader);
+
+        log.info("Added resource cache preloader in context ('{}'): patterns='{}', hotSetFile='{}'.",
+                context.getPath(), preloader.getPatterns(), preloader.getHotSetFile());
+    }
+
+    /**
+     * Adds a {@link SessionReplicationValve} to the web application context if clustering is enabled, replicating
+     * the session changes through the {@link SessionReplicator} of the server.
+     * @param context web application context
+     */
+    protected void addSessionReplicationValve(final Context context) {
+        if (sessionReplicator == null) {
+            return;
+        }
+
+        final SessionReplicationValve valve = new SessionReplicationValve(sessionReplicator);
+        valve.setAccessReplicationIntervalSeconds(
+                catalinaConfiguration.getCluster().getAccessReplicationIntervalSeconds());
+        context.getPipeline().addValve(valve);
+
+        log.info("Added session replication valve in context ('{}').", context.getPath());
+    }
+
+    /**
+     * Adds a {@link LatencyHistogramValve} to the web application context if enabled in the default context
+     * configuration.
+     * @param context web application context
+     */
+    protected void addLatencyHistogramValve(final Context context) {
+        final CatalinaLatencyHistogram histogramConfig = catalinaConfiguration.getServer().getDefaultContext()
+                .getLatencyHistogram();
+
+        if (!histogramConfig.isEnabled()) {
+            return;
+        }
+
+        final LatencyHistogramValve valve = new LatencyHistogramValve();
+        valve.setUrlPatterns(histogramConfig.getUrlPatterns());
+        valve.setGroupByStatusClass(histogramConfig.isGroupByStatusClass());
+        valve.setIntervalSeconds(histogramConfig.getIntervalSeconds());
+
+        if (StringUtils.hasText(histogramConfig.getEndpointPath())) {
+            valve.setEndpointPath(histogramConfig.getEndpointPath().trim());
+        }
+
+        context.getPipeline().addValve(valve);
+
+        log.info("Added latency histogram valve in context ('{}'): urlPatterns='{}', groupByStatusClass={}, "
+                + "endpointPath='{}', intervalSeconds={}.", context.getPath(), valve.getUrlPatterns(),
+                valve.isGroupByStatusClass(), valve.getEndpointPath(), valve.getIntervalSeconds());
+    }
+
+    /**
+     * Adds a {@link RequestCoalescingValve} to the web application context if enabled in the default context
+     * configuration. It is added after the context customizers, so that requests answered by a response cache
+     * never wait for a leader.
+     * @param context web application context
+     */
+    protected void addRequestCoalescingValve(final Context context) {
+        final CatalinaRequestCoalescing coalescingConfig = catalinaConfiguration.getServer().getDefaultContext()
+                .getRequestCoalescing();
+
+        if (!coalescingConfig.isEnabled()) {
+            return;
+        }
+
+        final RequestCoalescingValve valve = new RequestCoalescingValve();
+        valve.setUrlPatterns(coalescingConfig.getUrlPatterns());
+        valve.setKeyHeaders(coalescingConfig.getKeyHeaders());
+        valve.setBypassCookies(coalescingConfig.getBypassCookies());
+        valve.setMaxResponseSize(coalescingConfig.getMaxResponseSize());
+        valve.setTimeoutMillis(coalescingConfig.getTimeoutMillis());
+
+        context.getPipeline().addValve(valve);
+
+        log.info("Added request coalescing valve in context ('{}'): urlPatterns='{}', keyHeaders='{}', "
+                + "maxResponseSize={}, timeoutMillis={}.", context.getPath(), valve.getUrlPatterns(),
+                valve.getKeyHeaders(), valve.getMaxResponseSize(), valve.getTimeoutMillis());
+    }
+
+    /**
+     * Creates a session {@link Manager} for a web application context by the manager configuration.
+     * <P>
+     * If session persistence is turned on with the snapshot option, or if off-heap attribute storage is enabled,
+     * a {@link StripedSessionManager} is always created because only that manager supports those options.
+     * </P>
+     * @param managerConfig manager configuration
+     * @return a session {@link Manager} for a web application context
+     */
+    protected Manager createManager(final CatalinaManager managerConfig) {
+        final String type = StringUtils.hasText(managerConfig.getType()) ? managerConfig.getType().trim()
+                : CatalinaManager.TYPE_STANDARD;
+
+        final boolean snapshotEnabled = getSession().isPersistent() && managerConfig.isSnapshotEnabled();
+
+        if (CatalinaManager.TYPE_STRIPED.equalsIgnoreCase(type) || snapshotEnabled
+                || managerConfig.isOffHeapEnabled()) {
+            StripedSessionManager stripedManager = new StripedSessionManager();
+            stripedManager.setStripes(managerConfig.getStripes());
+            stripedManager.setMaxSessions(managerConfig.getMaxSessions());
+            stripedManager.setExpiryBucketSeconds(managerConfig.getExpiryBucketSeconds());
+            stripedManager.setSnapshotEnabled(snapshotEnabled);
+            stripedManager.setSnapshotThreads(managerConfig.getSnapshotThreads());
+            stripedManager.setOffHeapEnabled(managerConfig.isOffHeapEnabled());
+            stripedManager.setOffHeapCapacity(managerConfig.getOffHeapCapacity());
+            stripedManager.setOffHeapBlockSize(managerConfig.getOffHeapBlockSize());
+            stripedManager.setOffHeapCacheSize(managerConfig.getOffHeapCacheSize());
+            stripedManager.setOffHeapMinSize(managerConfig.getOffHeapMinSize());
+            return stripedManager;
+        }
+
+        if (!CatalinaManager.TYPE_STANDARD.equalsIgnoreCase(type)) {
+            log.warn("Unknown session manager type, '{}'. Falling back to the standard manager.", type);
+        }
+
+        return new StandardManager();
+    }
+
     private Map<String, String> getWebappPathsMap() {
         Map<String, String> webappPathsMap = null;
 
@@ -245,8 +925,7 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
 
                 for (File file : webappsDir.listFiles()) {
                     fileName = file.getName();
-                    int offset = fileName.lastIndexOf('.');
-                    baseFileName = (offset != -1) ? fileName.substring(0, offset) : fileName;
+                    baseFileName = getBaseFileName(fileName);
 
                     if ("ROOT".equals(baseFileName)) {
                         contextPath = "";
@@ -270,6 +949,11 @@ public class AppsDeployingTomcatServletWebServerFactory extends TomcatServletWeb
         return webappPathsMap;
     }
 
+    private String getBaseFileName(final String fileName) {
+        int offset = fileName.lastIndexOf('.');
+        return (offset != -1) ? fileName.substring(0, offset) : fileName;
+    }
+
     private void extractEmbeddedWars(CatalinaConfiguration config) {
         final String wars = config.getWars();
 
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.cluster;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpSessionAttributeListener;
+import javax.servlet.http.HttpSessionBindingEvent;
+
+/**
+ * {@link HttpSessionAttributeListener} of a web application context, recording the names of the session attributes
+ * changed by the current thread between {@link #begin()} and {@link #end()}, i.e, while processing a request.
+ * <P>
+ * Changes made outside the tracked scope, e.g, by background threads or by applying replicated deltas,
+ * are ignored.
+ * </P>
+ */
+public class SessionChangeTracker implements HttpSessionAttributeListener {
+
+    private final ThreadLocal<Map<String, Set<String>>> changes = new ThreadLocal<>();
+
+    /**
+     * Starts tracking the session attribute changes of the current thread.
+     */
+    public void begin() {
+        if (changes.get() == null) {
+            changes.set(new HashMap<>());
+        }
+    }
+
+    /**
+     * Stops tracking the session attribute changes of the current thread and returns them.
+     * @return the names of the changed attributes by session IDs
+     */
+    public Map<String, Set<String>> end() {
+        final Map<String, Set<String>> changed = changes.get();
+        changes.remove();
+        return (changed != null) ? changed : Collections.emptyMap();
+    }
+
+    @Override
+    public void attributeAdded(HttpSessionBindingEvent event) {
+        record(event);
+    }
+
+    @Override
+    public void attributeRemoved(HttpSessionBindingEvent event) {
+        record(event);
+    }
+
+    @Override
+    public void attributeReplaced(HttpSessionBindingEvent event) {
+        record(event);
+    }
+
+    private void record(final HttpSessionBindingEvent event) {
+        final Map<String, Set<String>> changed = changes.get();
+
+        if (changed != null) {
+            changed.computeIfAbsent(event.getSession().getId(), id -> new LinkedHashSet<>()).add(event.getName());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Change of a session to replicate, encoded in a compact binary form.
+ * <P>
+ * An update carries the session metadata and only the attributes changed, each either with its serialized value
+ * or as removed. An invalidation carries only the session ID. A sync request asks the other instances to send
+ * updates of all their sessions in the context, so a restarted instance can catch up.
+ * </P>
+ */
+public final class SessionDelta {
+
+    public static final byte TYPE_UPDATE = 1;
+
+    public static final byte TYPE_INVALIDATE = 2;
+
+    public static final byte TYPE_SYNC_REQUEST = 3;
+
+    private final byte type;
+
+    private final String contextPath;
+
+    private final String sessionId;
+
+    private final long timestamp;
+
+    private long creationTime;
+
+    private int maxInactiveInterval;
+
+    private final List<String> attributeNames = new ArrayList<>();
+
+    /**
+     * Serialized attribute values by the same index as the names, null if removed.
+     */
+    private final List<byte []> attributeValues = new ArrayList<>();
+
+    private int encodedSize;
+
+    private SessionDelta(final byte type, final String contextPath, final String sessionId, final long timestamp) {
+        this.type = type;
+        this.contextPath = contextPath;
+        this.sessionId = (sessionId != null) ? sessionId : "";
+        this.timestamp = timestamp;
+        encodedSize = 1 + 8 + 4 + contextPath.length() + this.sessionId.length() + 8 + 4 + 4;
+    }
+
+    /**
+     * Creates an update of a session, to which changed attributes can be added.
+     * @param contextPath context path
+     * @param sessionId session ID
+     * @param creationTime creation time of the session
+     * @param maxInactiveInterval max inactive interval of the session in seconds
+     * @return an update of a session
+     */
+    public static SessionDelta update(final String contextPath, final String sessionId, final long creationTime,
+            final int maxInactiveInterval) {
+        final SessionDelta delta = new SessionDelta(TYPE_UPDATE, contextPath, sessionId, System.currentTimeMillis());
+        delta.creationTime = creationTime;
+        delta.maxInactiveInterval = maxInactiveInterval;
+        return delta;
+    }
+
+    /**
+     * Creates an invalidation of a session.
+     * @param contextPath context path
+     * @param sessionId session ID
+     * @return an invalidation of a session
+     */
+    public static SessionDelta invalidate(final String contextPath, final String sessionId) {
+        return new SessionDelta(TYPE_INVALIDATE, contextPath, sessionId, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a request for all the sessions in the context.
+     * @param contextPath context path
+     * @return a request for all the sessions in the context
+     */
+    public static SessionDelta syncRequest(final String contextPath) {
+        return new SessionDelta(TYPE_SYNC_REQUEST, contextPath, null, System.currentTimeMillis());
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Returns the time in milliseconds when this delta was created, to measure the replication lag.
+     * @return the time in milliseconds when this delta was created
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    /**
+     * Adds a changed attribute.
+     * @param name attribute name
+     * @param serializedValue serialized attribute value, or null if removed
+     */
+    public void addAttribute(final String name, final byte [] serializedValue) {
+        attributeNames.add(name);
+        attributeValues.add(serializedValue);
+        encodedSize += 1 + 2 + name.length() + ((serializedValue != null) ? 4 + serializedValue.length : 0);
+    }
+
+    public List<String> getAttributeNames() {
+        return Collections.unmodifiableList(attributeNames);
+    }
+
+    /**
+     * Returns the serialized value of the attribute at the index, or null if removed.
+     * @param index attribute index
+     * @return the serialized value of the attribute at the index, or null if removed
+     */
+    public byte [] getAttributeValue(final int index) {
+        return attributeValues.get(index);
+    }
+
+    /**
+     * Returns the approximate size in bytes of this delta when encoded.
+     * @return the approximate size in bytes of this delta when encoded
+     */
+    public int getEncodedSize() {
+        return encodedSize;
+    }
+
+    void writeTo(final DataOutputStream out) throws IOException {
+        out.writeByte(type);
+        out.writeLong(timestamp);
+        out.writeUTF(contextPath);
+        out.writeUTF(sessionId);
+
+        if (type != TYPE_UPDATE) {
+            return;
+        }
+
+        out.writeLong(creationTime);
+        out.writeInt(maxInactiveInterval);
+        out.writeInt(attributeNames.size());
+
+        for (int i = 0; i < attributeNames.size(); i++) {
+            final byte [] value = attributeValues.get(i);
+            out.writeBoolean(value != null);
+            out.writeUTF(attributeNames.get(i));
+
+            if (value != null) {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+    }
+
+    static SessionDelta readFrom(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+
+        if (type != TYPE_UPDATE && type != TYPE_INVALIDATE && type != TYPE_SYNC_REQUEST) {
+            throw new IOException("Unknown session delta type: " + type);
+        }
+
+        final long timestamp = in.readLong();
+        final String contextPath = in.readUTF();
+        final String sessionId = in.readUTF();
+        final SessionDelta delta = new SessionDelta(type, contextPath, sessionId, timestamp);
+
+        if (type != TYPE_UPDATE) {
+            return delta;
+        }
+
+        delta.creationTime = in.readLong();
+        delta.maxInactiveInterval = in.readInt();
+        final int count = in.readInt();
+
+        for (int i = 0; i < count; i++) {
+            final boolean hasValue = in.readBoolean();
+            final String name = in.readUTF();
+            byte [] value = null;
+
+            if (hasValue) {
+                value = new byte[in.readInt()];
+                in.readFully(value);
+            }
+
+            delta.addAttribute(name, value);
+        }
+
+        return delta;
+    }
+}
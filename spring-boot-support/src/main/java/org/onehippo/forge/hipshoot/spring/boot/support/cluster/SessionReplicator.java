@@ -0,0 +1,991 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpSession;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Manager;
+import org.apache.catalina.Server;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.ManagerBase;
+import org.apache.catalina.session.StandardSession;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link LifecycleListener} of the {@link Server}, replicating session deltas to the other instances listed as
+ * static members, e.g, other JVMs on the same host over loopback TCP, and applying the deltas received from them
+ * to the sessions of the web application contexts registered by the context path.
+ * <P>
+ * Deltas are queued by the request threads and sent asynchronously in batches by a single sender thread, which
+ * keeps a persistent connection to each member and reconnects at most once a second after a failure. Replication is
+ * best effort: deltas are dropped if the queue is full or a member is not reachable. When the server starts,
+ * a sync request is sent for each registered context, so the members reply with all their sessions.
+ * </P>
+ * <P>
+ * Each connection starts with a challenge-response handshake by HMAC-SHA256 of random nonces keyed by
+ * <code>sharedSecret</code>, authenticating both the sending member and the receiver before any delta is
+ * exchanged, so replication is not started without a <code>sharedSecret</code>. The deltas themselves are neither
+ * signed nor encrypted, so the receiver must still be bound only to an address reachable by trusted members, which
+ * is the loopback address by default.
+ * </P>
+ * <P>
+ * Received attribute values are deserialized with the class loader of the context, allowing only the class names
+ * matching <code>sessionAttributeValueClassNameFilter</code> of the session manager if set, or
+ * <code>attributeValueClassNameFilter</code> otherwise, which allows only a few JDK value and collection classes
+ * by default, see {@link #DEFAULT_ATTRIBUTE_VALUE_CLASS_NAME_FILTER}.
+ * </P>
+ */
+public class SessionReplicator implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(SessionReplicator.class);
+
+    /**
+     * Tomcat logger required by {@link CustomObjectInputStream} to report the classes rejected by the filter.
+     */
+    private static final Log filterLog = LogFactory.getLog(SessionReplicator.class);
+
+    /**
+     * Maximum size of a received frame, to protect from a corrupted stream.
+     */
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private static final long RECONNECT_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * Default class names allowed in received attribute values if the session manager has no filter of its own.
+     */
+    public static final String DEFAULT_ATTRIBUTE_VALUE_CLASS_NAME_FILTER =
+            "java\\.lang\\.(?:Boolean|Byte|Character|Short|Integer|Long|Float|Double|Number|String)"
+            + "|java\\.math\\.(?:BigDecimal|BigInteger)"
+            + "|java\\.util\\.(?:ArrayList|LinkedList|HashMap|LinkedHashMap|TreeMap|HashSet|LinkedHashSet|TreeSet"
+            + "|Date|Locale)"
+            + "|\\[Ljava\\.lang\\.String;|\\[[BCSIJFDZ]";
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int NONCE_SIZE = 32;
+
+    private static final int MAC_SIZE = 32;
+
+    /**
+     * Prefix of the data authenticated by the sending member in the handshake.
+     */
+    private static final byte MEMBER_MAC_PREFIX = 'M';
+
+    /**
+     * Prefix of the data authenticated by the receiver in the handshake.
+     */
+    private static final byte RECEIVER_MAC_PREFIX = 'R';
+
+    /**
+     * Connection to a member.
+     */
+    private static final class Member {
+
+        private final String host;
+        private final int port;
+        private Socket socket;
+        private DataOutputStream out;
+        private long nextConnectTime;
+
+        private Member(final String host, final int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    private String bindAddress = "127.0.0.1";
+
+    private int port = 4000;
+
+    private String members;
+
+    private int queueSize = 10000;
+
+    private int maxBatchSize = 256;
+
+    private int connectTimeoutMillis = 1000;
+
+    private String sharedSecret;
+
+    private String attributeValueClassNameFilter = DEFAULT_ATTRIBUTE_VALUE_CLASS_NAME_FILTER;
+
+    private volatile Pattern attributeValueClassNamePattern;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, Context> contexts = new ConcurrentHashMap<>();
+
+    private volatile BlockingQueue<SessionDelta> queue;
+
+    private volatile boolean running;
+
+    /**
+     * Flag to retry connecting to the members immediately, as a member has just started.
+     */
+    private volatile boolean reconnectRequested;
+
+    private ServerSocket serverSocket;
+
+    private Thread senderThread;
+
+    private Thread acceptorThread;
+
+    private final List<Socket> receiverSockets = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicLong deltasSent = new AtomicLong();
+
+    private final AtomicLong batchesSent = new AtomicLong();
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    private final AtomicLong droppedDeltas = new AtomicLong();
+
+    private final AtomicLong skippedAttributes = new AtomicLong();
+
+    private final AtomicLong deltasReceived = new AtomicLong();
+
+    private final AtomicLong rejectedAttributes = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private final AtomicLong lagMillisSum = new AtomicLong();
+
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    private volatile long lastLagMillis;
+
+    /**
+     * Returns the address the receiver binds to.
+     * @return the address the receiver binds to
+     */
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * Returns the port the receiver listens on.
+     * @return the port the receiver listens on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Returns comma separated <code>host:port</code> addresses of the other instances.
+     * @return comma separated <code>host:port</code> addresses of the other instances
+     */
+    public String getMembers() {
+        return members;
+    }
+
+    public void setMembers(String members) {
+        this.members = members;
+    }
+
+    /**
+     * Returns the maximum number of deltas waiting to be sent.
+     * @return the maximum number of deltas waiting to be sent
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Returns the maximum number of deltas sent in a batch.
+     * @return the maximum number of deltas sent in a batch
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * Returns the secret shared by all the members to authenticate each other.
+     * @return the secret shared by all the members to authenticate each other
+     */
+    public String getSharedSecret() {
+        return sharedSecret;
+    }
+
+    public void setSharedSecret(String sharedSecret) {
+        this.sharedSecret = sharedSecret;
+    }
+
+    /**
+     * Returns the regular expression of the class names allowed in received attribute values of the contexts
+     * whose session manager has no <code>sessionAttributeValueClassNameFilter</code>.
+     * @return the regular expression of the class names allowed in received attribute values
+     */
+    public String getAttributeValueClassNameFilter() {
+        return attributeValueClassNameFilter;
+    }
+
+    public void setAttributeValueClassNameFilter(String attributeValueClassNameFilter) {
+        this.attributeValueClassNameFilter = attributeValueClassNameFilter;
+    }
+
+    /**
+     * Returns the number of deltas sent to the members, counting once per member.
+     * @return the number of deltas sent to the members
+     */
+    public long getDeltasSent() {
+        return deltasSent.get();
+    }
+
+    /**
+     * Returns the number of batches sent to the members, counting once per member.
+     * @return the number of batches sent to the members
+     */
+    public long getBatchesSent() {
+        return batchesSent.get();
+    }
+
+    /**
+     * Returns the number of bytes sent to the members.
+     * @return the number of bytes sent to the members
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns the number of batches failed or skipped to be sent to a member not reachable.
+     * @return the number of batches failed or skipped to be sent to a member not reachable
+     */
+    public long getSendFailures() {
+        return sendFailures.get();
+    }
+
+    /**
+     * Returns the number of deltas dropped as the queue was full.
+     * @return the number of deltas dropped as the queue was full
+     */
+    public long getDroppedDeltas() {
+        return droppedDeltas.get();
+    }
+
+    /**
+     * Returns the number of attributes not replicated as their values cannot be serialized.
+     * @return the number of attributes not replicated as their values cannot be serialized
+     */
+    public long getSkippedAttributes() {
+        return skippedAttributes.get();
+    }
+
+    /**
+     * Returns the number of received attributes not applied as their values cannot be deserialized, e.g, of a class
+     * not allowed by the class name filter.
+     * @return the number of received attributes not applied as their values cannot be deserialized
+     */
+    public long getRejectedAttributes() {
+        return rejectedAttributes.get();
+    }
+
+    /**
+     * Returns the number of deltas waiting to be sent.
+     * @return the number of deltas waiting to be sent
+     */
+    public int getPendingDeltas() {
+        final BlockingQueue<SessionDelta> pending = queue;
+        return (pending != null) ? pending.size() : 0;
+    }
+
+    /**
+     * Returns the number of deltas received from the members.
+     * @return the number of deltas received from the members
+     */
+    public long getDeltasReceived() {
+        return deltasReceived.get();
+    }
+
+    /**
+     * Returns the number of bytes received from the members.
+     * @return the number of bytes received from the members
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the replication lag in milliseconds of the last received delta, from its creation to its application.
+     * @return the replication lag in milliseconds of the last received delta
+     */
+    public long getLastLag() {
+        return lastLagMillis;
+    }
+
+    /**
+     * Returns the maximum replication lag in milliseconds of the received deltas.
+     * @return the maximum replication lag in milliseconds of the received deltas
+     */
+    public long getMaxLag() {
+        return maxLagMillis.get();
+    }
+
+    /**
+     * Returns the average replication lag in milliseconds of the received deltas.
+     * @return the average replication lag in milliseconds of the received deltas
+     */
+    public double getAverageLag() {
+        final long count = deltasReceived.get();
+        return (count == 0L) ? 0.0 : (double) lagMillisSum.get() / count;
+    }
+
+    /**
+     * Registers the context to which the received deltas of the same context path are applied.
+     * @param context web application context
+     */
+    public void register(final Context context) {
+        contexts.put(context.getPath(), context);
+    }
+
+    /**
+     * Queues the delta to send to the members.
+     * @param delta session delta
+     */
+    public void replicate(final SessionDelta delta) {
+        final BlockingQueue<SessionDelta> pending = queue;
+
+        if (pending == null || !pending.offer(delta)) {
+            droppedDeltas.incrementAndGet();
+        }
+    }
+
+    /**
+     * Creates an update of the session with the attributes by the names, serializing the attribute values.
+     * @param contextPath context path
+     * @param session session
+     * @param names attribute names, or null to include all the attributes
+     * @return an update of the session
+     */
+    public SessionDelta createUpdate(final String contextPath, final Session session,
+            final Collection<String> names) {
+        final HttpSession httpSession = session.getSession();
+        final SessionDelta delta = SessionDelta.update(contextPath, session.getIdInternal(),
+                session.getCreationTimeInternal(), session.getMaxInactiveInterval());
+        final Collection<String> attrNames = (names != null) ? names
+                : Collections.list(httpSession.getAttributeNames());
+
+        for (String name : attrNames) {
+            final Object value = httpSession.getAttribute(name);
+
+            if (value == null) {
+                delta.addAttribute(name, null);
+            } else if (value instanceof Serializable) {
+                try {
+                    delta.addAttribute(name, serialize(value));
+                } catch (IOException e) {
+                    skippedAttributes.incrementAndGet();
+                    log.debug("Cannot serialize session attribute, '{}': {}", name, e.toString());
+                }
+            } else {
+                skippedAttributes.incrementAndGet();
+            }
+        }
+
+        return delta;
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+            start();
+        } else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+            stopReceiver();
+        } else if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+            stopSender();
+        }
+    }
+
+    private synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        if (!StringUtils.hasText(sharedSecret)) {
+            log.error("Cannot start session replication without sharedSecret to authenticate the members.");
+            return;
+        }
+
+        try {
+            attributeValueClassNamePattern = Pattern.compile(StringUtils.hasText(attributeValueClassNameFilter)
+                    ? attributeValueClassNameFilter : DEFAULT_ATTRIBUTE_VALUE_CLASS_NAME_FILTER);
+        } catch (PatternSyntaxException e) {
+            log.error("Cannot start session replication with invalid attributeValueClassNameFilter: {}",
+                    e.toString());
+            return;
+        }
+
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        running = true;
+
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(InetAddress.getByName(bindAddress), port));
+        } catch (IOException e) {
+            log.error("Cannot bind session replication receiver to {}:{}. Not receiving deltas: {}", bindAddress,
+                    port, e.toString());
+            serverSocket = null;
+        }
+
+        if (serverSocket != null) {
+            acceptorThread = new Thread(this::acceptConnections, "session-replication-acceptor");
+            acceptorThread.setDaemon(true);
+            acceptorThread.start();
+        }
+
+        final List<Member> memberList = parseMembers(members);
+        final BlockingQueue<SessionDelta> pending = queue;
+        senderThread = new Thread(() -> sendDeltas(pending, memberList), "session-replication-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+
+        for (String contextPath : contexts.keySet()) {
+            replicate(SessionDelta.syncRequest(contextPath));
+        }
+
+        log.info("Started session replication: bindAddress='{}', port={}, members={}.", bindAddress, port,
+                memberList);
+    }
+
+    private synchronized void stopReceiver() {
+        if (serverSocket != null) {
+            closeQuietly(serverSocket);
+            serverSocket = null;
+        }
+
+        synchronized (receiverSockets) {
+            for (Socket socket : receiverSockets) {
+                closeQuietly(socket);
+            }
+
+            receiverSockets.clear();
+        }
+    }
+
+    private synchronized void stopSender() {
+        running = false;
+
+        if (senderThread != null) {
+            senderThread.interrupt();
+
+            try {
+                senderThread.join(connectTimeoutMillis + 1000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            senderThread = null;
+        }
+
+        queue = null;
+    }
+
+    private void sendDeltas(final BlockingQueue<SessionDelta> pending, final List<Member> memberList) {
+        final List<SessionDelta> batch = new ArrayList<>(maxBatchSize);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+
+        try {
+            while (running || !pending.isEmpty()) {
+                SessionDelta first;
+
+                try {
+                    first = pending.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Stopping, so send what is left in the queue.
+                    first = pending.poll();
+
+                    if (first == null) {
+                        break;
+                    }
+                }
+
+                if (first == null) {
+                    continue;
+                }
+
+                if (reconnectRequested) {
+                    reconnectRequested = false;
+
+                    for (Member member : memberList) {
+                        member.nextConnectTime = 0L;
+                    }
+                }
+
+                batch.add(first);
+                pending.drainTo(batch, Math.max(0, maxBatchSize - 1));
+
+                bytes.reset();
+                final DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(batch.size());
+
+                for (SessionDelta delta : batch) {
+                    delta.writeTo(out);
+                }
+
+                out.flush();
+                final byte [] frame = bytes.toByteArray();
+
+                for (Member member : memberList) {
+                    if (send(member, frame)) {
+                        batchesSent.incrementAndGet();
+                        deltasSent.addAndGet(batch.size());
+                        bytesSent.addAndGet(4L + frame.length);
+                    } else {
+                        sendFailures.incrementAndGet();
+                    }
+                }
+
+                batch.clear();
+            }
+        } catch (Exception e) {
+            log.error("Session replication sender stopped unexpectedly.", e);
+        } finally {
+            for (Member member : memberList) {
+                disconnect(member);
+            }
+        }
+    }
+
+    private boolean send(final Member member, final byte [] frame) {
+        if (member.out == null) {
+            if (System.currentTimeMillis() < member.nextConnectTime) {
+                return false;
+            }
+
+            final Socket socket = new Socket();
+
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(member.host, member.port), connectTimeoutMillis);
+                connectHandshake(socket);
+                member.socket = socket;
+                member.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+                log.info("Connected to session replication member ({}).", member);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                member.nextConnectTime = System.currentTimeMillis() + RECONNECT_INTERVAL_MILLIS;
+                log.debug("Cannot connect to session replication member ({}): {}", member, e.toString());
+                return false;
+            }
+        }
+
+        try {
+            member.out.writeInt(frame.length);
+            member.out.write(frame);
+            member.out.flush();
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to send session deltas to member ({}): {}", member, e.toString());
+            disconnect(member);
+            member.nextConnectTime = System.currentTimeMillis() + RECONNECT_INTERVAL_MILLIS;
+            return false;
+        }
+    }
+
+    /**
+     * Authenticates this instance to the receiver of a member by the MAC of the challenge sent by the receiver and
+     * a nonce of its own, and then authenticates the receiver by its MAC of the same nonces.
+     */
+    private void connectHandshake(final Socket socket) throws IOException {
+        socket.setSoTimeout(Math.max(1, connectTimeoutMillis));
+
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        final OutputStream out = socket.getOutputStream();
+        final byte [] challenge = new byte[NONCE_SIZE];
+        in.readFully(challenge);
+
+        final byte [] nonce = newNonce();
+        out.write(nonce);
+        out.write(mac(MEMBER_MAC_PREFIX, challenge, nonce));
+        out.flush();
+
+        final byte [] receiverMac = new byte[MAC_SIZE];
+        in.readFully(receiverMac);
+
+        if (!MessageDigest.isEqual(receiverMac, mac(RECEIVER_MAC_PREFIX, challenge, nonce))) {
+            throw new IOException("Session replication member failed to authenticate.");
+        }
+
+        socket.setSoTimeout(0);
+    }
+
+    /**
+     * Sends a challenge to the member connected, verifies the MAC of the challenge and the nonce sent by the member,
+     * and then authenticates itself by its MAC of the same nonces.
+     * @return true if the member is authenticated
+     */
+    private boolean acceptHandshake(final Socket socket, final DataInputStream in) throws IOException {
+        socket.setSoTimeout(Math.max(1, connectTimeoutMillis));
+
+        final OutputStream out = socket.getOutputStream();
+        final byte [] challenge = newNonce();
+        out.write(challenge);
+        out.flush();
+
+        final byte [] nonce = new byte[NONCE_SIZE];
+        in.readFully(nonce);
+        final byte [] memberMac = new byte[MAC_SIZE];
+        in.readFully(memberMac);
+
+        if (!MessageDigest.isEqual(memberMac, mac(MEMBER_MAC_PREFIX, challenge, nonce))) {
+            return false;
+        }
+
+        out.write(mac(RECEIVER_MAC_PREFIX, challenge, nonce));
+        out.flush();
+        socket.setSoTimeout(0);
+        return true;
+    }
+
+    private byte [] newNonce() {
+        final byte [] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    private byte [] mac(final byte prefix, final byte [] challenge, final byte [] nonce) {
+        try {
+            final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(sharedSecret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            mac.update(prefix);
+            mac.update(challenge);
+            mac.update(nonce);
+            return mac.doFinal();
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void disconnect(final Member member) {
+        if (member.socket != null) {
+            closeQuietly(member.socket);
+        }
+
+        member.socket = null;
+        member.out = null;
+    }
+
+    private void acceptConnections() {
+        final ServerSocket server = serverSocket;
+
+        while (running && server != null && !server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                receiverSockets.add(socket);
+                final Thread receiver = new Thread(() -> receiveDeltas(socket),
+                        "session-replication-receiver-" + socket.getPort());
+                receiver.setDaemon(true);
+                receiver.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    log.warn("Failed to accept session replication connection: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    private void receiveDeltas(final Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536))) {
+            if (!acceptHandshake(socket, in)) {
+                log.warn("Rejected session replication connection from {} which failed to authenticate.",
+                        socket.getRemoteSocketAddress());
+                return;
+            }
+
+            for (;;) {
+                final int length;
+
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid session replication frame size: " + length);
+                }
+
+                final byte [] frame = new byte[length];
+                in.readFully(frame);
+                bytesReceived.addAndGet(4L + length);
+
+                final DataInputStream frameIn = new DataInputStream(new ByteArrayInputStream(frame));
+                final int count = frameIn.readInt();
+
+                for (int i = 0; i < count; i++) {
+                    final SessionDelta delta = SessionDelta.readFrom(frameIn);
+                    apply(delta);
+                    recordLag(delta);
+                }
+            }
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                log.warn("Session replication connection from {} closed: {}", socket.getRemoteSocketAddress(),
+                        e.toString());
+            }
+        } finally {
+            receiverSockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void recordLag(final SessionDelta delta) {
+        final long lag = Math.max(0L, System.currentTimeMillis() - delta.getTimestamp());
+        deltasReceived.incrementAndGet();
+        lastLagMillis = lag;
+        lagMillisSum.addAndGet(lag);
+
+        for (long max = maxLagMillis.get(); lag > max; max = maxLagMillis.get()) {
+            if (maxLagMillis.compareAndSet(max, lag)) {
+                break;
+            }
+        }
+    }
+
+    private void apply(final SessionDelta delta) {
+        final Context context = contexts.get(delta.getContextPath());
+
+        if (context == null || !context.getState().isAvailable() || context.getManager() == null) {
+            return;
+        }
+
+        final Manager manager = context.getManager();
+        final ClassLoader contextClassLoader = (context.getLoader() != null)
+                ? context.getLoader().getClassLoader() : null;
+        final Thread thread = Thread.currentThread();
+        final ClassLoader oldClassLoader = thread.getContextClassLoader();
+
+        try {
+            if (contextClassLoader != null) {
+                thread.setContextClassLoader(contextClassLoader);
+            }
+
+            if (delta.getType() == SessionDelta.TYPE_SYNC_REQUEST) {
+                reconnectRequested = true;
+
+                for (Session session : manager.findSessions()) {
+                    if (session.isValid()) {
+                        replicate(createUpdate(delta.getContextPath(), session, null));
+                    }
+                }
+            } else if (delta.getType() == SessionDelta.TYPE_INVALIDATE) {
+                final Session session = manager.findSession(delta.getSessionId());
+
+                if (session != null) {
+                    session.expire();
+                }
+            } else {
+                applyUpdate(manager, delta, contextClassLoader);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to apply session delta to session ('{}') in context ('{}'): {}", delta.getSessionId(),
+                    delta.getContextPath(), e.toString());
+        } finally {
+            thread.setContextClassLoader(oldClassLoader);
+        }
+    }
+
+    private void applyUpdate(final Manager manager, final SessionDelta delta, final ClassLoader classLoader)
+            throws IOException {
+        Session session = manager.findSession(delta.getSessionId());
+
+        if (session == null) {
+            session = manager.createEmptySession();
+            session.setNew(false);
+            session.setValid(true);
+            session.setCreationTime(delta.getCreationTime());
+            session.setMaxInactiveInterval(delta.getMaxInactiveInterval());
+            session.setId(delta.getSessionId(), false);
+        } else if (session.getMaxInactiveInterval() != delta.getMaxInactiveInterval()) {
+            session.setMaxInactiveInterval(delta.getMaxInactiveInterval());
+        }
+
+        final Pattern allowedClassNamePattern = getAllowedClassNamePattern(manager);
+        final List<String> names = delta.getAttributeNames();
+
+        for (int i = 0; i < names.size(); i++) {
+            final byte [] serializedValue = delta.getAttributeValue(i);
+
+            if (serializedValue == null) {
+                if (session instanceof StandardSession) {
+                    ((StandardSession) session).removeAttribute(names.get(i), false);
+                } else {
+                    session.getSession().removeAttribute(names.get(i));
+                }
+
+                continue;
+            }
+
+            final Object value;
+
+            try (CustomObjectInputStream in = new CustomObjectInputStream(new ByteArrayInputStream(serializedValue),
+                    classLoader, filterLog, allowedClassNamePattern, false)) {
+                value = in.readObject();
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                // Skip only this attribute, e.g, of a class not allowed by the filter, and apply the others.
+                rejectedAttributes.incrementAndGet();
+                log.warn("Rejected attribute ('{}') of session ('{}') in context ('{}'): {}", names.get(i),
+                        delta.getSessionId(), delta.getContextPath(), e.toString());
+                continue;
+            }
+
+            if (session instanceof StandardSession) {
+                ((StandardSession) session).setAttribute(names.get(i), value, false);
+            } else {
+                session.getSession().setAttribute(names.get(i), value);
+            }
+        }
+
+        // Mark it as accessed now, so it does not expire earlier than on the other instance.
+        session.access();
+        session.endAccess();
+    }
+
+    private Pattern getAllowedClassNamePattern(final Manager manager) {
+        if (manager instanceof ManagerBase) {
+            final String filter = ((ManagerBase) manager).getSessionAttributeValueClassNameFilter();
+
+            if (filter != null) {
+                return Pattern.compile(filter);
+            }
+        }
+
+        return attributeValueClassNamePattern;
+    }
+
+    private static byte [] serialize(final Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static List<Member> parseMembers(final String members) {
+        final List<Member> memberList = new ArrayList<>();
+        final String [] tokens = StringUtils.tokenizeToStringArray(members, ",");
+
+        if (tokens == null) {
+            return memberList;
+        }
+
+        for (String token : tokens) {
+            final int offset = token.lastIndexOf(':');
+
+            if (offset <= 0 || offset == token.length() - 1) {
+                log.warn("Ignoring invalid session replication member address, '{}'. It should be 'host:port'.",
+                        token);
+                continue;
+            }
+
+            try {
+                memberList.add(new Member(token.substring(0, offset).trim(),
+                        Integer.parseInt(token.substring(offset + 1).trim())));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring invalid session replication member port, '{}'.", token);
+            }
+        }
+
+        return memberList;
+    }
+
+    private static void closeQuietly(final java.io.Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignore) {
+        }
+    }
+}
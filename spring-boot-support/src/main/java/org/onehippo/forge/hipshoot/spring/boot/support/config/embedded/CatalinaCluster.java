@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Session replication configuration between embedded instances listed as static members, e.g, other JVMs on
+ * the same host over loopback TCP.
+ * <P>
+ * <code>sharedSecret</code> is required to authenticate the members. <code>attributeValueClassNameFilter</code>
+ * applies to the contexts whose session manager has no <code>sessionAttributeValueClassNameFilter</code>, and
+ * allows only a few JDK value and collection classes if not set.
+ * </P>
+ */
+public class CatalinaCluster {
+
+    private boolean enabled;
+    private String bindAddress = "127.0.0.1";
+    private int port = 4000;
+    private String members;
+    private int queueSize = 10000;
+    private int maxBatchSize = 256;
+    private int connectTimeoutMillis = 1000;
+    private int accessReplicationIntervalSeconds = 60;
+    private String sharedSecret;
+    private String attributeValueClassNameFilter;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getMembers() {
+        return members;
+    }
+
+    public void setMembers(String members) {
+        this.members = members;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getAccessReplicationIntervalSeconds() {
+        return accessReplicationIntervalSeconds;
+    }
+
+    public void setAccessReplicationIntervalSeconds(int accessReplicationIntervalSeconds) {
+        this.accessReplicationIntervalSeconds = accessReplicationIntervalSeconds;
+    }
+
+    public String getSharedSecret() {
+        return sharedSecret;
+    }
+
+    public void setSharedSecret(String sharedSecret) {
+        this.sharedSecret = sharedSecret;
+    }
+
+    public String getAttributeValueClassNameFilter() {
+        return attributeValueClassNameFilter;
+    }
+
+    public void setAttributeValueClassNameFilter(String attributeValueClassNameFilter) {
+        this.attributeValueClassNameFilter = attributeValueClassNameFilter;
+    }
+}
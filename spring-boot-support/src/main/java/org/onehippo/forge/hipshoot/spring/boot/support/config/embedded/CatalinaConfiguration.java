@@ -16,6 +16,9 @@
  */
 package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.onehippo.forge.hipshoot.spring.boot.support.AppsDeployingTomcatEmbeddedServletContainerFactory;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -47,6 +50,21 @@ public class CatalinaConfiguration {
      */
     private CatalinaServer server = new CatalinaServer();
 
+    /**
+     * Connector configuration.
+     */
+    private CatalinaConnector connector = new CatalinaConnector();
+
+    /**
+     * Additional services, each having its own connector and thread pool, to which some of the wars are bound.
+     */
+    private List<CatalinaService> services = new ArrayList<>();
+
+    /**
+     * Session replication configuration between the embedded instances.
+     */
+    private CatalinaCluster cluster = new CatalinaCluster();
+
     /**
      * Returns the web application base directory path. i.e, <code>$CATALINA_BASE/webapps</code>.
      * @return the web application base directory path. i.e, <code>$CATALINA_BASE/webapps</code>
@@ -111,4 +129,52 @@ public class CatalinaConfiguration {
         this.server = server;
     }
 
+    /**
+     * Returns Connector configuration.
+     * @return Connector configuration
+     */
+    public CatalinaConnector getConnector() {
+        return connector;
+    }
+
+    /**
+     * Sets Connector configuration
+     * @param connector Connector configuration
+     */
+    public void setConnector(CatalinaConnector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * Returns additional services, each having its own connector and thread pool, to which some of the wars are bound.
+     * @return additional services
+     */
+    public List<CatalinaService> getServices() {
+        return services;
+    }
+
+    /**
+     * Sets additional services, each having its own connector and thread pool, to which some of the wars are bound.
+     * @param services additional services
+     */
+    public void setServices(List<CatalinaService> services) {
+        this.services = services;
+    }
+
+    /**
+     * Returns session replication configuration between the embedded instances.
+     * @return session replication configuration between the embedded instances
+     */
+    public CatalinaCluster getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Sets session replication configuration between the embedded instances.
+     * @param cluster session replication configuration between the embedded instances
+     */
+    public void setCluster(CatalinaCluster cluster) {
+        this.cluster = cluster;
+    }
+
 }
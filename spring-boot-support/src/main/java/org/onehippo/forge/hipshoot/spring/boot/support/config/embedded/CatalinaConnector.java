@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Connector tuning configuration, applied to the connector built by the web server factory.
+ * <P>
+ * Each property is applied only if it is set, so Tomcat defaults are kept otherwise.
+ * If <code>maxQueueSize</code> is set, a dedicated executor is created with <code>minSpareThreads</code>,
+ * <code>maxThreads</code> and <code>maxQueueSize</code> for the connector.
+ * If <code>useVirtualThreads</code> is true and the JDK supports virtual threads, an executor running each request
+ * in a new virtual thread is used instead.
+ * If <code>http2.enabled</code> is true, HTTP/2 cleartext is accepted on the connector as well.
+ * </P>
+ */
+public class CatalinaConnector {
+
+    public static final String PROTOCOL_NIO = "nio";
+
+    public static final String PROTOCOL_NIO2 = "nio2";
+
+    private String protocol;
+    private Integer acceptorThreadCount;
+    private Integer pollerThreadCount;
+    private Integer minSpareThreads;
+    private Integer maxThreads;
+    private Integer maxQueueSize;
+    private Integer maxConnections;
+    private Integer acceptCount;
+    private Integer connectionTimeout;
+    private Integer maxKeepAliveRequests;
+    private Integer keepAliveTimeout;
+    private Integer socketRxBufSize;
+    private Integer socketTxBufSize;
+    private Integer socketAppReadBufSize;
+    private Integer socketAppWriteBufSize;
+    private Boolean socketDirectBuffer;
+    private String compression;
+    private Integer compressionMinSize;
+    private String compressibleMimeType;
+    private Boolean useSendfile;
+    private boolean useVirtualThreads;
+    private boolean virtualThreadPinnedEventsEnabled = true;
+    private CatalinaHttp2 http2 = new CatalinaHttp2();
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    public Integer getAcceptorThreadCount() {
+        return acceptorThreadCount;
+    }
+
+    public void setAcceptorThreadCount(Integer acceptorThreadCount) {
+        this.acceptorThreadCount = acceptorThreadCount;
+    }
+
+    public Integer getPollerThreadCount() {
+        return pollerThreadCount;
+    }
+
+    public void setPollerThreadCount(Integer pollerThreadCount) {
+        this.pollerThreadCount = pollerThreadCount;
+    }
+
+    public Integer getMinSpareThreads() {
+        return minSpareThreads;
+    }
+
+    public void setMinSpareThreads(Integer minSpareThreads) {
+        this.minSpareThreads = minSpareThreads;
+    }
+
+    public Integer getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(Integer maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public Integer getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    public void setMaxQueueSize(Integer maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Integer getAcceptCount() {
+        return acceptCount;
+    }
+
+    public void setAcceptCount(Integer acceptCount) {
+        this.acceptCount = acceptCount;
+    }
+
+    public Integer getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public void setConnectionTimeout(Integer connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public Integer getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public void setMaxKeepAliveRequests(Integer maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    public Integer getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public void setKeepAliveTimeout(Integer keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public Integer getSocketRxBufSize() {
+        return socketRxBufSize;
+    }
+
+    public void setSocketRxBufSize(Integer socketRxBufSize) {
+        this.socketRxBufSize = socketRxBufSize;
+    }
+
+    public Integer getSocketTxBufSize() {
+        return socketTxBufSize;
+    }
+
+    public void setSocketTxBufSize(Integer socketTxBufSize) {
+        this.socketTxBufSize = socketTxBufSize;
+    }
+
+    public Integer getSocketAppReadBufSize() {
+        return socketAppReadBufSize;
+    }
+
+    public void setSocketAppReadBufSize(Integer socketAppReadBufSize) {
+        this.socketAppReadBufSize = socketAppReadBufSize;
+    }
+
+    public Integer getSocketAppWriteBufSize() {
+        return socketAppWriteBufSize;
+    }
+
+    public void setSocketAppWriteBufSize(Integer socketAppWriteBufSize) {
+        this.socketAppWriteBufSize = socketAppWriteBufSize;
+    }
+
+    public Boolean getSocketDirectBuffer() {
+        return socketDirectBuffer;
+    }
+
+    public void setSocketDirectBuffer(Boolean socketDirectBuffer) {
+        this.socketDirectBuffer = socketDirectBuffer;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public Integer getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(Integer compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    public String getCompressibleMimeType() {
+        return compressibleMimeType;
+    }
+
+    public void setCompressibleMimeType(String compressibleMimeType) {
+        this.compressibleMimeType = compressibleMimeType;
+    }
+
+    public Boolean getUseSendfile() {
+        return useSendfile;
+    }
+
+    public void setUseSendfile(Boolean useSendfile) {
+        this.useSendfile = useSendfile;
+    }
+
+    public boolean isUseVirtualThreads() {
+        return useVirtualThreads;
+    }
+
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+
+    public boolean isVirtualThreadPinnedEventsEnabled() {
+        return virtualThreadPinnedEventsEnabled;
+    }
+
+    public void setVirtualThreadPinnedEventsEnabled(boolean virtualThreadPinnedEventsEnabled) {
+        this.virtualThreadPinnedEventsEnabled = virtualThreadPinnedEventsEnabled;
+    }
+
+    public CatalinaHttp2 getHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(CatalinaHttp2 http2) {
+        this.http2 = http2;
+    }
+}
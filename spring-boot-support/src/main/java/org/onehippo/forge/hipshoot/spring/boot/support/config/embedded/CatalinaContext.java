@@ -26,6 +26,13 @@ public class CatalinaContext {
     private List<CatalinaParameter> parameters = new ArrayList<>();
     private List<CatalinaEnvironment> environments = new ArrayList<>();
     private List<CatalinaNamingResource> namingResources = new ArrayList<>();
+    private List<CatalinaBulkhead> bulkheads = new ArrayList<>();
+    private List<CatalinaRateLimit> rateLimits = new ArrayList<>();
+    private CatalinaLatencyHistogram latencyHistogram = new CatalinaLatencyHistogram();
+    private List<CatalinaResponseCache> responseCaches = new ArrayList<>();
+    private CatalinaRequestCoalescing requestCoalescing = new CatalinaRequestCoalescing();
+    private CatalinaJspPrecompilation jspPrecompilation = new CatalinaJspPrecompilation();
+    private boolean classLoadingMetricsEnabled;
 
     public CatalinaManager getManager() {
         return manager;
@@ -67,4 +74,60 @@ public class CatalinaContext {
         this.namingResources = namingResources;
     }
 
+    public List<CatalinaBulkhead> getBulkheads() {
+        return bulkheads;
+    }
+
+    public void setBulkheads(List<CatalinaBulkhead> bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    public List<CatalinaRateLimit> getRateLimits() {
+        return rateLimits;
+    }
+
+    public void setRateLimits(List<CatalinaRateLimit> rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    public CatalinaLatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    public void setLatencyHistogram(CatalinaLatencyHistogram latencyHistogram) {
+        this.latencyHistogram = latencyHistogram;
+    }
+
+    public List<CatalinaResponseCache> getResponseCaches() {
+        return responseCaches;
+    }
+
+    public void setResponseCaches(List<CatalinaResponseCache> responseCaches) {
+        this.responseCaches = responseCaches;
+    }
+
+    public CatalinaRequestCoalescing getRequestCoalescing() {
+        return requestCoalescing;
+    }
+
+    public void setRequestCoalescing(CatalinaRequestCoalescing requestCoalescing) {
+        this.requestCoalescing = requestCoalescing;
+    }
+
+    public CatalinaJspPrecompilation getJspPrecompilation() {
+        return jspPrecompilation;
+    }
+
+    public void setJspPrecompilation(CatalinaJspPrecompilation jspPrecompilation) {
+        this.jspPrecompilation = jspPrecompilation;
+    }
+
+    public boolean isClassLoadingMetricsEnabled() {
+        return classLoadingMetricsEnabled;
+    }
+
+    public void setClassLoadingMetricsEnabled(boolean classLoadingMetricsEnabled) {
+        this.classLoadingMetricsEnabled = classLoadingMetricsEnabled;
+    }
+
 }
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Graceful shutdown configuration, draining the in-flight requests and stopping all the web application contexts
+ * in parallel when the server stops.
+ */
+public class CatalinaGracefulShutdown {
+
+    private boolean enabled;
+    private long drainTimeoutMillis = 30000;
+    private long contextStopTimeoutMillis = 30000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean haltOnTimeout = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    public long getContextStopTimeoutMillis() {
+        return contextStopTimeoutMillis;
+    }
+
+    public void setContextStopTimeoutMillis(long contextStopTimeoutMillis) {
+        this.contextStopTimeoutMillis = contextStopTimeoutMillis;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isHaltOnTimeout() {
+        return haltOnTimeout;
+    }
+
+    public void setHaltOnTimeout(boolean haltOnTimeout) {
+        this.haltOnTimeout = haltOnTimeout;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * JSP precompilation configuration, applied to each web application context deployed from the <code>appBase</code>.
+ * <P>
+ * If <code>workDirectory</code> is not set, <code>${java.io.tmpdir}/hipshoot-jsp-work</code> is used. It should be
+ * set to a persistent directory to skip compilation on restarts.
+ * </P>
+ * <P>
+ * The scratch directories of previous versions of a war file are kept unless <code>removeObsoleteDirectories</code>
+ * is enabled, which must not be done if another server may use the same <code>workDirectory</code>.
+ * </P>
+ */
+public class CatalinaJspPrecompilation {
+
+    private boolean enabled;
+    private String workDirectory;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean failOnError;
+
+    private boolean removeObsoleteDirectories;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getWorkDirectory() {
+        return workDirectory;
+    }
+
+    public void setWorkDirectory(String workDirectory) {
+        this.workDirectory = workDirectory;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public boolean isFailOnError() {
+        return failOnError;
+    }
+
+    public void setFailOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+    }
+
+    public boolean isRemoveObsoleteDirectories() {
+        return removeObsoleteDirectories;
+    }
+
+    public void setRemoveObsoleteDirectories(boolean removeObsoleteDirectories) {
+        this.removeObsoleteDirectories = removeObsoleteDirectories;
+    }
+}
@@ -18,7 +18,37 @@ package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
 
 public class CatalinaManager {
 
+    /**
+     * Standard session manager type, i.e, <code>org.apache.catalina.session.StandardManager</code>.
+     */
+    public static final String TYPE_STANDARD = "standard";
+
+    /**
+     * Striped session manager type, i.e,
+     * <code>org.onehippo.forge.hipshoot.spring.boot.support.session.StripedSessionManager</code>.
+     */
+    public static final String TYPE_STRIPED = "striped";
+
+    private String type = TYPE_STANDARD;
     private String pathname;
+    private int stripes = 16;
+    private int maxSessions = -1;
+    private int expiryBucketSeconds = 10;
+    private boolean snapshotEnabled;
+    private int snapshotThreads = Runtime.getRuntime().availableProcessors();
+    private boolean offHeapEnabled;
+    private long offHeapCapacity = 256L * 1024 * 1024; // 256 MB.
+    private int offHeapBlockSize = 4096;
+    private int offHeapCacheSize = 1024;
+    private int offHeapMinSize = 16 * 1024; // 16 KB.
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
 
     public String getPathname() {
         return pathname;
@@ -28,4 +58,84 @@ public class CatalinaManager {
         this.pathname = pathname;
     }
 
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    public int getExpiryBucketSeconds() {
+        return expiryBucketSeconds;
+    }
+
+    public void setExpiryBucketSeconds(int expiryBucketSeconds) {
+        this.expiryBucketSeconds = expiryBucketSeconds;
+    }
+
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+
+    public int getSnapshotThreads() {
+        return snapshotThreads;
+    }
+
+    public void setSnapshotThreads(int snapshotThreads) {
+        this.snapshotThreads = snapshotThreads;
+    }
+
+    public boolean isOffHeapEnabled() {
+        return offHeapEnabled;
+    }
+
+    public void setOffHeapEnabled(boolean offHeapEnabled) {
+        this.offHeapEnabled = offHeapEnabled;
+    }
+
+    public long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    public void setOffHeapCapacity(long offHeapCapacity) {
+        this.offHeapCapacity = offHeapCapacity;
+    }
+
+    public int getOffHeapBlockSize() {
+        return offHeapBlockSize;
+    }
+
+    public void setOffHeapBlockSize(int offHeapBlockSize) {
+        this.offHeapBlockSize = offHeapBlockSize;
+    }
+
+    public int getOffHeapCacheSize() {
+        return offHeapCacheSize;
+    }
+
+    public void setOffHeapCacheSize(int offHeapCacheSize) {
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+    public int getOffHeapMinSize() {
+        return offHeapMinSize;
+    }
+
+    public void setOffHeapMinSize(int offHeapMinSize) {
+        this.offHeapMinSize = offHeapMinSize;
+    }
+
 }
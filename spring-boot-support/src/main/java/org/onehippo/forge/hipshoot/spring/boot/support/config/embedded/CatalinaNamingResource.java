@@ -21,12 +21,38 @@ import java.util.Map;
 
 import org.springframework.util.StringUtils;
 
+/**
+ * Naming resource configuration, added to each web application context.
+ * <P>
+ * If <code>scope</code> is <code>global</code>, the resource is created only once in the global naming resources
+ * of the server, by <code>globalName</code> or <code>name</code> if not set, and each context gets a resource link
+ * to it by <code>name</code>. e.g, a <code>DataSource</code> pool is shared by all the contexts instead of
+ * creating a pool per context.
+ * </P>
+ * <P>
+ * For a <code>javax.sql.DataSource</code> resource, <code>warmUp</code> opens <code>warmUpMinIdle</code>
+ * connections in parallel once the server has started, validating each by <code>warmUpValidationQuery</code>
+ * if set. <code>metricsEnabled</code> records the pool metrics of the resource, in which case lookups return
+ * a proxy implementing the interfaces of the <code>DataSource</code>.
+ * </P>
+ */
 public class CatalinaNamingResource {
 
+    public static final String SCOPE_CONTEXT = "context";
+
+    public static final String SCOPE_GLOBAL = "global";
+
     private String name;
+    private String scope = SCOPE_CONTEXT;
+    private String globalName;
     private String auth;
     private String type;
     private Map<String, Object> properties = new LinkedHashMap<>();
+    private boolean warmUp;
+    private int warmUpMinIdle;
+    private String warmUpValidationQuery;
+    private long warmUpTimeoutMillis = 30000;
+    private boolean metricsEnabled;
 
     public String getName() {
         return name;
@@ -36,6 +62,30 @@ public class CatalinaNamingResource {
         this.name = name;
     }
 
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public String getGlobalName() {
+        return globalName;
+    }
+
+    public void setGlobalName(String globalName) {
+        this.globalName = globalName;
+    }
+
+    public boolean isGlobal() {
+        return SCOPE_GLOBAL.equalsIgnoreCase(StringUtils.trimWhitespace(scope));
+    }
+
+    public String getGlobalNameOrName() {
+        return StringUtils.hasText(globalName) ? globalName.trim() : name;
+    }
+
     public String getAuth() {
         return auth;
     }
@@ -60,6 +110,46 @@ public class CatalinaNamingResource {
         this.properties = properties;
     }
 
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public int getWarmUpMinIdle() {
+        return warmUpMinIdle;
+    }
+
+    public void setWarmUpMinIdle(int warmUpMinIdle) {
+        this.warmUpMinIdle = warmUpMinIdle;
+    }
+
+    public String getWarmUpValidationQuery() {
+        return warmUpValidationQuery;
+    }
+
+    public void setWarmUpValidationQuery(String warmUpValidationQuery) {
+        this.warmUpValidationQuery = warmUpValidationQuery;
+    }
+
+    public long getWarmUpTimeoutMillis() {
+        return warmUpTimeoutMillis;
+    }
+
+    public void setWarmUpTimeoutMillis(long warmUpTimeoutMillis) {
+        this.warmUpTimeoutMillis = warmUpTimeoutMillis;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
     public void setPropertiesString(String propertiesString) {
         if (propertiesString == null || propertiesString.isEmpty()) {
             return;
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Per-client rate limit configuration for a web application context.
+ * <P>
+ * If <code>contextPath</code> is not set, it applies to every context having no rate limit configuration of its own.
+ * The rate limit is enabled only if <code>requestsPerSecond</code> is greater than zero. If <code>keyHeader</code>
+ * is not set, clients are told by the remote address. Otherwise, clients are told by the value of
+ * <code>keyHeader</code> at <code>trustedProxyCount</code> from the right, as the values on the left may be sent by
+ * the clients themselves.
+ * </P>
+ */
+public class CatalinaRateLimit {
+
+    private String contextPath;
+    private double requestsPerSecond = -1;
+    private int burst = 20;
+    private String keyHeader;
+    private int trustedProxyCount = 1;
+    private int tableSize = 65536;
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public void setContextPath(String contextPath) {
+        this.contextPath = contextPath;
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public String getKeyHeader() {
+        return keyHeader;
+    }
+
+    public void setKeyHeader(String keyHeader) {
+        this.keyHeader = keyHeader;
+    }
+
+    public int getTrustedProxyCount() {
+        return trustedProxyCount;
+    }
+
+    public void setTrustedProxyCount(int trustedProxyCount) {
+        this.trustedProxyCount = trustedProxyCount;
+    }
+
+    public int getTableSize() {
+        return tableSize;
+    }
+
+    public void setTableSize(int tableSize) {
+        this.tableSize = tableSize;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Request coalescing configuration, applied to each web application context.
+ */
+public class CatalinaRequestCoalescing {
+
+    private boolean enabled;
+    private String urlPatterns;
+    private String keyHeaders;
+    private String bypassCookies = "JSESSIONID";
+    private int maxResponseSize = 1024 * 1024;
+    private long timeoutMillis = 5000;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getUrlPatterns() {
+        return urlPatterns;
+    }
+
+    public void setUrlPatterns(String urlPatterns) {
+        this.urlPatterns = urlPatterns;
+    }
+
+    public String getKeyHeaders() {
+        return keyHeaders;
+    }
+
+    public void setKeyHeaders(String keyHeaders) {
+        this.keyHeaders = keyHeaders;
+    }
+
+    public String getBypassCookies() {
+        return bypassCookies;
+    }
+
+    public void setBypassCookies(String bypassCookies) {
+        this.bypassCookies = bypassCookies;
+    }
+
+    public int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public void setMaxResponseSize(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+}
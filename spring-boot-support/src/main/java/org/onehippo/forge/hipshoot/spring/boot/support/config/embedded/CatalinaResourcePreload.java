@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Resource cache preloading configuration, applied to each web application context deployed from
+ * the <code>appBase</code>.
+ * <P>
+ * <code>patterns</code> are comma separated Ant-style path patterns, e.g, <code>/css/**&#47;*.css</code>.
+ * If <code>hotSetDirectory</code> is set, the hits of the static resources are recorded in
+ * <code>${hotSetDirectory}/${contextName}.hotset</code> when the context stops, to be preloaded on the next start.
+ * </P>
+ */
+public class CatalinaResourcePreload {
+
+    private boolean enabled;
+    private String patterns;
+    private String hotSetDirectory;
+    private int hotSetMaxSize = 1000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getPatterns() {
+        return patterns;
+    }
+
+    public void setPatterns(String patterns) {
+        this.patterns = patterns;
+    }
+
+    public String getHotSetDirectory() {
+        return hotSetDirectory;
+    }
+
+    public void setHotSetDirectory(String hotSetDirectory) {
+        this.hotSetDirectory = hotSetDirectory;
+    }
+
+    public int getHotSetMaxSize() {
+        return hotSetMaxSize;
+    }
+
+    public void setHotSetMaxSize(int hotSetMaxSize) {
+        this.hotSetMaxSize = hotSetMaxSize;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+}
@@ -22,6 +22,14 @@ public class CatalinaResources {
 
     private long cacheMaxSize = 10 * 1024; // 10 KB.
 
+    private boolean sendfileEnabled;
+
+    private int sendfileSize = 48; // 48 KB.
+
+    private CatalinaPrecompression precompression = new CatalinaPrecompression();
+
+    private CatalinaResourcePreload preload = new CatalinaResourcePreload();
+
     public boolean isCachingAllowed() {
         return cachingAllowed;
     }
@@ -37,4 +45,36 @@ public class CatalinaResources {
     public void setCacheMaxSize(long cacheMaxSize) {
         this.cacheMaxSize = cacheMaxSize;
     }
+
+    public boolean isSendfileEnabled() {
+        return sendfileEnabled;
+    }
+
+    public void setSendfileEnabled(boolean sendfileEnabled) {
+        this.sendfileEnabled = sendfileEnabled;
+    }
+
+    public int getSendfileSize() {
+        return sendfileSize;
+    }
+
+    public void setSendfileSize(int sendfileSize) {
+        this.sendfileSize = sendfileSize;
+    }
+
+    public CatalinaPrecompression getPrecompression() {
+        return precompression;
+    }
+
+    public void setPrecompression(CatalinaPrecompression precompression) {
+        this.precompression = precompression;
+    }
+
+    public CatalinaResourcePreload getPreload() {
+        return preload;
+    }
+
+    public void setPreload(CatalinaResourcePreload preload) {
+        this.preload = preload;
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Response cache configuration for a web application context.
+ * <P>
+ * If <code>contextPath</code> is not set, it applies to every context having no response cache configuration of
+ * its own. The response cache is enabled only if <code>urlPatterns</code> is set.
+ * </P>
+ */
+public class CatalinaResponseCache {
+
+    private String contextPath;
+    private String urlPatterns;
+    private long ttlSeconds = 60;
+    private int maxEntrySize = 1024 * 1024;
+    private String varyHeaders;
+    private String bypassCookies = "JSESSIONID";
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    public void setContextPath(String contextPath) {
+        this.contextPath = contextPath;
+    }
+
+    public String getUrlPatterns() {
+        return urlPatterns;
+    }
+
+    public void setUrlPatterns(String urlPatterns) {
+        this.urlPatterns = urlPatterns;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    public String getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    public void setVaryHeaders(String varyHeaders) {
+        this.varyHeaders = varyHeaders;
+    }
+
+    public String getBypassCookies() {
+        return bypassCookies;
+    }
+
+    public void setBypassCookies(String bypassCookies) {
+        this.bypassCookies = bypassCookies;
+    }
+}
@@ -19,6 +19,11 @@ package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
 public class CatalinaServer {
 
     private CatalinaContext defaultContext = new CatalinaContext();
+    private CatalinaAdaptiveLimit adaptiveLimit = new CatalinaAdaptiveLimit();
+    private CatalinaSaturationSampler saturationSampler = new CatalinaSaturationSampler();
+    private CatalinaAccessLog accessLog = new CatalinaAccessLog();
+    private CatalinaGracefulShutdown gracefulShutdown = new CatalinaGracefulShutdown();
+    private long responseCacheMaxMemory = 64L * 1024 * 1024;
 
     public CatalinaContext getDefaultContext() {
         return defaultContext;
@@ -28,4 +33,44 @@ public class CatalinaServer {
         this.defaultContext = defaultContext;
     }
 
+    public CatalinaAdaptiveLimit getAdaptiveLimit() {
+        return adaptiveLimit;
+    }
+
+    public void setAdaptiveLimit(CatalinaAdaptiveLimit adaptiveLimit) {
+        this.adaptiveLimit = adaptiveLimit;
+    }
+
+    public CatalinaSaturationSampler getSaturationSampler() {
+        return saturationSampler;
+    }
+
+    public void setSaturationSampler(CatalinaSaturationSampler saturationSampler) {
+        this.saturationSampler = saturationSampler;
+    }
+
+    public CatalinaAccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    public void setAccessLog(CatalinaAccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    public CatalinaGracefulShutdown getGracefulShutdown() {
+        return gracefulShutdown;
+    }
+
+    public void setGracefulShutdown(CatalinaGracefulShutdown gracefulShutdown) {
+        this.gracefulShutdown = gracefulShutdown;
+    }
+
+    public long getResponseCacheMaxMemory() {
+        return responseCacheMaxMemory;
+    }
+
+    public void setResponseCacheMaxMemory(long responseCacheMaxMemory) {
+        this.responseCacheMaxMemory = responseCacheMaxMemory;
+    }
+
 }
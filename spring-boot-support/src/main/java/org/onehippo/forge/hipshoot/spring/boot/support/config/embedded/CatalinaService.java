@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.config.embedded;
+
+/**
+ * Additional service configuration, having its own connector and thread pool, to which some of the packaged wars
+ * are bound in order to isolate their traffic from the other web applications.
+ */
+public class CatalinaService {
+
+    private String name;
+    private int port;
+    private String wars;
+    private CatalinaConnector connector = new CatalinaConnector();
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getWars() {
+        return wars;
+    }
+
+    public void setWars(String wars) {
+        this.wars = wars;
+    }
+
+    public CatalinaConnector getConnector() {
+        return connector;
+    }
+
+    public void setConnector(CatalinaConnector connector) {
+        this.connector = connector;
+    }
+
+}
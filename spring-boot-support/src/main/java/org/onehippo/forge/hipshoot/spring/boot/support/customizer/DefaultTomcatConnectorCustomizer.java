@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.customizer;
+
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaConfiguration;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaConnector;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaHttp2;
+import org.onehippo.forge.hipshoot.spring.boot.support.executor.VirtualThreadExecutor;
+import org.onehippo.forge.hipshoot.spring.boot.support.protocol.InstrumentedHttp2Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+
+/**
+ * Default {@link Connector} customizer implementation, applying {@link CatalinaConnector} configuration.
+ */
+public class DefaultTomcatConnectorCustomizer implements TomcatConnectorCustomizer {
+
+    private static Logger log = LoggerFactory.getLogger(DefaultTomcatConnectorCustomizer.class);
+
+    private static final String NIO_PROTOCOL_CLASS_NAME = "org.apache.coyote.http11.Http11NioProtocol";
+
+    private static final String NIO2_PROTOCOL_CLASS_NAME = "org.apache.coyote.http11.Http11Nio2Protocol";
+
+    private final CatalinaConnector connectorConfig;
+
+    public DefaultTomcatConnectorCustomizer(final CatalinaConfiguration catalinaConfig) {
+        this(catalinaConfig.getConnector());
+    }
+
+    public DefaultTomcatConnectorCustomizer(final CatalinaConnector connectorConfig) {
+        this.connectorConfig = connectorConfig;
+    }
+
+    /**
+     * Returns the protocol handler class name by the protocol configuration, which is either <code>nio</code>,
+     * <code>nio2</code> or a protocol handler class name.
+     * @param protocol protocol configuration
+     * @return the protocol handler class name, or null if not configured
+     */
+    public static String getProtocolClassName(final String protocol) {
+        if (protocol == null || protocol.trim().isEmpty()) {
+            return null;
+        }
+
+        final String value = protocol.trim();
+
+        if (CatalinaConnector.PROTOCOL_NIO.equalsIgnoreCase(value)) {
+            return NIO_PROTOCOL_CLASS_NAME;
+        } else if (CatalinaConnector.PROTOCOL_NIO2.equalsIgnoreCase(value)) {
+            return NIO2_PROTOCOL_CLASS_NAME;
+        }
+
+        return value;
+    }
+
+    @Override
+    public void customize(final Connector connector) {
+        final CatalinaConnector conf = connectorConfig;
+
+        setProperty(connector, "acceptorThreadCount", conf.getAcceptorThreadCount());
+        setProperty(connector, "pollerThreadCount", conf.getPollerThreadCount());
+        setProperty(connector, "maxConnections", conf.getMaxConnections());
+        setProperty(connector, "acceptCount", conf.getAcceptCount());
+        setProperty(connector, "connectionTimeout", conf.getConnectionTimeout());
+        setProperty(connector, "maxKeepAliveRequests", conf.getMaxKeepAliveRequests());
+        setProperty(connector, "keepAliveTimeout", conf.getKeepAliveTimeout());
+        setProperty(connector, "socket.rxBufSize", conf.getSocketRxBufSize());
+        setProperty(connector, "socket.txBufSize", conf.getSocketTxBufSize());
+        setProperty(connector, "socket.appReadBufSize", conf.getSocketAppReadBufSize());
+        setProperty(connector, "socket.appWriteBufSize", conf.getSocketAppWriteBufSize());
+        setProperty(connector, "socket.directBuffer", conf.getSocketDirectBuffer());
+        setProperty(connector, "compression", conf.getCompression());
+        setProperty(connector, "compressionMinSize", conf.getCompressionMinSize());
+        setProperty(connector, "compressibleMimeType", conf.getCompressibleMimeType());
+        setProperty(connector, "useSendfile", conf.getUseSendfile());
+
+        if (conf.getHttp2().isEnabled()) {
+            addHttp2UpgradeProtocol(connector, conf.getHttp2());
+        }
+
+        if (conf.isUseVirtualThreads()) {
+            if (VirtualThreadExecutor.isSupported()) {
+                if (addVirtualThreadExecutor(connector, conf)) {
+                    return;
+                }
+            } else {
+                log.info("Virtual threads are not supported by the current JDK ({}). Using platform threads.",
+                        System.getProperty("java.version"));
+            }
+        }
+
+        if (conf.getMaxQueueSize() != null) {
+            addExecutor(connector, conf);
+        } else {
+            setProperty(connector, "minSpareThreads", conf.getMinSpareThreads());
+            setProperty(connector, "maxThreads", conf.getMaxThreads());
+        }
+    }
+
+    private void addHttp2UpgradeProtocol(final Connector connector, final CatalinaHttp2 conf) {
+        for (UpgradeProtocol upgradeProtocol : connector.findUpgradeProtocols()) {
+            if (upgradeProtocol instanceof Http2Protocol) {
+                log.warn("Skipping HTTP/2 configuration as the connector ('{}') has an HTTP/2 protocol already.",
+                        connector);
+                return;
+            }
+        }
+
+        final InstrumentedHttp2Protocol http2Protocol = new InstrumentedHttp2Protocol();
+
+        if (conf.getMaxConcurrentStreams() != null) {
+            http2Protocol.setMaxConcurrentStreams(conf.getMaxConcurrentStreams());
+        }
+
+        if (conf.getMaxConcurrentStreamExecution() != null) {
+            http2Protocol.setMaxConcurrentStreamExecution(conf.getMaxConcurrentStreamExecution());
+        }
+
+        if (conf.getInitialWindowSize() != null) {
+            http2Protocol.setInitialWindowSize(conf.getInitialWindowSize());
+        }
+
+        if (conf.getReadTimeout() != null) {
+            http2Protocol.setReadTimeout(conf.getReadTimeout());
+        }
+
+        if (conf.getWriteTimeout() != null) {
+            http2Protocol.setWriteTimeout(conf.getWriteTimeout());
+        }
+
+        if (conf.getKeepAliveTimeout() != null) {
+            http2Protocol.setKeepAliveTimeout(conf.getKeepAliveTimeout());
+        }
+
+        connector.addUpgradeProtocol(http2Protocol);
+
+        log.info("Added HTTP/2 upgrade protocol: maxConcurrentStreams={}, maxConcurrentStreamExecution={}, "
+                + "initialWindowSize={}, readTimeout={}, writeTimeout={}, keepAliveTimeout={}.",
+                http2Protocol.getMaxConcurrentStreams(), http2Protocol.getMaxConcurrentStreamExecution(),
+                http2Protocol.getInitialWindowSize(), http2Protocol.getReadTimeout(),
+                http2Protocol.getWriteTimeout(), http2Protocol.getKeepAliveTimeout());
+    }
+
+    private boolean addVirtualThreadExecutor(final Connector connector, final CatalinaConnector conf) {
+        final Service service = connector.getService();
+
+        if (service == null || !(connector.getProtocolHandler() instanceof AbstractProtocol)) {
+            log.warn("Cannot add a virtual thread executor to the connector ('{}') with no service or an unknown "
+                    + "protocol. Using platform threads.", connector);
+            return false;
+        }
+
+        final VirtualThreadExecutor executor = new VirtualThreadExecutor();
+        executor.setName("virtualThreadExecutor-" + connector.getPort());
+        executor.setNamePrefix("virtual-exec-" + connector.getPort() + "-");
+        executor.setPinnedEventsEnabled(conf.isVirtualThreadPinnedEventsEnabled());
+
+        service.addExecutor(executor);
+        ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+
+        log.info("Added virtual thread connector executor: name='{}', pinnedEventsEnabled={}.", executor.getName(),
+                executor.isPinnedEventsEnabled());
+
+        return true;
+    }
+
+    private void addExecutor(final Connector connector, final CatalinaConnector conf) {
+        final Service service = connector.getService();
+
+        if (service == null || !(connector.getProtocolHandler() instanceof AbstractProtocol)) {
+            log.warn("Cannot add an executor to the connector ('{}') with no service or an unknown protocol.",
+                    connector);
+            return;
+        }
+
+        final StandardThreadExecutor executor = new StandardThreadExecutor();
+        executor.setName("connectorExecutor-" + connector.getPort());
+        executor.setNamePrefix("exec-" + connector.getPort() + "-");
+
+        if (conf.getMinSpareThreads() != null) {
+            executor.setMinSpareThreads(conf.getMinSpareThreads());
+        }
+
+        if (conf.getMaxThreads() != null) {
+            executor.setMaxThreads(conf.getMaxThreads());
+        }
+
+        executor.setMaxQueueSize(conf.getMaxQueueSize());
+
+        service.addExecutor(executor);
+        ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+
+        log.info("Added connector executor: name='{}', minSpareThreads={}, maxThreads={}, maxQueueSize={}.",
+                executor.getName(), executor.getMinSpareThreads(), executor.getMaxThreads(),
+                executor.getMaxQueueSize());
+    }
+
+    private void setProperty(final Connector connector, final String name, final Object value) {
+        if (value == null) {
+            return;
+        }
+
+        if (connector.setProperty(name, value.toString())) {
+            log.info("Setting connector property: {}={}.", name, value);
+        } else {
+            log.warn("Connector property, '{}', is not supported by the protocol, '{}'.", name,
+                    connector.getProtocolHandlerClassName());
+        }
+    }
+}
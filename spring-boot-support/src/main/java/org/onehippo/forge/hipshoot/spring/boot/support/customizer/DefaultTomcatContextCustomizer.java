@@ -16,19 +16,32 @@
  */
 package org.onehippo.forge.hipshoot.spring.boot.support.customizer;
 
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.catalina.Context;
 import org.apache.tomcat.util.descriptor.web.ApplicationParameter;
 import org.apache.tomcat.util.descriptor.web.ContextEnvironment;
 import org.apache.tomcat.util.descriptor.web.ContextResource;
+import org.apache.tomcat.util.descriptor.web.ContextResourceLink;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaBulkhead;
 import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaConfiguration;
 import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaEnvironment;
 import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaNamingResource;
 import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaParameter;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaRateLimit;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaResponseCache;
+import org.onehippo.forge.hipshoot.spring.boot.support.jdbc.DataSourceMetricsCleaner;
+import org.onehippo.forge.hipshoot.spring.boot.support.jdbc.InstrumentedDataSourceFactory;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.BulkheadValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.RateLimitValve;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.ResponseCacheStore;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.ResponseCacheValve;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.web.embedded.tomcat.TomcatContextCustomizer;
+import org.springframework.util.StringUtils;
 
 /**
  * Default {@link Context} customizer implementation.
@@ -37,8 +50,12 @@ public class DefaultTomcatContextCustomizer implements TomcatContextCustomizer {
 
     private static Logger log = LoggerFactory.getLogger(DefaultTomcatContextCustomizer.class);
 
+    private static final String DATASOURCE_TYPE = "javax.sql.DataSource";
+
     private final CatalinaConfiguration catalinaConfig;
 
+    private ResponseCacheStore responseCacheStore;
+
     public DefaultTomcatContextCustomizer(final CatalinaConfiguration catalinaConfig) {
         this.catalinaConfig = catalinaConfig;
     }
@@ -48,6 +65,10 @@ public class DefaultTomcatContextCustomizer implements TomcatContextCustomizer {
         addDefaultContextApplicationParameters(context);
         addDefaultContextNamingEnvironments(context);
         addDefaultContextNamingResources(context);
+        addRateLimitValve(context);
+        // cache hits are served before the bulkhead, so they never take nor wait for a bulkhead slot
+        addResponseCacheValve(context);
+        addBulkheadValve(context);
     }
 
     private void addDefaultContextApplicationParameters(final Context context) {
@@ -91,6 +112,18 @@ public class DefaultTomcatContextCustomizer implements TomcatContextCustomizer {
         Object propValue;
 
         for (CatalinaNamingResource resConf : catalinaConfig.getServer().getDefaultContext().getNamingResources()) {
+            if (resConf.isGlobal()) {
+                ContextResourceLink link = new ContextResourceLink();
+                link.setName(resConf.getName());
+                link.setGlobal(resConf.getGlobalNameOrName());
+                link.setType(resConf.getType());
+
+                log.info("Adding default context naming resource link: name='{}', global='{}', type='{}', "
+                        + "in context ('{}').", link.getName(), link.getGlobal(), link.getType(), context.getPath());
+                context.getNamingResources().addResourceLink(link);
+                continue;
+            }
+
             ContextResource resource = new ContextResource();
 
             resource.setName(resConf.getName());
@@ -105,9 +138,116 @@ public class DefaultTomcatContextCustomizer implements TomcatContextCustomizer {
                 resource.setProperty(propName, propValue);
             }
 
+            if (resConf.isMetricsEnabled() && DATASOURCE_TYPE.equals(resConf.getType())) {
+                final String metricsName = context.getPath() + ":" + resConf.getName();
+                InstrumentedDataSourceFactory.instrument(resource, metricsName);
+                context.addLifecycleListener(new DataSourceMetricsCleaner(metricsName));
+            }
+
             log.info("Adding default context naming resource: name='{}', type='{}', in context ('{}').",
                     resConf.getName(), resConf.getType(), context.getPath());
             context.getNamingResources().addResource(resource);
         }
     }
+
+    private void addRateLimitValve(final Context context) {
+        final CatalinaRateLimit rateLimitConf = findByContextPath(
+                catalinaConfig.getServer().getDefaultContext().getRateLimits(), CatalinaRateLimit::getContextPath,
+                context.getPath());
+
+        if (rateLimitConf == null || rateLimitConf.getRequestsPerSecond() <= 0) {
+            return;
+        }
+
+        final RateLimitValve valve = new RateLimitValve();
+        valve.setRequestsPerSecond(rateLimitConf.getRequestsPerSecond());
+        valve.setBurst(rateLimitConf.getBurst());
+        valve.setTableSize(rateLimitConf.getTableSize());
+
+        if (StringUtils.hasText(rateLimitConf.getKeyHeader())) {
+            valve.setKeyHeader(rateLimitConf.getKeyHeader().trim());
+            valve.setTrustedProxyCount(rateLimitConf.getTrustedProxyCount());
+        }
+
+        log.info("Adding rate limit valve: requestsPerSecond={}, burst={}, keyHeader='{}', trustedProxyCount={}, "
+                + "tableSize={}, in context ('{}').", valve.getRequestsPerSecond(), valve.getBurst(),
+                valve.getKeyHeader(), valve.getTrustedProxyCount(), valve.getTableSize(), context.getPath());
+        context.getPipeline().addValve(valve);
+    }
+
+    private void addBulkheadValve(final Context context) {
+        final CatalinaBulkhead bulkheadConf = findByContextPath(
+                catalinaConfig.getServer().getDefaultContext().getBulkheads(), CatalinaBulkhead::getContextPath,
+                context.getPath());
+
+        if (bulkheadConf == null || bulkheadConf.getMaxConcurrentRequests() <= 0) {
+            return;
+        }
+
+        final BulkheadValve valve = new BulkheadValve();
+        valve.setMaxConcurrentRequests(bulkheadConf.getMaxConcurrentRequests());
+        valve.setMaxQueueSize(bulkheadConf.getMaxQueueSize());
+        valve.setQueueTimeout(bulkheadConf.getQueueTimeout());
+
+        log.info("Adding bulkhead valve: maxConcurrentRequests={}, maxQueueSize={}, queueTimeout={}, "
+                + "in context ('{}').", valve.getMaxConcurrentRequests(), valve.getMaxQueueSize(),
+                valve.getQueueTimeout(), context.getPath());
+        context.getPipeline().addValve(valve);
+    }
+
+    private void addResponseCacheValve(final Context context) {
+        final CatalinaResponseCache cacheConf = findByContextPath(
+                catalinaConfig.getServer().getDefaultContext().getResponseCaches(),
+                CatalinaResponseCache::getContextPath, context.getPath());
+
+        if (cacheConf == null || !StringUtils.hasText(cacheConf.getUrlPatterns())) {
+            return;
+        }
+
+        final ResponseCacheValve valve = new ResponseCacheValve(getResponseCacheStore());
+        valve.setUrlPatterns(cacheConf.getUrlPatterns());
+        valve.setTtlSeconds(cacheConf.getTtlSeconds());
+        valve.setMaxEntrySize(cacheConf.getMaxEntrySize());
+        valve.setVaryHeaders(cacheConf.getVaryHeaders());
+        valve.setBypassCookies(cacheConf.getBypassCookies());
+
+        log.info("Adding response cache valve: urlPatterns='{}', ttlSeconds={}, varyHeaders='{}', "
+                + "bypassCookies='{}', in context ('{}').", valve.getUrlPatterns(), valve.getTtlSeconds(),
+                valve.getVaryHeaders(), valve.getBypassCookies(), context.getPath());
+        context.getPipeline().addValve(valve);
+    }
+
+    /**
+     * Returns the response cache store shared by all the contexts, creating it on the first call.
+     * @return the response cache store shared by all the contexts
+     */
+    public synchronized ResponseCacheStore getResponseCacheStore() {
+        if (responseCacheStore == null) {
+            responseCacheStore = new ResponseCacheStore(catalinaConfig.getServer().getResponseCacheMaxMemory());
+        }
+
+        return responseCacheStore;
+    }
+
+    /**
+     * Finds the configuration for the context path, or the first one without context path as the default.
+     */
+    private static <T> T findByContextPath(final List<T> confs, final Function<T, String> contextPathGetter,
+            final String contextPath) {
+        T defaultConf = null;
+
+        for (T conf : confs) {
+            final String path = contextPathGetter.apply(conf);
+
+            if (path == null || path.isEmpty()) {
+                if (defaultConf == null) {
+                    defaultConf = conf;
+                }
+            } else if (path.equals(contextPath) || ("/".equals(path) && "".equals(contextPath))) {
+                return conf;
+            }
+        }
+
+        return defaultConf;
+    }
 }
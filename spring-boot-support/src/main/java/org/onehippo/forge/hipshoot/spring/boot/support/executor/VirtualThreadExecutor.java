@@ -0,0 +1,333 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.executor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.catalina.Executor;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.util.LifecycleMBeanBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tomcat {@link Executor} running each task in a new virtual thread.
+ * <P>
+ * Virtual threads are available only on JDK 21 or later, so everything is looked up by reflection in order to
+ * keep this library compatible with older JDKs. Use {@link #isSupported()} to check it before adding this executor.
+ * If virtual threads cannot be created on start anyway, this falls back to a cached pool of platform threads.
+ * </P>
+ * <P>
+ * Besides the number of active and completed tasks, this records <code>jdk.VirtualThreadPinned</code> JFR events
+ * to count how many times and how long virtual threads pinned their carrier threads, e.g, by blocking inside
+ * <code>synchronized</code> blocks, which is the main reason for virtual threads to perform worse than a platform
+ * thread pool. The statistics are available through JMX as well.
+ * </P>
+ */
+public class VirtualThreadExecutor extends LifecycleMBeanBase implements Executor {
+
+    private static Logger log = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+
+    private static final String PINNED_EVENT_NAME = "jdk.VirtualThreadPinned";
+
+    private static final boolean SUPPORTED;
+
+    static {
+        boolean supported = false;
+
+        try {
+            // Thread.ofVirtual() exists as a preview API on JDK 19 and 20, throwing UnsupportedOperationException
+            // unless the preview features are enabled, so call it instead of checking if it exists.
+            Thread.class.getMethod("ofVirtual").invoke(null);
+            java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            supported = true;
+        } catch (InvocationTargetException e) {
+            // Preview API not enabled.
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Older JDK.
+        }
+
+        SUPPORTED = supported;
+    }
+
+    private String name;
+
+    private String namePrefix = "virtual-exec-";
+
+    private boolean pinnedEventsEnabled = true;
+
+    private long pinnedEventThresholdMillis = 20;
+
+    private volatile ExecutorService executor;
+
+    private volatile boolean virtual;
+
+    /**
+     * JFR <code>jdk.jfr.consumer.RecordingStream</code> instance to receive pinned events.
+     */
+    private AutoCloseable pinnedEventStream;
+
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    private final AtomicLong completedTaskCount = new AtomicLong();
+
+    private final AtomicLong pinnedEventCount = new AtomicLong();
+
+    private final AtomicLong pinnedNanos = new AtomicLong();
+
+    /**
+     * Returns true if the current JDK supports virtual threads.
+     * @return true if the current JDK supports virtual threads
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    /**
+     * Returns true if virtual thread pinned events are recorded.
+     * @return true if virtual thread pinned events are recorded
+     */
+    public boolean isPinnedEventsEnabled() {
+        return pinnedEventsEnabled;
+    }
+
+    /**
+     * Sets whether or not virtual thread pinned events are recorded.
+     * @param pinnedEventsEnabled whether or not virtual thread pinned events are recorded
+     */
+    public void setPinnedEventsEnabled(boolean pinnedEventsEnabled) {
+        this.pinnedEventsEnabled = pinnedEventsEnabled;
+    }
+
+    /**
+     * Returns the minimum duration in milliseconds of a pinned event to record.
+     * @return the minimum duration in milliseconds of a pinned event to record
+     */
+    public long getPinnedEventThresholdMillis() {
+        return pinnedEventThresholdMillis;
+    }
+
+    /**
+     * Sets the minimum duration in milliseconds of a pinned event to record.
+     * @param pinnedEventThresholdMillis the minimum duration in milliseconds of a pinned event to record
+     */
+    public void setPinnedEventThresholdMillis(long pinnedEventThresholdMillis) {
+        this.pinnedEventThresholdMillis = pinnedEventThresholdMillis;
+    }
+
+    /**
+     * Returns true if tasks run in virtual threads, or false if this fell back to platform threads on start.
+     * @return true if tasks run in virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Returns the number of tasks currently running.
+     * @return the number of tasks currently running
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Returns the number of tasks completed.
+     * @return the number of tasks completed
+     */
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+    /**
+     * Returns the number of virtual thread pinned events recorded.
+     * @return the number of virtual thread pinned events recorded
+     */
+    public long getPinnedEventCount() {
+        return pinnedEventCount.get();
+    }
+
+    /**
+     * Returns the total duration in milliseconds of virtual thread pinned events recorded.
+     * @return the total duration in milliseconds of virtual thread pinned events recorded
+     */
+    public long getPinnedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(pinnedNanos.get());
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        final ExecutorService exec = executor;
+
+        if (exec == null) {
+            throw new IllegalStateException("Virtual thread executor is not started.");
+        }
+
+        exec.execute(new Runnable() {
+            @Override
+            public void run() {
+                activeCount.incrementAndGet();
+
+                try {
+                    command.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                    completedTaskCount.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Tasks never wait in a queue as each of them gets its own virtual thread, so the timeout is ignored.
+     * </P>
+     */
+    @Override
+    public void execute(final Runnable command, final long timeout, final TimeUnit unit) {
+        execute(command);
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        executor = SUPPORTED ? createVirtualThreadExecutor() : null;
+        virtual = executor != null;
+
+        if (!virtual) {
+            log.warn("Virtual threads are not supported by the current JDK ({}). Using platform threads.",
+                    System.getProperty("java.version"));
+            executor = createPlatformThreadExecutor();
+        }
+
+        if (virtual && pinnedEventsEnabled) {
+            startPinnedEventStream();
+        }
+
+        setState(LifecycleState.STARTING);
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        setState(LifecycleState.STOPPING);
+
+        if (pinnedEventStream != null) {
+            try {
+                pinnedEventStream.close();
+            } catch (Exception e) {
+                log.debug("Failed to close pinned event stream.", e);
+            }
+
+            pinnedEventStream = null;
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Override
+    protected String getDomainInternal() {
+        // No way to navigate to Engine. Needs to have domain set.
+        return null;
+    }
+
+    @Override
+    protected String getObjectNameKeyProperties() {
+        return "type=Executor,name=" + getName();
+    }
+
+    private ExecutorService createVirtualThreadExecutor() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            final ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            return (ExecutorService) java.util.concurrent.Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        } catch (Exception e) {
+            log.warn("Failed to create virtual thread executor: {}", e.toString());
+            return null;
+        }
+    }
+
+    private ExecutorService createPlatformThreadExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return java.util.concurrent.Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private void startPinnedEventStream() {
+        try {
+            final Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            final Object stream = streamClass.getConstructor().newInstance();
+            final Object settings = streamClass.getMethod("enable", String.class).invoke(stream, PINNED_EVENT_NAME);
+            settings.getClass().getMethod("withThreshold", Duration.class).invoke(settings,
+                    Duration.ofMillis(pinnedEventThresholdMillis));
+            final Method getDuration = Class.forName("jdk.jfr.consumer.RecordedEvent").getMethod("getDuration");
+
+            streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, PINNED_EVENT_NAME,
+                    new Consumer<Object>() {
+                        @Override
+                        public void accept(Object event) {
+                            pinnedEventCount.incrementAndGet();
+
+                            try {
+                                pinnedNanos.addAndGet(((Duration) getDuration.invoke(event)).toNanos());
+                            } catch (Exception ignore) {
+                            }
+                        }
+                    });
+
+            streamClass.getMethod("startAsync").invoke(stream);
+            pinnedEventStream = (AutoCloseable) stream;
+        } catch (Exception e) {
+            log.warn("Cannot record virtual thread pinned events: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.jdbc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a pooled JNDI <code>DataSource</code> resource.
+ * <P>
+ * The number of waiting threads and the connection acquire latency are measured by
+ * {@link InstrumentedDataSourceFactory} around <code>getConnection()</code> calls, so they are available with
+ * any pool implementation. The number of active and idle connections are read from the pool implementation,
+ * supporting Tomcat DBCP / Commons DBCP 2, Tomcat JDBC Pool and HikariCP. <code>-1</code> is returned if not
+ * supported by the pool implementation.
+ * </P>
+ */
+public class DataSourceMetrics {
+
+    private static final String [][] ACTIVE_METHOD_NAMES = {
+            { "getNumActive" },
+            { "getActive" },
+            { "getHikariPoolMXBean", "getActiveConnections" } };
+
+    private static final String [][] IDLE_METHOD_NAMES = {
+            { "getNumIdle" },
+            { "getIdle" },
+            { "getHikariPoolMXBean", "getIdleConnections" } };
+
+    private final String name;
+
+    private volatile Object dataSource;
+
+    private final AtomicInteger waitingCount = new AtomicInteger();
+
+    private final AtomicLong acquireCount = new AtomicLong();
+
+    private final AtomicLong acquireFailureCount = new AtomicLong();
+
+    private final AtomicLong acquireNanos = new AtomicLong();
+
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+    public DataSourceMetrics(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of connections borrowed from the pool, or <code>-1</code> if not supported.
+     * @return the number of connections borrowed from the pool, or <code>-1</code> if not supported
+     */
+    public int getActiveCount() {
+        return readPoolStat(ACTIVE_METHOD_NAMES);
+    }
+
+    /**
+     * Returns the number of idle connections in the pool, or <code>-1</code> if not supported.
+     * @return the number of idle connections in the pool, or <code>-1</code> if not supported
+     */
+    public int getIdleCount() {
+        return readPoolStat(IDLE_METHOD_NAMES);
+    }
+
+    /**
+     * Returns the number of threads currently waiting for a connection.
+     * @return the number of threads currently waiting for a connection
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    /**
+     * Returns the number of connections acquired.
+     * @return the number of connections acquired
+     */
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /**
+     * Returns the number of failures to acquire a connection.
+     * @return the number of failures to acquire a connection
+     */
+    public long getAcquireFailureCount() {
+        return acquireFailureCount.get();
+    }
+
+    /**
+     * Returns the average time in milliseconds to acquire a connection.
+     * @return the average time in milliseconds to acquire a connection
+     */
+    public double getAverageAcquireMillis() {
+        final long count = acquireCount.get();
+        return (count > 0) ? (double) acquireNanos.get() / count / TimeUnit.MILLISECONDS.toNanos(1) : 0.0;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds to acquire a connection.
+     * @return the maximum time in milliseconds to acquire a connection
+     */
+    public double getMaxAcquireMillis() {
+        return (double) maxAcquireNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "DataSourceMetrics [name=" + name + ", active=" + getActiveCount() + ", idle=" + getIdleCount()
+                + ", waiting=" + getWaitingCount() + ", acquireCount=" + getAcquireCount() + ", averageAcquireMillis="
+                + getAverageAcquireMillis() + ", maxAcquireMillis=" + getMaxAcquireMillis() + "]";
+    }
+
+    void setDataSource(final Object dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void startAcquire() {
+        waitingCount.incrementAndGet();
+    }
+
+    void endAcquire(final long nanos, final boolean succeeded) {
+        waitingCount.decrementAndGet();
+
+        if (succeeded) {
+            acquireCount.incrementAndGet();
+            acquireNanos.addAndGet(nanos);
+            maxAcquireNanos.accumulateAndGet(nanos, Math::max);
+        } else {
+            acquireFailureCount.incrementAndGet();
+        }
+    }
+
+    private int readPoolStat(final String [][] candidates) {
+        final Object ds = dataSource;
+
+        if (ds == null) {
+            return -1;
+        }
+
+        for (String [] methodNames : candidates) {
+            Object target = ds;
+
+            try {
+                for (String methodName : methodNames) {
+                    final Method method = target.getClass().getMethod(methodName);
+                    target = method.invoke(target);
+
+                    if (target == null) {
+                        break;
+                    }
+                }
+
+                if (target instanceof Number) {
+                    return ((Number) target).intValue();
+                }
+            } catch (NoSuchMethodException e) {
+                // Try the next candidate.
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.jdbc;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+
+/**
+ * {@link LifecycleListener} of the {@link org.apache.catalina.Context} or {@link org.apache.catalina.Server}
+ * owning an instrumented <code>DataSource</code> resource, removing its {@link DataSourceMetrics} from
+ * {@link DataSourceMetricsRegistry} once stopped, so that the registry doesn't keep the pool of an undeployed
+ * context. The metrics are created again when the resource is looked up after a restart.
+ */
+public class DataSourceMetricsCleaner implements LifecycleListener {
+
+    private final String metricsName;
+
+    public DataSourceMetricsCleaner(final String metricsName) {
+        this.metricsName = metricsName;
+    }
+
+    public String getMetricsName() {
+        return metricsName;
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+            DataSourceMetricsRegistry.remove(metricsName);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.jdbc;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.apache.catalina.Globals;
+import org.apache.tomcat.util.modeler.Registry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of {@link DataSourceMetrics} by name.
+ * <P>
+ * This is static as JNDI object factories are instantiated by the naming context, not by the web server factory.
+ * </P>
+ * <P>
+ * Each metrics is registered as an MBean with Tomcat's {@link Registry} when created, named like
+ * <code>Catalina:type=DataSourceMetrics,name="global:jdbc/repositoryDS"</code>, and unregistered when removed.
+ * </P>
+ */
+public final class DataSourceMetricsRegistry {
+
+    private static Logger log = LoggerFactory.getLogger(DataSourceMetricsRegistry.class);
+
+    private static final ConcurrentMap<String, DataSourceMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private DataSourceMetricsRegistry() {
+    }
+
+    /**
+     * Returns the metrics by the name, creating it if not existing.
+     * @param name metrics name
+     * @return the metrics by the name
+     */
+    public static DataSourceMetrics getOrCreate(final String name) {
+        final DataSourceMetrics metrics = METRICS.get(name);
+
+        if (metrics != null) {
+            return metrics;
+        }
+
+        final DataSourceMetrics created = new DataSourceMetrics(name);
+        final DataSourceMetrics existing = METRICS.putIfAbsent(name, created);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        registerMBean(created);
+        return created;
+    }
+
+    /**
+     * Returns the metrics by the name, or null if not existing.
+     * @param name metrics name
+     * @return the metrics by the name, or null if not existing
+     */
+    public static DataSourceMetrics get(final String name) {
+        return METRICS.get(name);
+    }
+
+    /**
+     * Returns all the metrics sorted by name.
+     * @return all the metrics sorted by name
+     */
+    public static Map<String, DataSourceMetrics> getAll() {
+        return Collections.unmodifiableMap(new TreeMap<>(METRICS));
+    }
+
+    /**
+     * Removes the metrics by the name.
+     * @param name metrics name
+     */
+    public static void remove(final String name) {
+        final DataSourceMetrics metrics = METRICS.remove(name);
+
+        if (metrics != null) {
+            unregisterMBean(metrics);
+            metrics.setDataSource(null);
+        }
+    }
+
+    /**
+     * Removes the metrics if still registered by its name, e.g, when its <code>DataSource</code> is closed.
+     * @param metrics metrics
+     */
+    static void remove(final DataSourceMetrics metrics) {
+        if (METRICS.remove(metrics.getName(), metrics)) {
+            unregisterMBean(metrics);
+        }
+
+        metrics.setDataSource(null);
+    }
+
+    /**
+     * Returns the MBean object name of the metrics.
+     * @param metrics metrics
+     * @return the MBean object name of the metrics
+     * @throws MalformedObjectNameException if the name cannot make an object name
+     */
+    static ObjectName getObjectName(final DataSourceMetrics metrics) throws MalformedObjectNameException {
+        return new ObjectName(Globals.DEFAULT_MBEAN_DOMAIN + ":type=DataSourceMetrics,name="
+                + ObjectName.quote(metrics.getName()));
+    }
+
+    private static void registerMBean(final DataSourceMetrics metrics) {
+        try {
+            Registry.getRegistry(null, null).registerComponent(metrics, getObjectName(metrics), null);
+        } catch (Exception e) {
+            log.warn("Failed to register the MBean of data source metrics ('{}'): {}", metrics.getName(),
+                    e.toString());
+        }
+    }
+
+    private static void unregisterMBean(final DataSourceMetrics metrics) {
+        try {
+            Registry.getRegistry(null, null).unregisterComponent(getObjectName(metrics));
+        } catch (Exception e) {
+            log.warn("Failed to unregister the MBean of data source metrics ('{}'): {}", metrics.getName(),
+                    e.toString());
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.naming.NamingException;
+import javax.sql.DataSource;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.Service;
+import org.apache.catalina.core.StandardContext;
+import org.onehippo.forge.hipshoot.spring.boot.support.config.embedded.CatalinaNamingResource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LifecycleListener} of the {@link Server}, warming up the pools of the JNDI <code>DataSource</code>
+ * resources with <code>warmUp</code> enabled once the server has started, so that the first requests don't pay
+ * for opening database connections.
+ * <P>
+ * For each resource, <code>warmUpMinIdle</code> connections are opened in parallel, validated by
+ * <code>warmUpValidationQuery</code> if set, and then returned to the pool all together. So the pool must allow
+ * that many idle connections (e.g, <code>maxIdle</code>) to keep them. A resource in the <code>global</code> scope
+ * is warmed up only once, and a resource in the <code>context</code> scope is warmed up in each context.
+ * Warm-up failures are logged, but never stop the server.
+ * </P>
+ */
+public class DataSourceWarmer implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(DataSourceWarmer.class);
+
+    private static final String DATASOURCE_TYPE = "javax.sql.DataSource";
+
+    private final List<CatalinaNamingResource> resourceConfigs;
+
+    public DataSourceWarmer(final List<CatalinaNamingResource> resourceConfigs) {
+        this.resourceConfigs = resourceConfigs;
+    }
+
+    /**
+     * Returns true if the resource configuration is a <code>DataSource</code> with warm-up enabled.
+     * @param resConf naming resource configuration
+     * @return true if the resource configuration is a <code>DataSource</code> with warm-up enabled
+     */
+    public static boolean isWarmUpEnabled(final CatalinaNamingResource resConf) {
+        return resConf.isWarmUp() && DATASOURCE_TYPE.equals(resConf.getType());
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType()) && event.getLifecycle() instanceof Server) {
+            warmUp((Server) event.getLifecycle());
+        }
+    }
+
+    /**
+     * Warms up the global resources of the server and the resources of all the contexts in the server.
+     * @param server server
+     */
+    public void warmUp(final Server server) {
+        for (CatalinaNamingResource resConf : resourceConfigs) {
+            if (!isWarmUpEnabled(resConf)) {
+                continue;
+            }
+
+            if (resConf.isGlobal()) {
+                final String globalName = resConf.getGlobalNameOrName();
+
+                try {
+                    warmUp("global:" + globalName, server.getGlobalNamingContext().lookup(globalName), resConf);
+                } catch (NamingException e) {
+                    log.warn("Cannot look up global resource '{}' to warm up: {}", globalName, e.toString());
+                }
+            } else {
+                for (Context context : findContexts(server)) {
+                    if (context.getNamingResources().findResource(resConf.getName()) != null) {
+                        warmUp(context, resConf);
+                    }
+                }
+            }
+        }
+    }
+
+    private void warmUp(final Context context, final CatalinaNamingResource resConf) {
+        if (!(context instanceof StandardContext)
+                || ((StandardContext) context).getNamingContextListener() == null) {
+            return;
+        }
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader oldClassLoader = thread.getContextClassLoader();
+
+        try {
+            thread.setContextClassLoader(context.getLoader().getClassLoader());
+            final Object dataSource = ((StandardContext) context).getNamingContextListener().getEnvContext()
+                    .lookup(resConf.getName());
+            warmUp(context.getPath() + ":" + resConf.getName(), dataSource, resConf);
+        } catch (NamingException e) {
+            log.warn("Cannot look up resource '{}' in context ('{}') to warm up: {}", resConf.getName(),
+                    context.getPath(), e.toString());
+        } finally {
+            thread.setContextClassLoader(oldClassLoader);
+        }
+    }
+
+    private void warmUp(final String label, final Object resource, final CatalinaNamingResource resConf) {
+        if (!(resource instanceof DataSource)) {
+            log.warn("Cannot warm up resource '{}' which is not a DataSource: {}", label, resource);
+            return;
+        }
+
+        final DataSource dataSource = (DataSource) resource;
+        final int count = resConf.getWarmUpMinIdle();
+
+        if (count <= 0) {
+            return;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(count);
+        final List<Future<?>> futures = new ArrayList<>(count);
+        // Connections are held until all of them are opened, so that the pool opens as many physical connections.
+        final List<Connection> connections = new ArrayList<>(count);
+        final AtomicBoolean closed = new AtomicBoolean();
+        int failures = 0;
+
+        try {
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(() -> {
+                    final Connection connection = openConnection(dataSource, resConf.getWarmUpValidationQuery());
+
+                    synchronized (connections) {
+                        if (closed.get()) {
+                            // Opened after the timeout.
+                            closeQuietly(connection);
+                        } else {
+                            connections.add(connection);
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resConf.getWarmUpTimeoutMillis());
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    failures++;
+                    log.warn("Failed to open a connection to warm up resource '{}': {}", label,
+                            (e instanceof ExecutionException) ? e.getCause().toString() : e.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdown();
+
+            synchronized (connections) {
+                closed.set(true);
+
+                for (Connection connection : connections) {
+                    closeQuietly(connection);
+                }
+            }
+        }
+
+        log.info("Warmed up resource '{}': opened={}, failed={}, in {}ms.", label, connections.size(), failures,
+                System.currentTimeMillis() - startTime);
+    }
+
+    private static Connection openConnection(final DataSource dataSource, final String validationQuery)
+            throws SQLException {
+        final Connection connection = dataSource.getConnection();
+
+        if (validationQuery != null && !validationQuery.trim().isEmpty()) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(validationQuery);
+            } catch (SQLException e) {
+                closeQuietly(connection);
+                throw e;
+            }
+        }
+
+        return connection;
+    }
+
+    private static List<Context> findContexts(final Server server) {
+        final List<Context> contexts = new ArrayList<>();
+
+        for (Service service : server.findServices()) {
+            if (service.getContainer() == null) {
+                continue;
+            }
+
+            for (Container host : service.getContainer().findChildren()) {
+                for (Container child : host.findChildren()) {
+                    if (child instanceof Context) {
+                        contexts.add((Context) child);
+                    }
+                }
+            }
+        }
+
+        return contexts;
+    }
+
+    private static void closeQuietly(final Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException ignore) {
+        }
+    }
+}
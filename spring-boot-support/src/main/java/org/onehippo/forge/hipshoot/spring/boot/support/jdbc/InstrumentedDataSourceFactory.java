@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+import javax.naming.spi.ObjectFactory;
+import javax.sql.DataSource;
+
+import org.apache.tomcat.util.descriptor.web.ContextResource;
+
+/**
+ * JNDI {@link ObjectFactory} creating a <code>DataSource</code> by the delegate factory and wrapping it with
+ * a proxy which records {@link DataSourceMetrics} around <code>getConnection()</code> calls.
+ * <P>
+ * The proxy implements all the interfaces of the <code>DataSource</code> created by the delegate factory, so
+ * the applications may not cast it to the implementation class, but may use <code>unwrap()</code> to get it.
+ * Closing the proxy, e.g, by the <code>closeMethod</code> of the resource, removes the metrics from
+ * {@link DataSourceMetricsRegistry}.
+ * </P>
+ */
+public class InstrumentedDataSourceFactory implements ObjectFactory {
+
+    /**
+     * Resource property name of the delegate factory class name.
+     */
+    public static final String DELEGATE_FACTORY = "hipshoot.delegateFactory";
+
+    /**
+     * Resource property name of the metrics name.
+     */
+    public static final String METRICS_NAME = "hipshoot.metricsName";
+
+    /**
+     * Default factory of <code>javax.sql.DataSource</code> used by Tomcat if not specified.
+     */
+    private static final String DEFAULT_DATASOURCE_FACTORY = "org.apache.tomcat.dbcp.dbcp2.BasicDataSourceFactory";
+
+    /**
+     * Makes the resource created by this factory, delegating to the factory of the resource if specified.
+     * @param resource <code>DataSource</code> resource
+     * @param metricsName metrics name
+     */
+    public static void instrument(final ContextResource resource, final String metricsName) {
+        final Object factory = resource.getProperty("factory");
+
+        if (factory != null) {
+            resource.setProperty(DELEGATE_FACTORY, factory);
+        }
+
+        resource.setProperty("factory", InstrumentedDataSourceFactory.class.getName());
+        resource.setProperty(METRICS_NAME, metricsName);
+    }
+
+    @Override
+    public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment)
+            throws Exception {
+        if (!(obj instanceof Reference)) {
+            return null;
+        }
+
+        final Reference ref = (Reference) obj;
+        final String delegateFactoryClassName = getAddress(ref, DELEGATE_FACTORY,
+                System.getProperty("javax.sql.DataSource.Factory", DEFAULT_DATASOURCE_FACTORY));
+        final Object dataSource = createDelegateFactory(delegateFactoryClassName).getObjectInstance(obj, name,
+                nameCtx, environment);
+
+        if (!(dataSource instanceof DataSource)) {
+            return dataSource;
+        }
+
+        final DataSourceMetrics metrics = DataSourceMetricsRegistry
+                .getOrCreate(getAddress(ref, METRICS_NAME, String.valueOf(name)));
+        metrics.setDataSource(dataSource);
+
+        return Proxy.newProxyInstance(dataSource.getClass().getClassLoader(), getAllInterfaces(dataSource.getClass()),
+                new MetricsInvocationHandler(dataSource, metrics));
+    }
+
+    private static ObjectFactory createDelegateFactory(final String className) throws NamingException {
+        try {
+            final ClassLoader tcl = Thread.currentThread().getContextClassLoader();
+            final Class<?> clazz = (tcl != null) ? tcl.loadClass(className) : Class.forName(className);
+            return (ObjectFactory) clazz.getConstructor().newInstance();
+        } catch (Exception e) {
+            final NamingException ex = new NamingException("Could not create delegate resource factory instance: "
+                    + className);
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private static String getAddress(final Reference ref, final String addrType, final String defaultValue) {
+        final RefAddr addr = ref.get(addrType);
+        return (addr != null && addr.getContent() != null) ? addr.getContent().toString() : defaultValue;
+    }
+
+    private static Class<?> [] getAllInterfaces(final Class<?> clazz) {
+        final Set<Class<?>> interfaces = new LinkedHashSet<>();
+
+        for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+            for (Class<?> iface : c.getInterfaces()) {
+                if (Modifier.isPublic(iface.getModifiers())) {
+                    interfaces.add(iface);
+                }
+            }
+        }
+
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+
+    private static class MetricsInvocationHandler implements InvocationHandler {
+
+        private final Object dataSource;
+
+        private final DataSourceMetrics metrics;
+
+        MetricsInvocationHandler(final Object dataSource, final DataSourceMetrics metrics) {
+            this.dataSource = dataSource;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final String methodName = method.getName();
+
+            if ("unwrap".equals(methodName) && args != null && args.length == 1
+                    && ((Class<?>) args[0]).isInstance(dataSource)) {
+                return dataSource;
+            } else if ("isWrapperFor".equals(methodName) && args != null && args.length == 1
+                    && ((Class<?>) args[0]).isInstance(dataSource)) {
+                return Boolean.TRUE;
+            } else if ("equals".equals(methodName) && args != null && args.length == 1) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(methodName) && args == null) {
+                return System.identityHashCode(proxy);
+            }
+
+            if ("close".equals(methodName) && args == null) {
+                try {
+                    return invokeDelegate(method, args);
+                } finally {
+                    DataSourceMetricsRegistry.remove(metrics);
+                }
+            }
+
+            if (!"getConnection".equals(methodName)) {
+                return invokeDelegate(method, args);
+            }
+
+            final long startTime = System.nanoTime();
+            boolean succeeded = false;
+            metrics.startAcquire();
+
+            try {
+                final Object connection = invokeDelegate(method, args);
+                succeeded = true;
+                return connection;
+            } finally {
+                metrics.endAcquire(System.nanoTime() - startTime, succeeded);
+            }
+        }
+
+        private Object invokeDelegate(final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(dataSource, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.jsp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.ExpandWar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LifecycleListener} of a web application {@link Context}, compiling all the JSPs of the web application
+ * in parallel into a persistent work directory, so that neither startup nor the first requests pay for Jasper
+ * compilation once it's done.
+ * <P>
+ * The JSPs are compiled into a scratch directory keyed by the checksum of the war file, see
+ * {@link #getScratchDirectory(Context, File, File)}, so the JSPs are compiled only once for a war file even if
+ * the server restarts, and compiled again whenever the war file changes. The JSPs are compiled by Jasper's
+ * <code>JspC</code> right after the war file is expanded, split into as many parts as <code>threads</code>, each
+ * compiled in its own thread. Jasper must be in the classpath.
+ * </P>
+ * <P>
+ * Only the <code>scratchdir</code> init parameter of the Jasper servlets of the context is set to the scratch
+ * directory, so the work directory of the context, holding e.g. the persisted sessions, is left untouched.
+ * </P>
+ */
+public class JspPrecompiler implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(JspPrecompiler.class);
+
+    private static final String JSPC_CLASS_NAME = "org.apache.jasper.JspC";
+
+    private static final String JSP_SERVLET_CLASS_NAME = "org.apache.jasper.servlet.JspServlet";
+
+    /**
+     * Init parameter name of the Jasper servlet for the directory of the generated sources and classes.
+     */
+    private static final String SCRATCH_DIR_INIT_PARAM = "scratchdir";
+
+    /**
+     * Marker file name in the work directory, created once the JSPs are compiled.
+     */
+    private static final String PRECOMPILED_MARKER_FILE_NAME = ".hipshoot-jsp-precompiled";
+
+    private final File scratchDirectory;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private boolean failOnError;
+
+    public JspPrecompiler(final File scratchDirectory) {
+        this.scratchDirectory = scratchDirectory;
+    }
+
+    /**
+     * Returns true if Jasper is available in the classpath.
+     * @return true if Jasper is available in the classpath
+     */
+    public static boolean isJasperAvailable() {
+        try {
+            Class.forName(JSPC_CLASS_NAME, false, JspPrecompiler.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the scratch directory of the context under <code>workBaseDirectory</code> keyed by the checksum of
+     * the war file or the exploded web application directory.
+     * @param context web application context
+     * @param workBaseDirectory base directory of the scratch directories
+     * @param basePath war file or the exploded web application directory
+     * @return the scratch directory of the context
+     * @throws IOException if the checksum cannot be computed
+     */
+    public static File getScratchDirectory(final Context context, final File workBaseDirectory,
+            final File basePath) throws IOException {
+        return new File(workBaseDirectory, getScratchDirectoryPrefix(context) + checksum(basePath));
+    }
+
+    /**
+     * Removes the scratch directories of the context under <code>workBaseDirectory</code> keyed by another
+     * checksum than <code>scratchDirectory</code>. This must not be used if another server may still use
+     * the same <code>workBaseDirectory</code> with another version of the war file.
+     * @param context web application context
+     * @param workBaseDirectory base directory of the scratch directories
+     * @param scratchDirectory the scratch directory of the context in use
+     */
+    public static void removeObsoleteScratchDirectories(final Context context, final File workBaseDirectory,
+            final File scratchDirectory) {
+        final String prefix = getScratchDirectoryPrefix(context);
+        final File [] oldScratchDirs = workBaseDirectory.listFiles();
+
+        if (oldScratchDirs == null) {
+            return;
+        }
+
+        for (File oldScratchDir : oldScratchDirs) {
+            final String name = oldScratchDir.getName();
+
+            if (oldScratchDir.isDirectory() && name.startsWith(prefix) && !oldScratchDir.equals(scratchDirectory)
+                    && name.indexOf('-', prefix.length()) == -1) {
+                log.info("Removing obsolete JSP scratch directory: {}", oldScratchDir);
+                ExpandWar.delete(oldScratchDir);
+            }
+        }
+    }
+
+    /**
+     * Returns the directory to compile the JSPs into.
+     * @return the directory to compile the JSPs into
+     */
+    public File getScratchDirectory() {
+        return scratchDirectory;
+    }
+
+    /**
+     * Returns the number of threads to compile JSPs in parallel.
+     * @return the number of threads to compile JSPs in parallel
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns true if the context fails to start when a JSP fails to compile.
+     * @return true if the context fails to start when a JSP fails to compile
+     */
+    public boolean isFailOnError() {
+        return failOnError;
+    }
+
+    public void setFailOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (!(event.getLifecycle() instanceof Context)) {
+            return;
+        }
+
+        if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+            precompile((Context) event.getLifecycle());
+        } else if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+            // ContextConfig has created the servlets of web.xml by now as it is added to the context before this.
+            setScratchDirectory((Context) event.getLifecycle());
+        }
+    }
+
+    private void precompile(final Context context) {
+        // ContextConfig has expanded the war file by now as it is added to the context before this.
+        final File docBase = getDocBaseDirectory(context);
+
+        if (docBase == null) {
+            log.info("Skipping JSP precompilation of context ('{}') which is not exploded.", context.getPath());
+            return;
+        }
+
+        final File markerFile = new File(scratchDirectory, PRECOMPILED_MARKER_FILE_NAME);
+
+        if (markerFile.isFile()) {
+            log.info("JSPs of context ('{}') are already compiled in {}.", context.getPath(), scratchDirectory);
+            return;
+        }
+
+        try {
+            if (precompile(docBase, scratchDirectory, context.getPath())) {
+                Files.write(markerFile.toPath(), new byte[0]);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to precompile JSPs of context ('{}'): {}", context.getPath(), e.toString());
+        }
+    }
+
+    private void setScratchDirectory(final Context context) {
+        for (Container child : context.findChildren()) {
+            if (child instanceof Wrapper && JSP_SERVLET_CLASS_NAME.equals(((Wrapper) child).getServletClass())) {
+                ((Wrapper) child).addInitParameter(SCRATCH_DIR_INIT_PARAM, scratchDirectory.getAbsolutePath());
+            }
+        }
+    }
+
+    private boolean precompile(final File docBase, final File scratchDir, final String contextPath)
+            throws IOException {
+        final List<String> jspFiles = new ArrayList<>();
+        collectJspFiles(docBase, "", jspFiles);
+
+        if (jspFiles.isEmpty()) {
+            return true;
+        }
+
+        if (!scratchDir.isDirectory() && !scratchDir.mkdirs()) {
+            throw new IOException("Cannot create JSP scratch directory: " + scratchDir);
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final int parts = Math.max(1, Math.min(threads, jspFiles.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(parts);
+        final List<Future<?>> futures = new ArrayList<>(parts);
+        int failedParts = 0;
+
+        try {
+            for (int i = 0; i < parts; i++) {
+                final StringBuilder sb = new StringBuilder();
+
+                for (int j = i; j < jspFiles.size(); j += parts) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+
+                    sb.append(jspFiles.get(j));
+                }
+
+                final String partJspFiles = sb.toString();
+
+                futures.add(executor.submit(() -> {
+                    runJspC(docBase, scratchDir, partJspFiles);
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failedParts++;
+                    log.warn("Failed to precompile JSPs of context ('{}'): {}", contextPath,
+                            e.getCause().toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info("Precompiled {} JSPs of context ('{}') in {} threads into {}, in {}ms.", jspFiles.size(),
+                contextPath, parts, scratchDir, System.currentTimeMillis() - startTime);
+
+        if (failedParts > 0 && failOnError) {
+            throw new IllegalStateException("Failed to precompile JSPs of context (" + contextPath + ").");
+        }
+
+        return failedParts == 0;
+    }
+
+    private void runJspC(final File docBase, final File scratchDir, final String jspFiles) throws Exception {
+        final Class<?> jspcClass = Class.forName(JSPC_CLASS_NAME, true, JspPrecompiler.class.getClassLoader());
+        final Object jspc = jspcClass.getConstructor().newInstance();
+
+        jspcClass.getMethod("setUriroot", String.class).invoke(jspc, docBase.getAbsolutePath());
+        jspcClass.getMethod("setOutputDir", String.class).invoke(jspc, scratchDir.getAbsolutePath());
+        jspcClass.getMethod("setCompile", boolean.class).invoke(jspc, true);
+        jspcClass.getMethod("setFailOnError", boolean.class).invoke(jspc, failOnError);
+        jspcClass.getMethod("setJspFiles", String.class).invoke(jspc, jspFiles);
+
+        try {
+            jspcClass.getMethod("execute").invoke(jspc);
+        } catch (InvocationTargetException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private static void collectJspFiles(final File dir, final String path, final List<String> jspFiles) {
+        final File [] children = dir.listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        Arrays.sort(children);
+
+        for (File child : children) {
+            final String childPath = path.isEmpty() ? child.getName() : path + "/" + child.getName();
+
+            if (child.isDirectory()) {
+                if (!"META-INF".equalsIgnoreCase(childPath)) {
+                    collectJspFiles(child, childPath, jspFiles);
+                }
+            } else if (childPath.endsWith(".jsp") || childPath.endsWith(".jspx")) {
+                jspFiles.add(childPath);
+            }
+        }
+    }
+
+    private static String getScratchDirectoryPrefix(final Context context) {
+        final String contextName = context.getPath().isEmpty() ? "ROOT" : context.getPath().substring(1)
+                .replace('/', '#');
+        return contextName + "-";
+    }
+
+    private static File getDocBaseDirectory(final Context context) {
+        final String docBase = context.getDocBase();
+
+        if (docBase == null) {
+            return null;
+        }
+
+        File dir = new File(docBase);
+
+        if (!dir.isAbsolute() && context.getParent() instanceof Host) {
+            dir = new File(((Host) context.getParent()).getAppBaseFile(), docBase);
+        }
+
+        return dir.isDirectory() ? dir : null;
+    }
+
+    /**
+     * Returns the SHA-256 checksum of the war file, or of the paths, sizes and timestamps of the files affecting
+     * JSP compilation in the exploded web application directory, i.e, JSP files and everything under
+     * <code>WEB-INF</code>.
+     */
+    private static String checksum(final File basePath) throws IOException {
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        if (basePath.isFile()) {
+            final byte [] buffer = new byte[8192];
+
+            try (InputStream is = new FileInputStream(basePath)) {
+                int len;
+
+                while ((len = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, len);
+                }
+            }
+        } else {
+            updateDigest(digest, basePath, "");
+        }
+
+        final byte [] bytes = digest.digest();
+        final StringBuilder sb = new StringBuilder(32);
+
+        for (int i = 0; i < 16; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16)).append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+    private static void updateDigest(final MessageDigest digest, final File dir, final String path) {
+        final File [] children = dir.listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        Arrays.sort(children);
+
+        for (File child : children) {
+            final String childPath = path + "/" + child.getName();
+
+            if (child.isDirectory()) {
+                updateDigest(digest, child, childPath);
+            } else if (childPath.startsWith("/WEB-INF/") || childPath.endsWith(".jsp") || childPath.endsWith(".jspx")
+                    || childPath.endsWith(".jspf")) {
+                digest.update((childPath + ":" + child.length() + ":" + child.lastModified() + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
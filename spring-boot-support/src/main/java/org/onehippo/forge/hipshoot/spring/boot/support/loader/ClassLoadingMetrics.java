@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.loader;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class loading metrics of a web application context, recorded by {@link InstrumentedWebappClassLoader}.
+ * <P>
+ * Only the classes defined by the web application class loader itself are counted, not the ones delegated to
+ * the parent class loaders. The load time of a class includes the time to load its superclass and interfaces
+ * if they are defined by the same class loader, but the total load time counts each nested load only once.
+ * </P>
+ * <P>
+ * The JVM does not tell the metaspace used by each class loader, so the total size of the bytecode of the
+ * loaded classes is given as an estimate of the class metadata retained by the context, which grows in proportion.
+ * </P>
+ */
+public class ClassLoadingMetrics {
+
+    /**
+     * Slowest class load, replaced as a whole.
+     */
+    private static final class SlowestLoad {
+
+        private final String className;
+        private final long nanos;
+
+        private SlowestLoad(final String className, final long nanos) {
+            this.className = className;
+            this.nanos = nanos;
+        }
+    }
+
+    private final String hostName;
+
+    private final String contextPath;
+
+    private final AtomicLong loadedClassCount = new AtomicLong();
+
+    private final AtomicLong loadedClassBytes = new AtomicLong();
+
+    private final AtomicLong failedClassLookupCount = new AtomicLong();
+
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    private final AtomicReference<SlowestLoad> slowestLoad = new AtomicReference<>();
+
+    private final AtomicLong resourceLookupCount = new AtomicLong();
+
+    private final Set<String> openedJars = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    public ClassLoadingMetrics(final String hostName, final String contextPath) {
+        this.hostName = hostName;
+        this.contextPath = contextPath;
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    /**
+     * Returns the number of classes defined by the web application class loader.
+     * @return the number of classes defined by the web application class loader
+     */
+    public long getLoadedClassCount() {
+        return loadedClassCount.get();
+    }
+
+    /**
+     * Returns the total bytecode size of the loaded classes, as an estimate of the retained class metadata.
+     * @return the total bytecode size of the loaded classes
+     */
+    public long getLoadedClassBytes() {
+        return loadedClassBytes.get();
+    }
+
+    /**
+     * Returns the number of class lookups not found in the web application.
+     * @return the number of class lookups not found in the web application
+     */
+    public long getFailedClassLookupCount() {
+        return failedClassLookupCount.get();
+    }
+
+    /**
+     * Returns the total time in milliseconds spent loading classes.
+     * @return the total time in milliseconds spent loading classes
+     */
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(loadNanos.get());
+    }
+
+    /**
+     * Returns the name of the class taking the longest time to load, or null if none loaded.
+     * @return the name of the class taking the longest time to load
+     */
+    public String getSlowestClassName() {
+        final SlowestLoad slowest = slowestLoad.get();
+        return (slowest != null) ? slowest.className : null;
+    }
+
+    /**
+     * Returns the longest time in milliseconds to load a class.
+     * @return the longest time in milliseconds to load a class
+     */
+    public long getSlowestLoadTime() {
+        final SlowestLoad slowest = slowestLoad.get();
+        return (slowest != null) ? TimeUnit.NANOSECONDS.toMillis(slowest.nanos) : 0L;
+    }
+
+    /**
+     * Returns the number of resource lookups in the web application.
+     * @return the number of resource lookups in the web application
+     */
+    public long getResourceLookupCount() {
+        return resourceLookupCount.get();
+    }
+
+    /**
+     * Returns the number of distinct jars from which classes or resources were loaded.
+     * @return the number of distinct jars from which classes or resources were loaded
+     */
+    public int getOpenedJarCount() {
+        return openedJars.size();
+    }
+
+    /**
+     * Clears all the metrics, e.g, when the context is reloaded with a new class loader.
+     */
+    public void reset() {
+        loadedClassCount.set(0L);
+        loadedClassBytes.set(0L);
+        failedClassLookupCount.set(0L);
+        loadNanos.set(0L);
+        slowestLoad.set(null);
+        resourceLookupCount.set(0L);
+        openedJars.clear();
+    }
+
+    void recordClassLoad(final String className, final long classBytes, final long nanos, final boolean outermost) {
+        loadedClassCount.incrementAndGet();
+
+        if (classBytes > 0L) {
+            loadedClassBytes.addAndGet(classBytes);
+        }
+
+        if (outermost) {
+            loadNanos.addAndGet(nanos);
+        }
+
+        for (SlowestLoad slowest = slowestLoad.get(); slowest == null || nanos > slowest.nanos;
+                slowest = slowestLoad.get()) {
+            if (slowestLoad.compareAndSet(slowest, new SlowestLoad(className, nanos))) {
+                break;
+            }
+        }
+    }
+
+    void recordFailedClassLookup(final long nanos, final boolean outermost) {
+        failedClassLookupCount.incrementAndGet();
+
+        if (outermost) {
+            loadNanos.addAndGet(nanos);
+        }
+    }
+
+    void recordResourceLookup() {
+        resourceLookupCount.incrementAndGet();
+    }
+
+    void recordJar(final String jarLocation) {
+        openedJars.add(jarLocation);
+    }
+}
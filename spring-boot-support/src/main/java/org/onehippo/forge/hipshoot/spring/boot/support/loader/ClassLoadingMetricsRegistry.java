@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.loader;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link ClassLoadingMetrics} by host name and context path.
+ * <P>
+ * This is static as web application class loaders are instantiated by <code>WebappLoader</code>, not by the web
+ * server factory. Contexts of the same path in different hosts get their own metrics, keyed by a name like
+ * <code>//localhost/site</code>, or <code>//localhost/</code> for the root context, as Tomcat names contexts.
+ * </P>
+ */
+public final class ClassLoadingMetricsRegistry {
+
+    private static final ConcurrentMap<String, ClassLoadingMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private ClassLoadingMetricsRegistry() {
+    }
+
+    /**
+     * Returns the metrics by the host name and context path, creating it if not existing.
+     * @param hostName host name
+     * @param contextPath context path
+     * @return the metrics by the host name and context path
+     */
+    public static ClassLoadingMetrics getOrCreate(final String hostName, final String contextPath) {
+        return METRICS.computeIfAbsent(getKey(hostName, contextPath),
+                key -> new ClassLoadingMetrics(hostName, contextPath));
+    }
+
+    /**
+     * Returns the metrics by the host name and context path, or null if not existing.
+     * @param hostName host name
+     * @param contextPath context path
+     * @return the metrics by the host name and context path, or null if not existing
+     */
+    public static ClassLoadingMetrics get(final String hostName, final String contextPath) {
+        return METRICS.get(getKey(hostName, contextPath));
+    }
+
+    /**
+     * Returns all the metrics sorted by the key made of the host name and context path.
+     * @return all the metrics sorted by the key made of the host name and context path
+     */
+    public static Map<String, ClassLoadingMetrics> getAll() {
+        return Collections.unmodifiableMap(new TreeMap<>(METRICS));
+    }
+
+    /**
+     * Removes the metrics by the host name and context path.
+     * @param hostName host name
+     * @param contextPath context path
+     */
+    public static void remove(final String hostName, final String contextPath) {
+        METRICS.remove(getKey(hostName, contextPath));
+    }
+
+    /**
+     * Returns the registry key of the host name and context path, e.g, <code>//localhost/site</code>.
+     * @param hostName host name
+     * @param contextPath context path
+     * @return the registry key of the host name and context path
+     */
+    public static String getKey(final String hostName, final String contextPath) {
+        final String path = (contextPath == null || contextPath.isEmpty()) ? "/" : contextPath;
+        return "//" + ((hostName != null) ? hostName : "") + path;
+    }
+}
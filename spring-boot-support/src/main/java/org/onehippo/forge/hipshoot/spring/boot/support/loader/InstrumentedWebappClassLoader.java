@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.loader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Enumeration;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.loader.ParallelWebappClassLoader;
+
+/**
+ * {@link ParallelWebappClassLoader} extension recording {@link ClassLoadingMetrics} of the web application context
+ * in {@link ClassLoadingMetricsRegistry} by the host name and context path.
+ * <P>
+ * Set its class name to <code>WebappLoader#setLoaderClass(String)</code> to use it. The metrics are reset whenever
+ * a new class loader starts for the context, e.g, on reload.
+ * </P>
+ */
+public class InstrumentedWebappClassLoader extends ParallelWebappClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * Depth of the nested class loading by this class loader in the current thread.
+     */
+    private final ThreadLocal<int []> loadDepth = ThreadLocal.withInitial(() -> new int[1]);
+
+    private volatile ClassLoadingMetrics metrics;
+
+    public InstrumentedWebappClassLoader() {
+        super();
+    }
+
+    public InstrumentedWebappClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    /**
+     * Returns the class loading metrics, or null if not started yet.
+     * @return the class loading metrics, or null if not started yet
+     */
+    public ClassLoadingMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void start() throws LifecycleException {
+        final WebResourceRoot resources = getResources();
+
+        if (resources != null && resources.getContext() != null) {
+            final Context context = resources.getContext();
+            final String hostName = (context.getParent() != null) ? context.getParent().getName() : null;
+            final ClassLoadingMetrics contextMetrics = ClassLoadingMetricsRegistry.getOrCreate(hostName,
+                    context.getPath());
+            contextMetrics.reset();
+            metrics = contextMetrics;
+        }
+
+        super.start();
+    }
+
+    @Override
+    public Class<?> findClass(String name) throws ClassNotFoundException {
+        final ClassLoadingMetrics contextMetrics = metrics;
+
+        if (contextMetrics == null) {
+            return super.findClass(name);
+        }
+
+        final int [] depth = loadDepth.get();
+        final boolean outermost = (depth[0]++ == 0);
+        final long startNanos = System.nanoTime();
+
+        try {
+            final Class<?> clazz = super.findClass(name);
+            contextMetrics.recordClassLoad(name, getClassBytes(name), System.nanoTime() - startNanos, outermost);
+            recordJar(contextMetrics, clazz);
+            return clazz;
+        } catch (ClassNotFoundException e) {
+            contextMetrics.recordFailedClassLookup(System.nanoTime() - startNanos, outermost);
+            throw e;
+        } finally {
+            if (--depth[0] == 0) {
+                loadDepth.remove();
+            }
+        }
+    }
+
+    @Override
+    public URL findResource(String name) {
+        final URL url = super.findResource(name);
+        final ClassLoadingMetrics contextMetrics = metrics;
+
+        if (contextMetrics != null) {
+            contextMetrics.recordResourceLookup();
+
+            if (url != null) {
+                recordJar(contextMetrics, url);
+            }
+        }
+
+        return url;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        final ClassLoadingMetrics contextMetrics = metrics;
+
+        if (contextMetrics != null) {
+            contextMetrics.recordResourceLookup();
+        }
+
+        return super.findResources(name);
+    }
+
+    private long getClassBytes(final String className) {
+        final WebResourceRoot resources = getResources();
+
+        if (resources == null) {
+            return -1L;
+        }
+
+        final WebResource resource = resources.getClassLoaderResource('/' + className.replace('.', '/') + ".class");
+        return resource.exists() ? resource.getContentLength() : -1L;
+    }
+
+    private static void recordJar(final ClassLoadingMetrics contextMetrics, final Class<?> clazz) {
+        final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+
+        if (codeSource != null && codeSource.getLocation() != null) {
+            recordJar(contextMetrics, codeSource.getLocation());
+        }
+    }
+
+    private static void recordJar(final ClassLoadingMetrics contextMetrics, final URL url) {
+        String location = url.toString();
+
+        // Resource URLs in jars are like 'jar:file:/.../x.jar!/y', while class code sources are like 'file:/.../x.jar'.
+        if (location.startsWith("jar:")) {
+            location = location.substring(4);
+        }
+
+        final int offset = location.indexOf("!/");
+
+        if (offset != -1) {
+            contextMetrics.recordJar(location.substring(0, offset));
+        } else if (location.endsWith(".jar")) {
+            contextMetrics.recordJar(location);
+        }
+    }
+}
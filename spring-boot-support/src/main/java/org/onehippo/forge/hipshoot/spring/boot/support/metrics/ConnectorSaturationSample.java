@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.metrics;
+
+/**
+ * Immutable snapshot of the saturation state of a connector and its executor, taken by
+ * {@link ConnectorSaturationSampler}.
+ * <P>
+ * A value is <code>-1</code> if it is not available from the connector, e.g, the keep-alive socket count
+ * of a protocol other than NIO, or the max threads of a virtual thread executor.
+ * </P>
+ */
+public class ConnectorSaturationSample {
+
+    private final String name;
+    private final int port;
+    private final long timestamp;
+    private final int busyThreads;
+    private final int currentThreads;
+    private final int maxThreads;
+    private final int queueSize;
+    private final long connectionCount;
+    private final int maxConnections;
+    private final int keepAliveCount;
+    private final long bytesReceived;
+    private final long bytesSent;
+    private final double bytesReceivedPerSecond;
+    private final double bytesSentPerSecond;
+
+    ConnectorSaturationSample(final String name, final int port, final long timestamp, final int busyThreads,
+            final int currentThreads, final int maxThreads, final int queueSize, final long connectionCount,
+            final int maxConnections, final int keepAliveCount, final long bytesReceived, final long bytesSent,
+            final double bytesReceivedPerSecond, final double bytesSentPerSecond) {
+        this.name = name;
+        this.port = port;
+        this.timestamp = timestamp;
+        this.busyThreads = busyThreads;
+        this.currentThreads = currentThreads;
+        this.maxThreads = maxThreads;
+        this.queueSize = queueSize;
+        this.connectionCount = connectionCount;
+        this.maxConnections = maxConnections;
+        this.keepAliveCount = keepAliveCount;
+        this.bytesReceived = bytesReceived;
+        this.bytesSent = bytesSent;
+        this.bytesReceivedPerSecond = bytesReceivedPerSecond;
+        this.bytesSentPerSecond = bytesSentPerSecond;
+    }
+
+    /**
+     * Returns the connector name, made of the service name and the port. e.g, <code>Tomcat-8080</code>.
+     * @return the connector name
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the time in milliseconds when this sample was taken.
+     * @return the time in milliseconds when this sample was taken
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getBusyThreads() {
+        return busyThreads;
+    }
+
+    public int getCurrentThreads() {
+        return currentThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Returns the number of tasks waiting in the executor queue.
+     * @return the number of tasks waiting in the executor queue
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getConnectionCount() {
+        return connectionCount;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getKeepAliveCount() {
+        return keepAliveCount;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the bytes received per second since the previous sample.
+     * @return the bytes received per second since the previous sample
+     */
+    public double getBytesReceivedPerSecond() {
+        return bytesReceivedPerSecond;
+    }
+
+    /**
+     * Returns the bytes sent per second since the previous sample.
+     * @return the bytes sent per second since the previous sample
+     */
+    public double getBytesSentPerSecond() {
+        return bytesSentPerSecond;
+    }
+
+    /**
+     * Returns the ratio of the busy threads to the max threads, or -1 if the max threads is not known.
+     * @return the ratio of the busy threads to the max threads
+     */
+    public double getThreadUtilization() {
+        return (maxThreads > 0) ? (double) busyThreads / maxThreads : -1.0;
+    }
+
+    /**
+     * Returns the ratio of the open connections to the max connections, or -1 if the max connections is unlimited.
+     * @return the ratio of the open connections to the max connections
+     */
+    public double getConnectionUtilization() {
+        return (maxConnections > 0 && connectionCount >= 0) ? (double) connectionCount / maxConnections : -1.0;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": busyThreads=" + busyThreads + "/" + maxThreads + ", queueSize=" + queueSize
+                + ", connections=" + connectionCount + "/" + maxConnections + ", keepAlive=" + keepAliveCount
+                + ", bytesReceived=" + bytesReceived + ", bytesSent=" + bytesSent;
+    }
+}
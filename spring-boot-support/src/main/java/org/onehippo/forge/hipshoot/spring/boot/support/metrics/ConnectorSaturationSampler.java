@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.coyote.RequestGroupInfo;
+import org.apache.tomcat.util.net.AbstractEndpoint;
+import org.apache.tomcat.util.net.Nio2Endpoint;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.onehippo.forge.hipshoot.spring.boot.support.executor.VirtualThreadExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LifecycleListener} of the {@link Server}, sampling the saturation state of every connector and its
+ * executor at a fixed interval while the server is running.
+ * <P>
+ * The latest samples are kept in memory, so gauges of a metrics library can read them as often as needed
+ * through {@link #getSamples()} without querying JMX or the connectors on each scrape.
+ * </P>
+ * <P>
+ * Note that the depth of the operating system's accept queue cannot be observed from Java, but
+ * the connection count reaching <code>maxConnections</code> tells that new connections are left in that queue.
+ * </P>
+ */
+public class ConnectorSaturationSampler implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(ConnectorSaturationSampler.class);
+
+    private static final Method GET_ENDPOINT_METHOD;
+
+    static {
+        Method method = null;
+
+        try {
+            method = AbstractProtocol.class.getDeclaredMethod("getEndpoint");
+            method.setAccessible(true);
+        } catch (Exception e) {
+            log.warn("Cannot access connector endpoints. Keep-alive and bytes statistics are not available: {}",
+                    e.toString());
+        }
+
+        GET_ENDPOINT_METHOD = method;
+    }
+
+    private final Server server;
+
+    private long intervalMillis = 5000;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile Map<String, ConnectorSaturationSample> samples = Collections.emptyMap();
+
+    public ConnectorSaturationSampler(final Server server) {
+        this.server = server;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Returns the latest samples by the connector names.
+     * @return the latest samples by the connector names
+     */
+    public Map<String, ConnectorSaturationSample> getSamples() {
+        return samples;
+    }
+
+    /**
+     * Returns the latest sample of the connector, or null if not sampled yet.
+     * @param name connector name, made of the service name and the port. e.g, <code>Tomcat-8080</code>
+     * @return the latest sample of the connector, or null if not sampled yet
+     */
+    public ConnectorSaturationSample getSample(final String name) {
+        return samples.get(name);
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+            start();
+        } else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+            stop();
+        }
+    }
+
+    /**
+     * Takes samples of all the connectors now.
+     */
+    public void sample() {
+        final Map<String, ConnectorSaturationSample> previous = samples;
+        final Map<String, ConnectorSaturationSample> current = new LinkedHashMap<>();
+
+        for (Service service : server.findServices()) {
+            for (Connector connector : service.findConnectors()) {
+                try {
+                    final String name = service.getName() + "-" + connector.getPort();
+                    current.put(name, sampleConnector(name, connector, previous.get(name)));
+                } catch (RuntimeException e) {
+                    log.debug("Failed to sample connector ('{}').", connector, e);
+                }
+            }
+        }
+
+        samples = Collections.unmodifiableMap(current);
+    }
+
+    private synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "connector-saturation-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(this::sample, 0L, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Started connector saturation sampler: intervalMillis={}.", intervalMillis);
+    }
+
+    private synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private ConnectorSaturationSample sampleConnector(final String name, final Connector connector,
+            final ConnectorSaturationSample previous) {
+        final ProtocolHandler handler = connector.getProtocolHandler();
+        final long now = System.currentTimeMillis();
+
+        int busyThreads = -1;
+        int currentThreads = -1;
+        int maxThreads = -1;
+        int queueSize = -1;
+
+        final Executor executor = handler.getExecutor();
+
+        if (executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            busyThreads = pool.getActiveCount();
+            currentThreads = pool.getPoolSize();
+            maxThreads = pool.getMaximumPoolSize();
+            queueSize = pool.getQueue().size();
+        } else if (executor instanceof StandardThreadExecutor) {
+            final StandardThreadExecutor pool = (StandardThreadExecutor) executor;
+            busyThreads = pool.getActiveCount();
+            currentThreads = pool.getPoolSize();
+            maxThreads = pool.getMaxThreads();
+            queueSize = pool.getQueueSize();
+        } else if (executor instanceof VirtualThreadExecutor) {
+            busyThreads = ((VirtualThreadExecutor) executor).getActiveCount();
+            currentThreads = busyThreads;
+            queueSize = 0;
+        }
+
+        long connectionCount = -1L;
+        int maxConnections = -1;
+        int keepAliveCount = -1;
+        long bytesReceived = -1L;
+        long bytesSent = -1L;
+
+        if (handler instanceof AbstractProtocol) {
+            final AbstractProtocol<?> protocol = (AbstractProtocol<?>) handler;
+            connectionCount = protocol.getConnectionCount();
+            maxConnections = protocol.getMaxConnections();
+
+            final AbstractEndpoint<?, ?> endpoint = getEndpoint(protocol);
+
+            if (endpoint != null) {
+                keepAliveCount = getKeepAliveCount(endpoint);
+
+                if (endpoint.getHandler() != null
+                        && endpoint.getHandler().getGlobal() instanceof RequestGroupInfo) {
+                    final RequestGroupInfo global = (RequestGroupInfo) endpoint.getHandler().getGlobal();
+                    bytesReceived = global.getBytesReceived();
+                    bytesSent = global.getBytesSent();
+                }
+            }
+        }
+
+        double bytesReceivedPerSecond = 0.0;
+        double bytesSentPerSecond = 0.0;
+
+        if (previous != null && now > previous.getTimestamp()) {
+            final double seconds = (now - previous.getTimestamp()) / 1000.0;
+
+            if (bytesReceived >= previous.getBytesReceived()) {
+                bytesReceivedPerSecond = (bytesReceived - previous.getBytesReceived()) / seconds;
+            }
+
+            if (bytesSent >= previous.getBytesSent()) {
+                bytesSentPerSecond = (bytesSent - previous.getBytesSent()) / seconds;
+            }
+        }
+
+        final int port = (connector.getLocalPort() > 0) ? connector.getLocalPort() : connector.getPort();
+
+        return new ConnectorSaturationSample(name, port, now, busyThreads, currentThreads,
+                maxThreads, queueSize, connectionCount, maxConnections, keepAliveCount, bytesReceived, bytesSent,
+                bytesReceivedPerSecond, bytesSentPerSecond);
+    }
+
+    private static AbstractEndpoint<?, ?> getEndpoint(final AbstractProtocol<?> protocol) {
+        if (GET_ENDPOINT_METHOD == null) {
+            return null;
+        }
+
+        try {
+            return (AbstractEndpoint<?, ?>) GET_ENDPOINT_METHOD.invoke(protocol);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static int getKeepAliveCount(final AbstractEndpoint<?, ?> endpoint) {
+        if (endpoint instanceof NioEndpoint) {
+            return ((NioEndpoint) endpoint).getKeepAliveCount();
+        } else if (endpoint instanceof Nio2Endpoint) {
+            return ((Nio2Endpoint) endpoint).getKeepAliveCount();
+        }
+
+        return -1;
+    }
+}
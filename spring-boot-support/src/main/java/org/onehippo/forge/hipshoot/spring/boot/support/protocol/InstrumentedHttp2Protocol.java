@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
+import org.apache.coyote.http2.Http2Protocol;
+import org.apache.tomcat.util.net.SocketEvent;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+
+/**
+ * {@link Http2Protocol} extension recording connection and stream level statistics.
+ * <P>
+ * Once added as an upgrade protocol of a cleartext connector, HTTP/2 connections are accepted either by
+ * <code>h2c</code> upgrade of an HTTP/1.1 request or by prior knowledge, i.e, the client sending the HTTP/2
+ * connection preface right away.
+ * </P>
+ * <P>
+ * Each stream is counted when the container starts processing it, so the active stream count shows the streams
+ * being processed by the container threads, not the ones waiting for asynchronous processing or flow control.
+ * </P>
+ */
+public class InstrumentedHttp2Protocol extends Http2Protocol {
+
+    private final AtomicLong connectionCount = new AtomicLong();
+
+    private final AtomicLong streamCount = new AtomicLong();
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+
+    private final AtomicInteger maxActiveStreams = new AtomicInteger();
+
+    private final AtomicLong streamNanos = new AtomicLong();
+
+    /**
+     * Returns the number of HTTP/2 connections accepted.
+     * @return the number of HTTP/2 connections accepted
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Returns the number of HTTP/2 streams processed.
+     * @return the number of HTTP/2 streams processed
+     */
+    public long getStreamCount() {
+        return streamCount.get();
+    }
+
+    /**
+     * Returns the number of HTTP/2 streams currently being processed.
+     * @return the number of HTTP/2 streams currently being processed
+     */
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    /**
+     * Returns the maximum number of HTTP/2 streams processed at once.
+     * @return the maximum number of HTTP/2 streams processed at once
+     */
+    public int getMaxActiveStreams() {
+        return maxActiveStreams.get();
+    }
+
+    /**
+     * Returns the average processing time in milliseconds of the HTTP/2 streams.
+     * @return the average processing time in milliseconds of the HTTP/2 streams
+     */
+    public double getAverageStreamTime() {
+        final long count = streamCount.get();
+        return (count == 0L) ? 0.0 : streamNanos.get() / 1000000.0 / count;
+    }
+
+    @Override
+    public InternalHttpUpgradeHandler getInternalUpgradeHandler(SocketWrapperBase<?> socketWrapper,
+            Adapter adapter, Request coyoteRequest) {
+        connectionCount.incrementAndGet();
+        return super.getInternalUpgradeHandler(socketWrapper, new StreamCountingAdapter(adapter), coyoteRequest);
+    }
+
+    /**
+     * {@link Adapter} decorator counting the streams serviced by the delegate.
+     */
+    private class StreamCountingAdapter implements Adapter {
+
+        private final Adapter delegate;
+
+        private StreamCountingAdapter(final Adapter delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void service(Request req, Response res) throws Exception {
+            final int active = activeStreams.incrementAndGet();
+            final long startNanos = System.nanoTime();
+
+            for (int max = maxActiveStreams.get(); active > max; max = maxActiveStreams.get()) {
+                if (maxActiveStreams.compareAndSet(max, active)) {
+                    break;
+                }
+            }
+
+            try {
+                delegate.service(req, res);
+            } finally {
+                activeStreams.decrementAndGet();
+                streamNanos.addAndGet(System.nanoTime() - startNanos);
+                streamCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public boolean prepare(Request req, Response res) throws Exception {
+            return delegate.prepare(req, res);
+        }
+
+        @Override
+        public boolean asyncDispatch(Request req, Response res, SocketEvent status) throws Exception {
+            return delegate.asyncDispatch(req, res, status);
+        }
+
+        @Override
+        public void log(Request req, Response res, long time) {
+            delegate.log(req, res, time);
+        }
+
+        @Override
+        public void checkRecycled(Request req, Response res) {
+            delegate.checkRecycled(req, res);
+        }
+
+        @Override
+        public String getDomain() {
+            return delegate.getDomain();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Wrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link LifecycleListener} of a web application {@link Context}, generating precompressed sidecar files
+ * (<code>.gz</code>, and <code>.br</code> if a Brotli encoder is available) for the compressible static resources
+ * of the exploded web application, and configuring the <code>DefaultServlet</code> of the context to serve them.
+ * <P>
+ * The sidecar files are generated in parallel right after the war file is expanded, before the context starts.
+ * Compressed content is also stored in <code>cacheDirectory</code> by the SHA-256 hash of the original content,
+ * so an unchanged resource is never compressed again even if the war file is replaced and expanded again.
+ * A sidecar file is not generated if compression doesn't make the resource smaller.
+ * </P>
+ * <P>
+ * Brotli compression is enabled only if <code>com.aayushatharva.brotli4j</code> is in the classpath and its native
+ * library can be loaded, as the JDK has no Brotli encoder.
+ * </P>
+ */
+public class PrecompressedResourceGenerator implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(PrecompressedResourceGenerator.class);
+
+    private static final String DEFAULT_SERVLET_CLASS_NAME = "org.apache.catalina.servlets.DefaultServlet";
+
+    private static final String GZIP_EXTENSION = ".gz";
+
+    private static final String BROTLI_EXTENSION = ".br";
+
+    private static final Method BROTLI_COMPRESS_METHOD;
+
+    static {
+        Method method = null;
+
+        try {
+            final Class<?> loaderClass = Class.forName("com.aayushatharva.brotli4j.Brotli4jLoader");
+
+            if ((Boolean) loaderClass.getMethod("isAvailable").invoke(null)) {
+                method = Class.forName("com.aayushatharva.brotli4j.encoder.Encoder").getMethod("compress",
+                        byte[].class);
+            }
+        } catch (Throwable e) {
+            // No Brotli encoder available.
+        }
+
+        BROTLI_COMPRESS_METHOD = method;
+    }
+
+    private String extensions = "css,js,mjs,svg,json,map,html,txt,xml";
+
+    private int minSize = 1024;
+
+    private File cacheDirectory;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger generatedCount = new AtomicInteger();
+
+    private final AtomicInteger cachedCount = new AtomicInteger();
+
+    private final AtomicInteger upToDateCount = new AtomicInteger();
+
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * Returns true if Brotli compression is available.
+     * @return true if Brotli compression is available
+     */
+    public static boolean isBrotliAvailable() {
+        return BROTLI_COMPRESS_METHOD != null;
+    }
+
+    /**
+     * Returns comma separated file extensions of the resources to compress.
+     * @return comma separated file extensions of the resources to compress
+     */
+    public String getExtensions() {
+        return extensions;
+    }
+
+    public void setExtensions(String extensions) {
+        this.extensions = extensions;
+    }
+
+    /**
+     * Returns the minimum size in bytes of the resources to compress.
+     * @return the minimum size in bytes of the resources to compress
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Returns the directory where compressed content is kept by content hash across restarts.
+     * @return the directory where compressed content is kept by content hash across restarts
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Returns the number of threads to compress resources in parallel.
+     * @return the number of threads to compress resources in parallel
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of sidecar files generated by compression.
+     * @return the number of sidecar files generated by compression
+     */
+    public int getGeneratedCount() {
+        return generatedCount.get();
+    }
+
+    /**
+     * Returns the number of sidecar files copied from the cache directory.
+     * @return the number of sidecar files copied from the cache directory
+     */
+    public int getCachedCount() {
+        return cachedCount.get();
+    }
+
+    /**
+     * Returns the number of sidecar files which were already up to date.
+     * @return the number of sidecar files which were already up to date
+     */
+    public int getUpToDateCount() {
+        return upToDateCount.get();
+    }
+
+    /**
+     * Returns the total number of bytes saved by the sidecar files compared to the original resources.
+     * @return the total number of bytes saved by the sidecar files compared to the original resources
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (!(event.getLifecycle() instanceof Context)) {
+            return;
+        }
+
+        final Context context = (Context) event.getLifecycle();
+
+        if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+            // ContextConfig has expanded the war file by now as it is added to the context before this.
+            final File docBase = getDocBaseDirectory(context);
+
+            if (docBase != null) {
+                generate(docBase);
+            } else {
+                log.info("Skipping precompression of context ('{}') which is not exploded.", context.getPath());
+            }
+        } else if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+            configureDefaultServlets(context);
+        }
+    }
+
+    /**
+     * Generates the sidecar files for the compressible resources under the web application directory.
+     * @param docBase exploded web application directory
+     */
+    public void generate(final File docBase) {
+        final Set<String> extensionSet = new HashSet<>();
+
+        for (String ext : StringUtils.tokenizeToStringArray(extensions, ",")) {
+            extensionSet.add(ext.toLowerCase(Locale.ROOT));
+        }
+
+        final List<File> files = new ArrayList<>();
+        collectFiles(docBase, true, extensionSet, files);
+
+        if (files.isEmpty()) {
+            return;
+        }
+
+        if (cacheDirectory != null && !cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+            log.warn("Cannot create precompressed resource cache directory: {}", cacheDirectory);
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final int generatedBefore = generatedCount.get();
+        final int cachedBefore = cachedCount.get();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        final List<Future<?>> futures = new ArrayList<>(files.size());
+
+        try {
+            for (final File file : files) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            compressFile(file);
+                        } catch (IOException e) {
+                            log.warn("Failed to precompress {}: {}", file, e.toString());
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Failed to precompress resources in {}.", docBase, e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        log.info("Precompressed {} resources in {}: generated={}, fromCache={}, brotli={}, in {}ms.", files.size(),
+                docBase, generatedCount.get() - generatedBefore, cachedCount.get() - cachedBefore,
+                isBrotliAvailable(), System.currentTimeMillis() - startTime);
+    }
+
+    private void configureDefaultServlets(final Context context) {
+        final String formats = isBrotliAvailable() ? "br=" + BROTLI_EXTENSION + ",gzip=" + GZIP_EXTENSION
+                : "gzip=" + GZIP_EXTENSION;
+
+        for (Container child : context.findChildren()) {
+            if (!(child instanceof Wrapper)) {
+                continue;
+            }
+
+            final Wrapper wrapper = (Wrapper) child;
+
+            if (DEFAULT_SERVLET_CLASS_NAME.equals(wrapper.getServletClass())
+                    && wrapper.findInitParameter("precompressed") == null) {
+                wrapper.addInitParameter("precompressed", formats);
+                log.info("Serving precompressed resources by servlet '{}' in context ('{}'): {}.",
+                        wrapper.getName(), context.getPath(), formats);
+            }
+        }
+    }
+
+    private void compressFile(final File file) throws IOException {
+        final File gzipFile = new File(file.getPath() + GZIP_EXTENSION);
+        final File brotliFile = isBrotliAvailable() ? new File(file.getPath() + BROTLI_EXTENSION) : null;
+        final boolean gzipUpToDate = isUpToDate(file, gzipFile);
+        final boolean brotliUpToDate = brotliFile == null || isUpToDate(file, brotliFile);
+
+        if (gzipUpToDate && brotliUpToDate) {
+            upToDateCount.incrementAndGet();
+            return;
+        }
+
+        final byte [] content = Files.readAllBytes(file.toPath());
+        final String hash = sha256(content);
+
+        if (!gzipUpToDate) {
+            writeSidecar(content, hash, GZIP_EXTENSION, gzipFile);
+        }
+
+        if (!brotliUpToDate) {
+            writeSidecar(content, hash, BROTLI_EXTENSION, brotliFile);
+        }
+    }
+
+    private void writeSidecar(final byte [] content, final String hash, final String extension,
+            final File sidecarFile) throws IOException {
+        final File cacheFile = (cacheDirectory != null) ? new File(cacheDirectory, hash + extension) : null;
+        byte [] compressed;
+
+        if (cacheFile != null && cacheFile.isFile()) {
+            compressed = Files.readAllBytes(cacheFile.toPath());
+            cachedCount.incrementAndGet();
+        } else {
+            compressed = GZIP_EXTENSION.equals(extension) ? gzip(content) : brotli(content);
+
+            if (cacheFile != null) {
+                final File tempFile = File.createTempFile(hash, ".tmp", cacheDirectory);
+                Files.write(tempFile.toPath(), compressed);
+                Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            generatedCount.incrementAndGet();
+        }
+
+        if (compressed.length >= content.length) {
+            Files.deleteIfExists(sidecarFile.toPath());
+            return;
+        }
+
+        Files.write(sidecarFile.toPath(), compressed);
+        savedBytes.addAndGet(content.length - compressed.length);
+    }
+
+    private static boolean isUpToDate(final File file, final File sidecarFile) {
+        return sidecarFile.isFile() && sidecarFile.lastModified() >= file.lastModified();
+    }
+
+    private void collectFiles(final File dir, final boolean root, final Set<String> extensionSet,
+            final List<File> files) {
+        final File [] children = dir.listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            final String name = child.getName();
+
+            if (child.isDirectory()) {
+                if (!root || (!"WEB-INF".equalsIgnoreCase(name) && !"META-INF".equalsIgnoreCase(name))) {
+                    collectFiles(child, false, extensionSet, files);
+                }
+            } else if (child.length() >= minSize) {
+                final int offset = name.lastIndexOf('.');
+
+                if (offset != -1 && extensionSet.contains(name.substring(offset + 1).toLowerCase(Locale.ROOT))) {
+                    files.add(child);
+                }
+            }
+        }
+    }
+
+    private static File getDocBaseDirectory(final Context context) {
+        final String docBase = context.getDocBase();
+
+        if (docBase == null) {
+            return null;
+        }
+
+        File dir = new File(docBase);
+
+        if (!dir.isAbsolute() && context.getParent() instanceof Host) {
+            dir = new File(((Host) context.getParent()).getAppBaseFile(), docBase);
+        }
+
+        return dir.isDirectory() ? dir : null;
+    }
+
+    private static byte [] gzip(final byte [] content) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(content.length / 4 + 64);
+
+        try (GZIPOutputStream gzos = new GZIPOutputStream(baos, 8192) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzos.write(content);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private static byte [] brotli(final byte [] content) throws IOException {
+        try {
+            return (byte []) BROTLI_COMPRESS_METHOD.invoke(null, content);
+        } catch (Exception e) {
+            throw new IOException("Brotli compression failed.", e);
+        }
+    }
+
+    private static String sha256(final byte [] content) {
+        try {
+            final byte [] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
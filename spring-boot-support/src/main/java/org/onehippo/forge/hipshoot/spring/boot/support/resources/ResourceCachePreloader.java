@@ -0,0 +1,299 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.HotSetRecorderValve;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+
+/**
+ * {@link LifecycleListener} of a web application {@link Context}, loading static resources into the resource cache
+ * of the context in parallel when the context starts, so that the first requests are served from memory.
+ * <P>
+ * The resources to preload are the ones matching any of the Ant-style <code>patterns</code> (e.g,
+ * <code>/css/**&#47;*.css</code>), and the ones listed in the hot set file, one path per line, which is recorded
+ * from the hits counted by {@link HotSetRecorderValve} when the context stops. Loading stops once the resource
+ * cache is nearly full, as preloading more would only evict the resources preloaded earlier.
+ * </P>
+ */
+public class ResourceCachePreloader implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(ResourceCachePreloader.class);
+
+    private String patterns;
+
+    private File hotSetFile;
+
+    private int hotSetMaxSize = 1000;
+
+    private HotSetRecorderValve hotSetRecorder;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final AtomicInteger preloadedCount = new AtomicInteger();
+
+    private final AtomicLong preloadedBytes = new AtomicLong();
+
+    /**
+     * Returns comma separated Ant-style path patterns of the resources to preload.
+     * @return comma separated Ant-style path patterns of the resources to preload
+     */
+    public String getPatterns() {
+        return patterns;
+    }
+
+    public void setPatterns(String patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * Returns the file listing the paths of the resources to preload, recorded when the context stops if
+     * a hot set recorder is set.
+     * @return the file listing the paths of the resources to preload
+     */
+    public File getHotSetFile() {
+        return hotSetFile;
+    }
+
+    public void setHotSetFile(File hotSetFile) {
+        this.hotSetFile = hotSetFile;
+    }
+
+    /**
+     * Returns the maximum number of paths to record in the hot set file.
+     * @return the maximum number of paths to record in the hot set file
+     */
+    public int getHotSetMaxSize() {
+        return hotSetMaxSize;
+    }
+
+    public void setHotSetMaxSize(int hotSetMaxSize) {
+        this.hotSetMaxSize = hotSetMaxSize;
+    }
+
+    public HotSetRecorderValve getHotSetRecorder() {
+        return hotSetRecorder;
+    }
+
+    public void setHotSetRecorder(HotSetRecorderValve hotSetRecorder) {
+        this.hotSetRecorder = hotSetRecorder;
+    }
+
+    /**
+     * Returns the number of threads to preload resources in parallel.
+     * @return the number of threads to preload resources in parallel
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns the number of resources preloaded.
+     * @return the number of resources preloaded
+     */
+    public int getPreloadedCount() {
+        return preloadedCount.get();
+    }
+
+    /**
+     * Returns the total size in bytes of the resources preloaded.
+     * @return the total size in bytes of the resources preloaded
+     */
+    public long getPreloadedBytes() {
+        return preloadedBytes.get();
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (!(event.getLifecycle() instanceof Context)) {
+            return;
+        }
+
+        final Context context = (Context) event.getLifecycle();
+
+        if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+            if (context.getResources() != null) {
+                preload(context.getPath(), context.getResources());
+            }
+        } else if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+            recordHotSet(context.getPath());
+        }
+    }
+
+    /**
+     * Loads the resources matching the patterns or listed in the hot set file into the resource cache.
+     * @param contextPath context path, for logging
+     * @param resources resource root of the context
+     */
+    public void preload(final String contextPath, final WebResourceRoot resources) {
+        if (!resources.isCachingAllowed()) {
+            log.info("Skipping resource cache preloading of context ('{}') as caching is not allowed.", contextPath);
+            return;
+        }
+
+        final long startTime = System.currentTimeMillis();
+        final Set<String> paths = new LinkedHashSet<>(readHotSet());
+        final String [] patternArray = StringUtils.tokenizeToStringArray(patterns, ",");
+
+        if (patternArray != null && patternArray.length > 0) {
+            collectMatchingPaths(resources, "/", new AntPathMatcher(), patternArray, paths);
+        }
+
+        if (paths.isEmpty()) {
+            return;
+        }
+
+        // Leave some room in the cache for the other resources.
+        final long maxBytes = resources.getCacheMaxSize() * 1024L * 9 / 10;
+        final long objectMaxBytes = resources.getCacheObjectMaxSize() * 1024L;
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, paths.size())));
+        final List<Future<?>> futures = new ArrayList<>(paths.size());
+
+        for (final String path : paths) {
+            futures.add(executor.submit(() -> {
+                if (preloadedBytes.get() >= maxBytes) {
+                    return;
+                }
+
+                final WebResource resource = resources.getResource(path);
+
+                if (resource.isFile() && resource.getContentLength() <= objectMaxBytes
+                        && resource.getContent() != null) {
+                    preloadedCount.incrementAndGet();
+                    preloadedBytes.addAndGet(resource.getContentLength());
+                }
+            }));
+        }
+
+        executor.shutdown();
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.warn("Failed to preload resources of context ('{}'): {}", contextPath, e.toString());
+        }
+
+        log.info("Preloaded {} resources ({} bytes) of {} candidates into the resource cache of context ('{}'), "
+                + "in {}ms.", preloadedCount.get(), preloadedBytes.get(), paths.size(), contextPath,
+                System.currentTimeMillis() - startTime);
+    }
+
+    private List<String> readHotSet() {
+        final List<String> paths = new ArrayList<>();
+
+        if (hotSetFile == null || !hotSetFile.isFile()) {
+            return paths;
+        }
+
+        try {
+            for (String line : Files.readAllLines(hotSetFile.toPath(), StandardCharsets.UTF_8)) {
+                final String path = line.trim();
+
+                if (path.startsWith("/")) {
+                    paths.add(path);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read resource hot set file, {}: {}", hotSetFile, e.toString());
+        }
+
+        return paths;
+    }
+
+    private void recordHotSet(final String contextPath) {
+        if (hotSetRecorder == null || hotSetFile == null) {
+            return;
+        }
+
+        final List<String> hotSet = hotSetRecorder.getHotSet(hotSetMaxSize);
+
+        if (hotSet.isEmpty()) {
+            return;
+        }
+
+        try {
+            final File dir = hotSetFile.getAbsoluteFile().getParentFile();
+
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create directory: " + dir);
+            }
+
+            final File tempFile = File.createTempFile(hotSetFile.getName(), ".tmp", dir);
+            Files.write(tempFile.toPath(), hotSet, StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), hotSetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            log.info("Recorded {} hot resources of context ('{}') in {}.", hotSet.size(), contextPath, hotSetFile);
+        } catch (IOException e) {
+            log.warn("Cannot record resource hot set file, {}: {}", hotSetFile, e.toString());
+        }
+    }
+
+    private static void collectMatchingPaths(final WebResourceRoot resources, final String dirPath,
+            final AntPathMatcher matcher, final String [] patternArray, final Set<String> paths) {
+        for (String name : resources.list(dirPath)) {
+            final String path = dirPath + name;
+
+            if ("/WEB-INF".equalsIgnoreCase(path) || "/META-INF".equalsIgnoreCase(path)) {
+                continue;
+            }
+
+            final WebResource resource = resources.getResource(path);
+
+            if (resource.isDirectory()) {
+                collectMatchingPaths(resources, path + "/", matcher, patternArray, paths);
+            } else if (resource.isFile()) {
+                for (String pattern : patternArray) {
+                    if (matcher.match(pattern, path)) {
+                        paths.add(path);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -83,7 +83,31 @@ public class DeferredInitDelegatingServlet extends HttpServlet {
 
     private Class<? extends HttpServlet> delegateServletClass;
 
-    private Thread delegateServletInitThread;
+    private volatile Thread delegateServletInitThread;
+
+    /**
+     * Interrupts the thread initializing the delegate servlet at the moment, e.g, when the server is shutting down.
+     * <P>
+     * This is public and takes no argument so that it can be invoked reflectively on an instance loaded by a web
+     * application class loader.
+     * </P>
+     * @return true if the initialization was pending and got interrupted
+     */
+    public boolean interruptInitialization() {
+        final Thread thread = delegateServletInitThread;
+
+        if (thread == null || !thread.isAlive()) {
+            return false;
+        }
+
+        try {
+            thread.interrupt();
+            return true;
+        } catch (SecurityException e) {
+            log.error("Failed to interrupt delegateServletInitThread due to security exception.", e);
+            return false;
+        }
+    }
 
     public void init(ServletConfig servletConfig) throws ServletException {
         super.init(servletConfig);
@@ -128,13 +152,7 @@ public class DeferredInitDelegatingServlet extends HttpServlet {
 
     @Override
     public void destroy() {
-        if (delegateServletInitThread != null && delegateServletInitThread.isAlive()) {
-            try {
-                delegateServletInitThread.interrupt();
-            } catch (SecurityException e) {
-                log.error("Failed to interrupt delegateServletInitThread due to security exception.", e);
-            }
-        }
+        interruptInitialization();
 
         if (delegate != null) {
             delegate.destroy();
@@ -188,7 +206,11 @@ public class DeferredInitDelegatingServlet extends HttpServlet {
     private class DelegateServletInitializationRunner implements Runnable {
         @Override
         public void run() {
-            initializeDelegateServlet();
+            try {
+                initializeDelegateServlet();
+            } finally {
+                delegateServletInitThread = null;
+            }
         }
     }
 }
\ No newline at end of file
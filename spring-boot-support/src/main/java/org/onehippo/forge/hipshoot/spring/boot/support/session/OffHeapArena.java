@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded off-heap memory arena, made of direct {@link ByteBuffer} slabs split into fixed size blocks.
+ * <P>
+ * Data is stored in as many blocks as needed, which don't have to be contiguous, so the arena never gets
+ * fragmented. Slabs are allocated one by one only when the free blocks run out, up to the capacity. When there are
+ * not enough free blocks, {@link #store(byte[], int)} simply returns null and the caller is supposed to keep the data
+ * on heap.
+ * </P>
+ */
+class OffHeapArena {
+
+    /**
+     * Maximum size of each direct buffer slab.
+     */
+    private static final int MAX_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Data stored in the arena, referring to the blocks holding the data.
+     */
+    static final class Allocation {
+
+        private final int [] blocks;
+        private final int length;
+
+        private Allocation(final int [] blocks, final int length) {
+            this.blocks = blocks;
+            this.length = length;
+        }
+
+        int getLength() {
+            return length;
+        }
+    }
+
+    private final ByteBuffer [] slabs;
+
+    private final int blockSize;
+
+    private final int blocksPerSlab;
+
+    private final long blockCount;
+
+    /**
+     * Stack of free block indexes of the allocated slabs, guarded by <code>this</code>.
+     */
+    private final int [] freeBlocks;
+
+    private int freeCount;
+
+    /**
+     * The number of slabs allocated so far, guarded by <code>this</code>.
+     */
+    private int allocatedSlabs;
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final AtomicLong failedAllocations = new AtomicLong();
+
+    /**
+     * Constructs an arena.
+     * @param capacity the total capacity in bytes
+     * @param blockSize the size of each block in bytes
+     */
+    OffHeapArena(final long capacity, final int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+
+        final long blockCount = capacity / blockSize;
+
+        if (blockCount <= 0 || blockCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+
+        this.blockSize = blockSize;
+        this.blockCount = blockCount;
+        blocksPerSlab = Math.max(1, MAX_SLAB_SIZE / blockSize);
+        slabs = new ByteBuffer[(int) ((blockCount + blocksPerSlab - 1) / blocksPerSlab)];
+        freeBlocks = new int[(int) blockCount];
+    }
+
+    /**
+     * Stores the data in free blocks.
+     * @param data data
+     * @param length data length
+     * @return allocation referring to the blocks holding the data, or null if there are not enough free blocks
+     */
+    Allocation store(final byte [] data, final int length) {
+        final int needed = Math.max(1, (length + blockSize - 1) / blockSize);
+        final int [] blocks = new int[needed];
+
+        synchronized (this) {
+            while (freeCount < needed && allocatedSlabs < slabs.length) {
+                if (!allocateSlab()) {
+                    break;
+                }
+            }
+
+            if (freeCount < needed) {
+                failedAllocations.incrementAndGet();
+                return null;
+            }
+
+            System.arraycopy(freeBlocks, freeCount - needed, blocks, 0, needed);
+            freeCount -= needed;
+        }
+
+        int offset = 0;
+
+        for (int block : blocks) {
+            final int len = Math.min(blockSize, length - offset);
+            final ByteBuffer dup = blockBuffer(block);
+            dup.put(data, offset, len);
+            offset += len;
+        }
+
+        usedBytes.addAndGet((long) needed * blockSize);
+        return new Allocation(blocks, length);
+    }
+
+    /**
+     * Opens an input stream reading the data of the allocation.
+     * @param allocation allocation
+     * @return an input stream reading the data of the allocation
+     */
+    InputStream openStream(final Allocation allocation) {
+        return new AllocationInputStream(allocation);
+    }
+
+    /**
+     * Returns the blocks of the allocation to the arena.
+     * @param allocation allocation
+     */
+    void free(final Allocation allocation) {
+        synchronized (this) {
+            System.arraycopy(allocation.blocks, 0, freeBlocks, freeCount, allocation.blocks.length);
+            freeCount += allocation.blocks.length;
+        }
+
+        usedBytes.addAndGet(-(long) allocation.blocks.length * blockSize);
+    }
+
+    long getCapacity() {
+        return blockCount * blockSize;
+    }
+
+    long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    long getFailedAllocations() {
+        return failedAllocations.get();
+    }
+
+    /**
+     * Allocates the next slab and pushes its blocks onto the free block stack. Guarded by <code>this</code>.
+     * @return true if allocated, or false if the direct memory is exhausted
+     */
+    private boolean allocateSlab() {
+        final int slab = allocatedSlabs;
+        final int firstBlock = slab * blocksPerSlab;
+        final int blocksInSlab = (int) Math.min(blocksPerSlab, blockCount - firstBlock);
+
+        try {
+            slabs[slab] = ByteBuffer.allocateDirect(blocksInSlab * blockSize);
+        } catch (OutOfMemoryError e) {
+            return false;
+        }
+
+        for (int i = blocksInSlab - 1; i >= 0; i--) {
+            freeBlocks[freeCount++] = firstBlock + i;
+        }
+
+        allocatedSlabs = slab + 1;
+        allocatedBytes.addAndGet((long) blocksInSlab * blockSize);
+        return true;
+    }
+
+    private ByteBuffer blockBuffer(final int block) {
+        final ByteBuffer dup = slabs[block / blocksPerSlab].duplicate();
+        final int position = (block % blocksPerSlab) * blockSize;
+        dup.limit(position + blockSize);
+        dup.position(position);
+        return dup;
+    }
+
+    private class AllocationInputStream extends InputStream {
+
+        private final Allocation allocation;
+        private int blockIndex;
+        private ByteBuffer current;
+        private int remaining;
+
+        private AllocationInputStream(final Allocation allocation) {
+            this.allocation = allocation;
+            remaining = allocation.length;
+        }
+
+        @Override
+        public int read() {
+            if (!ensureCurrent()) {
+                return -1;
+            }
+
+            --remaining;
+            return current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!ensureCurrent()) {
+                return -1;
+            }
+
+            final int readLen = Math.min(len, current.remaining());
+            current.get(b, off, readLen);
+            remaining -= readLen;
+            return readLen;
+        }
+
+        @Override
+        public int available() {
+            return remaining;
+        }
+
+        private boolean ensureCurrent() {
+            if (remaining <= 0) {
+                return false;
+            }
+
+            if (current == null || !current.hasRemaining()) {
+                current = blockBuffer(allocation.blocks[blockIndex++]);
+                current.limit(current.position() + Math.min(blockSize, remaining));
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.catalina.Session;
+
+/**
+ * Set of the recently used session attributes which are kept on heap, moving the others off-heap.
+ * <P>
+ * Request threads only stamp the last access time of an attribute in its {@link StripedSession}, without locking.
+ * The background process samples the stamps of all the on-heap attribute values, and moves the values older than
+ * the <code>capacity</code> most recently used ones off-heap, so that request threads never pay for the bookkeeping
+ * or the serialization. Nothing is kept between the background runs, except that each session remembers the values
+ * which cannot be moved off-heap, and a run stops as soon as the off-heap memory is full.
+ * </P>
+ */
+class OffHeapAttributeCache {
+
+    /**
+     * On-heap attribute value which may be moved off-heap.
+     */
+    private static final class Candidate {
+
+        private final StripedSession session;
+        private final String name;
+        private final long accessTime;
+
+        private Candidate(final StripedSession session, final String name, final long accessTime) {
+            this.session = session;
+            this.name = name;
+            this.accessTime = accessTime;
+        }
+    }
+
+    private static final Comparator<Candidate> LEAST_RECENTLY_USED_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+            return Long.compare(c1.accessTime, c2.accessTime);
+        }
+    };
+
+    private final int capacity;
+
+    OffHeapAttributeCache(final int capacity) {
+        this.capacity = Math.max(0, capacity);
+    }
+
+    /**
+     * Moves the on-heap attribute values of the sessions off-heap, except for the <code>capacity</code> most
+     * recently used ones. Attribute values of the sessions in use are left on heap until the next run.
+     * @param sessions sessions
+     * @return the number of attribute values moved off-heap
+     */
+    int offloadLeastRecentlyUsed(final Collection<Session> sessions) {
+        final List<Candidate> candidates = new ArrayList<>();
+
+        for (Session s : sessions) {
+            if (!(s instanceof StripedSession)) {
+                continue;
+            }
+
+            final StripedSession session = (StripedSession) s;
+
+            if (!session.isValidFlag()) {
+                continue;
+            }
+
+            for (String name : session.getOnHeapCandidateNames()) {
+                candidates.add(new Candidate(session, name, session.getAttributeAccessTime(name)));
+            }
+        }
+
+        final int excess = candidates.size() - capacity;
+
+        if (excess <= 0) {
+            return 0;
+        }
+
+        candidates.sort(LEAST_RECENTLY_USED_FIRST);
+        int offloaded = 0;
+
+        for (int i = 0; i < excess; i++) {
+            final Candidate candidate = candidates.get(i);
+            final StripedSession.OffloadResult result = candidate.session.offloadAttribute(candidate.name);
+
+            if (result == StripedSession.OffloadResult.OFFLOADED) {
+                ++offloaded;
+            } else if (result == StripedSession.OffloadResult.FULL) {
+                // Don't serialize the rest just to find the off-heap memory full again.
+                break;
+            }
+        }
+
+        return offloaded;
+    }
+}
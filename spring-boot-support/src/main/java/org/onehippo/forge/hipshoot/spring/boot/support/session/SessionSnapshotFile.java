@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Memory-mapped session snapshot file.
+ * <P>
+ * The file consists of a header, an index of all the sessions and the session frames:
+ * </P>
+ * <PRE>
+ * int    magic ("HSS1")
+ * int    frame count
+ * index  (for each frame) short id length, id (UTF-8), long this accessed time, int max inactive interval,
+ *        long frame offset, int frame length
+ * frames (for each frame) session data written by <code>StandardSession#writeObjectData(ObjectOutputStream)</code>
+ * </PRE>
+ * <P>
+ * As each session is written in its own frame at an offset known up front, frames can be written and read
+ * independently from each other, in parallel on write and only on demand on read.
+ * </P>
+ */
+public class SessionSnapshotFile {
+
+    private static final int MAGIC = 0x48535331;
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final int INDEX_ENTRY_FIXED_SIZE = 2 + 8 + 4 + 8 + 4;
+
+    /**
+     * Snapshot file frame metadata and its payload if it is not mapped from a file.
+     */
+    public static class Frame {
+
+        private final String id;
+        private final long thisAccessedTime;
+        private final int maxInactiveInterval;
+        private final long offset;
+        private final int length;
+        private final byte [] payload;
+
+        private volatile boolean restored;
+
+        Frame(final String id, final long thisAccessedTime, final int maxInactiveInterval, final byte [] payload) {
+            this(id, thisAccessedTime, maxInactiveInterval, -1L, payload.length, payload);
+        }
+
+        private Frame(final String id, final long thisAccessedTime, final int maxInactiveInterval, final long offset,
+                final int length, final byte [] payload) {
+            this.id = id;
+            this.thisAccessedTime = thisAccessedTime;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.offset = offset;
+            this.length = length;
+            this.payload = payload;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getThisAccessedTime() {
+            return thisAccessedTime;
+        }
+
+        public int getMaxInactiveInterval() {
+            return maxInactiveInterval;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        boolean isRestored() {
+            return restored;
+        }
+
+        void setRestored(boolean restored) {
+            this.restored = restored;
+        }
+
+        private byte [] idBytes() {
+            return id.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+
+    private final Map<String, Frame> frames;
+
+    private SessionSnapshotFile(final MappedByteBuffer buffer, final Map<String, Frame> frames) {
+        this.buffer = buffer;
+        this.frames = frames;
+    }
+
+    /**
+     * Writes the frames into the snapshot file, using <code>parallelism</code> threads to copy the frames
+     * into the mapped file. The file is written to a temporary file first and moved to the target file at the end.
+     * @param file snapshot file
+     * @param frames frames to write
+     * @param parallelism the number of threads to copy the frames
+     * @throws IOException if an IO error occurs
+     */
+    public static void write(final File file, final List<Frame> frames, final int parallelism) throws IOException {
+        long size = HEADER_SIZE;
+
+        for (Frame frame : frames) {
+            size += INDEX_ENTRY_FIXED_SIZE + frame.idBytes().length;
+        }
+
+        final long [] offsets = new long[frames.size()];
+
+        for (int i = 0; i < frames.size(); i++) {
+            offsets[i] = size;
+            size += frames.get(i).getLength();
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Session snapshot too large to map: " + size + " bytes.");
+        }
+
+        final File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            mapped.putInt(MAGIC);
+            mapped.putInt(frames.size());
+
+            for (int i = 0; i < frames.size(); i++) {
+                Frame frame = frames.get(i);
+                byte [] idBytes = frame.idBytes();
+                mapped.putShort((short) idBytes.length);
+                mapped.put(idBytes);
+                mapped.putLong(frame.getThisAccessedTime());
+                mapped.putInt(frame.getMaxInactiveInterval());
+                mapped.putLong(offsets[i]);
+                mapped.putInt(frame.getLength());
+            }
+
+            runInParallel(frames.size(), parallelism, new IndexedTask() {
+                @Override
+                public void run(int index) {
+                    ByteBuffer dup = mapped.duplicate();
+                    dup.position((int) offsets[index]);
+                    dup.put(frames.get(index).payload);
+                }
+            });
+
+            mapped.force();
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Maps the snapshot file and reads its index, without reading any frames.
+     * @param file snapshot file
+     * @return the mapped snapshot file
+     * @throws IOException if an IO error occurs or the file is not a snapshot file
+     */
+    public static SessionSnapshotFile open(final File file) throws IOException {
+        final MappedByteBuffer mapped;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (mapped.remaining() < HEADER_SIZE || mapped.getInt() != MAGIC) {
+            throw new IOException("Not a session snapshot file: " + file);
+        }
+
+        final int count = mapped.getInt();
+        final Map<String, Frame> frames = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+
+        for (int i = 0; i < count; i++) {
+            byte [] idBytes = new byte[mapped.getShort()];
+            mapped.get(idBytes);
+            String id = new String(idBytes, StandardCharsets.UTF_8);
+            long thisAccessedTime = mapped.getLong();
+            int maxInactiveInterval = mapped.getInt();
+            long offset = mapped.getLong();
+            int length = mapped.getInt();
+            frames.put(id, new Frame(id, thisAccessedTime, maxInactiveInterval, offset, length, null));
+        }
+
+        return new SessionSnapshotFile(mapped, frames);
+    }
+
+    /**
+     * Returns the frames which have not been removed yet.
+     * @return the frames which have not been removed yet
+     */
+    public Collection<Frame> getFrames() {
+        return frames.values();
+    }
+
+    /**
+     * Returns the frame by the session id.
+     * @param id session id
+     * @return the frame by the session id
+     */
+    public Frame getFrame(final String id) {
+        return frames.get(id);
+    }
+
+    /**
+     * Removes the frame by the session id.
+     * @param id session id
+     */
+    public void removeFrame(final String id) {
+        frames.remove(id);
+    }
+
+    /**
+     * Returns the number of frames which have not been removed yet.
+     * @return the number of frames which have not been removed yet
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    /**
+     * Opens an input stream reading the frame payload directly from the mapped file.
+     * @param frame frame
+     * @return an input stream reading the frame payload
+     */
+    public InputStream openStream(final Frame frame) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position((int) frame.offset);
+        dup.limit((int) frame.offset + frame.length);
+        return new ByteBufferInputStream(dup.slice());
+    }
+
+    /**
+     * Copies the frame payload from the mapped file into a frame that can be written to another snapshot file.
+     * @param frame frame
+     * @return a copy of the frame with its payload on heap
+     */
+    public Frame copyFrame(final Frame frame) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.position((int) frame.offset);
+        byte [] payload = new byte[frame.length];
+        dup.get(payload);
+        return new Frame(frame.id, frame.thisAccessedTime, frame.maxInactiveInterval, payload);
+    }
+
+    /**
+     * Task to run on each index.
+     */
+    interface IndexedTask {
+
+        void run(int index) throws Exception;
+
+    }
+
+    /**
+     * Runs the task on each index from 0 to <code>count - 1</code> using <code>parallelism</code> threads.
+     * @param count the number of indexes
+     * @param parallelism the number of threads
+     * @param task task
+     * @throws IOException if any task fails
+     */
+    static void runInParallel(final int count, final int parallelism, final IndexedTask task) throws IOException {
+        final int threads = Math.max(1, Math.min(parallelism, count));
+
+        if (threads == 1) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    task.run(i);
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            final List<Future<Void>> futures = new ArrayList<>(threads);
+
+            for (int t = 0; t < threads; t++) {
+                final int start = t;
+
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = start; i < count; i += threads) {
+                            task.run(i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing session snapshot frames.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte [] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int readLen = Math.min(len, buffer.remaining());
+            buffer.get(b, off, readLen);
+            return readLen;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import org.apache.catalina.Manager;
+import org.apache.catalina.session.StandardSession;
+
+/**
+ * {@link StandardSession} extension created by {@link StripedSessionManager}, which lets the manager reschedule
+ * the expiry check whenever the max inactive interval of the session changes.
+ * <P>
+ * If the manager has off-heap attribute storage enabled, a serializable attribute value that has not been used
+ * recently may be replaced by its serialized form stored off-heap while the session is not in use by any request.
+ * It is deserialized back on its next access, transparently to the application. Each access only stamps the
+ * access time of the attribute without locking, which the background process of the manager samples to find the
+ * least recently used attribute values.
+ * </P>
+ * <P>
+ * An offload serializes the value under a lock while the session is not in use, and checks again that no request
+ * started using the session before the value was replaced. Otherwise, it puts the same live value back, so a
+ * request can never see a stale copy. A value which cannot be serialized or is too small is remembered by its
+ * identity and skipped by the next background runs until it is replaced.
+ * </P>
+ */
+public class StripedSession extends StandardSession {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Result of an attempt to move an attribute value off-heap.
+     */
+    enum OffloadResult {
+        /** The value was moved off-heap. */
+        OFFLOADED,
+        /** The value was left on heap, and may be moved off-heap in a later run. */
+        SKIPPED,
+        /** The value was left on heap as the off-heap memory is full. */
+        FULL
+    }
+
+    /**
+     * The number of requests currently using this session.
+     */
+    private final transient AtomicInteger inUse = new AtomicInteger();
+
+    /**
+     * Lock to move attributes between on-heap and off-heap.
+     */
+    private final transient Object offHeapLock = new Object();
+
+    /**
+     * Last access times in milliseconds of the attributes, created on the first access if off-heap storage is enabled.
+     */
+    private transient volatile ConcurrentMap<String, AtomicLong> attributeAccessTimes;
+
+    /**
+     * Attribute values which cannot be moved off-heap by the attribute names, created on the first such value.
+     */
+    private transient volatile ConcurrentMap<String, Object> ineligibleValues;
+
+    public StripedSession(Manager manager) {
+        super(manager);
+    }
+
+    @Override
+    public void setMaxInactiveInterval(int interval) {
+        super.setMaxInactiveInterval(interval);
+
+        if (manager instanceof StripedSessionManager && getIdInternal() != null) {
+            ((StripedSessionManager) manager).scheduleExpiry(this);
+        }
+    }
+
+    @Override
+    public void access() {
+        inUse.incrementAndGet();
+        super.access();
+    }
+
+    @Override
+    public void endAccess() {
+        super.endAccess();
+        inUse.decrementAndGet();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        Object value = super.getAttribute(name);
+
+        if (value instanceof OffHeapArena.Allocation) {
+            value = loadAttribute(name);
+        } else if (value != null && isOffHeapCandidate(value) && getOffHeapManager() != null) {
+            stampAttribute(name);
+        }
+
+        return value;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value, boolean notify) {
+        final StripedSessionManager offHeapManager = getOffHeapManager();
+
+        if (offHeapManager != null && name != null) {
+            // Bring back or drop the old value first, so the listeners can see the real old value.
+            releaseAttribute(name, notify && offHeapManager.hasAttributeListeners());
+        }
+
+        super.setAttribute(name, value, notify);
+
+        if (offHeapManager != null && name != null) {
+            // Don't keep the replaced value reachable, and let the new value be considered.
+            forgetIneligible(name);
+
+            if (value != null && isOffHeapCandidate(value)) {
+                stampAttribute(name);
+            }
+        }
+    }
+
+    @Override
+    protected void removeAttributeInternal(String name, boolean notify) {
+        final StripedSessionManager offHeapManager = getOffHeapManager();
+
+        if (offHeapManager != null && name != null) {
+            releaseAttribute(name, notify && offHeapManager.hasAttributeListeners());
+            forgetAttribute(name);
+        }
+
+        super.removeAttributeInternal(name, notify);
+    }
+
+    @Override
+    public void recycle() {
+        if (getOffHeapManager() != null) {
+            for (String name : keys()) {
+                releaseAttribute(name, false);
+            }
+        }
+
+        attributeAccessTimes = null;
+        ineligibleValues = null;
+        super.recycle();
+    }
+
+    @Override
+    protected void doWriteObject(ObjectOutputStream stream) throws IOException {
+        if (getOffHeapManager() != null) {
+            for (String name : keys()) {
+                loadAttribute(name);
+            }
+        }
+
+        super.doWriteObject(stream);
+    }
+
+    /**
+     * Returns the valid flag of this session without checking expiry.
+     * @return the valid flag of this session without checking expiry
+     */
+    boolean isValidFlag() {
+        return isValidInternal();
+    }
+
+    /**
+     * Moves the attribute value off-heap if the session is not in use and the value is eligible.
+     * @param name attribute name
+     * @return the result of the attempt
+     */
+    OffloadResult offloadAttribute(final String name) {
+        final StripedSessionManager offHeapManager = getOffHeapManager();
+
+        if (offHeapManager == null || !isValidInternal() || inUse.get() > 0) {
+            return OffloadResult.SKIPPED;
+        }
+
+        synchronized (offHeapLock) {
+            final Object value = attributes.get(name);
+
+            if (value == null || !isOffHeapCandidate(value) || isIneligible(name, value)) {
+                return OffloadResult.SKIPPED;
+            }
+
+            final StripedSessionManager.ExposedByteArrayOutputStream serialized =
+                    offHeapManager.serializeAttribute(value);
+
+            if (inUse.get() > 0) {
+                // A request may be changing the value, so the copy may be stale or even broken.
+                return OffloadResult.SKIPPED;
+            }
+
+            if (serialized == null) {
+                markIneligible(name, value);
+                return OffloadResult.SKIPPED;
+            }
+
+            final OffHeapArena.Allocation allocation = offHeapManager.storeAttribute(serialized);
+
+            if (allocation == null) {
+                return OffloadResult.FULL;
+            }
+
+            if (!attributes.replace(name, value, allocation)) {
+                offHeapManager.freeAttribute(allocation);
+                return OffloadResult.SKIPPED;
+            }
+
+            if (inUse.get() > 0) {
+                // A request started after the check above and may have got the live value, so put it back.
+                // A request which got the allocation in the meantime waits for this lock to load it.
+                attributes.replace(name, allocation, value);
+                offHeapManager.freeAttribute(allocation);
+                return OffloadResult.SKIPPED;
+            }
+
+            return OffloadResult.OFFLOADED;
+        }
+    }
+
+    /**
+     * Returns the names of the attributes of which the values are on heap and may be moved off-heap.
+     * @return the names of the attributes of which the values are on heap and may be moved off-heap
+     */
+    List<String> getOnHeapCandidateNames() {
+        final List<String> names = new ArrayList<>();
+
+        for (String name : keys()) {
+            final Object value = attributes.get(name);
+
+            if (value != null && isOffHeapCandidate(value) && !isIneligible(name, value)) {
+                names.add(name);
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Returns the last access time in milliseconds of the attribute, or zero if not accessed since restored.
+     * @param name attribute name
+     * @return the last access time in milliseconds of the attribute, or zero if not accessed since restored
+     */
+    long getAttributeAccessTime(final String name) {
+        final ConcurrentMap<String, AtomicLong> accessTimes = attributeAccessTimes;
+        final AtomicLong accessTime = (accessTimes != null) ? accessTimes.get(name) : null;
+        return (accessTime != null) ? accessTime.get() : 0L;
+    }
+
+    /**
+     * Returns true if the session is being used by any request.
+     * @return true if the session is being used by any request
+     */
+    boolean isInUse() {
+        return inUse.get() > 0;
+    }
+
+    private Object loadAttribute(final String name) {
+        synchronized (offHeapLock) {
+            final Object value = attributes.get(name);
+
+            if (!(value instanceof OffHeapArena.Allocation)) {
+                return value;
+            }
+
+            final OffHeapArena.Allocation allocation = (OffHeapArena.Allocation) value;
+            final StripedSessionManager offHeapManager = (StripedSessionManager) manager;
+            final Object loaded = offHeapManager.loadAttribute(allocation);
+
+            if (loaded == null) {
+                // Cannot be deserialized any more, so just drop it.
+                attributes.remove(name, allocation);
+            } else {
+                attributes.replace(name, allocation, loaded);
+                stampAttribute(name);
+            }
+
+            offHeapManager.freeAttribute(allocation);
+            return loaded;
+        }
+    }
+
+    private void releaseAttribute(final String name, final boolean load) {
+        if (!(attributes.get(name) instanceof OffHeapArena.Allocation)) {
+            return;
+        }
+
+        if (load) {
+            loadAttribute(name);
+            return;
+        }
+
+        synchronized (offHeapLock) {
+            final Object value = attributes.get(name);
+
+            if (value instanceof OffHeapArena.Allocation && attributes.remove(name, value)) {
+                ((StripedSessionManager) manager).freeAttribute((OffHeapArena.Allocation) value);
+            }
+        }
+    }
+
+    private void stampAttribute(final String name) {
+        ConcurrentMap<String, AtomicLong> accessTimes = attributeAccessTimes;
+
+        if (accessTimes == null) {
+            synchronized (offHeapLock) {
+                accessTimes = attributeAccessTimes;
+
+                if (accessTimes == null) {
+                    accessTimes = new ConcurrentHashMap<>();
+                    attributeAccessTimes = accessTimes;
+                }
+            }
+        }
+
+        AtomicLong accessTime = accessTimes.get(name);
+
+        if (accessTime == null) {
+            accessTime = accessTimes.computeIfAbsent(name, key -> new AtomicLong());
+        }
+
+        final long now = System.currentTimeMillis();
+
+        // Avoid writing the shared cache line again within the same millisecond.
+        if (accessTime.get() != now) {
+            accessTime.lazySet(now);
+        }
+    }
+
+    private void forgetAttribute(final String name) {
+        final ConcurrentMap<String, AtomicLong> accessTimes = attributeAccessTimes;
+
+        if (accessTimes != null) {
+            accessTimes.remove(name);
+        }
+
+        forgetIneligible(name);
+    }
+
+    private boolean isIneligible(final String name, final Object value) {
+        final ConcurrentMap<String, Object> ineligibles = ineligibleValues;
+        return ineligibles != null && ineligibles.get(name) == value;
+    }
+
+    /**
+     * Remembers the value as not movable off-heap, only called under <code>offHeapLock</code>.
+     */
+    private void markIneligible(final String name, final Object value) {
+        if (ineligibleValues == null) {
+            ineligibleValues = new ConcurrentHashMap<>();
+        }
+
+        ineligibleValues.put(name, value);
+    }
+
+    private void forgetIneligible(final String name) {
+        final ConcurrentMap<String, Object> ineligibles = ineligibleValues;
+
+        if (ineligibles != null) {
+            ineligibles.remove(name);
+        }
+    }
+
+    private StripedSessionManager getOffHeapManager() {
+        if (manager instanceof StripedSessionManager && ((StripedSessionManager) manager).isOffHeapEnabled()) {
+            return (StripedSessionManager) manager;
+        }
+
+        return null;
+    }
+
+    private static boolean isOffHeapCandidate(final Object value) {
+        return value instanceof Serializable && !(value instanceof HttpSessionBindingListener)
+                && !(value instanceof HttpSessionActivationListener) && !(value instanceof OffHeapArena.Allocation);
+    }
+}
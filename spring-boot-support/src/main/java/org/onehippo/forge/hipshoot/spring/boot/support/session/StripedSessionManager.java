@@ -0,0 +1,959 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpSessionAttributeListener;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Loader;
+import org.apache.catalina.Session;
+import org.apache.catalina.session.StandardManager;
+import org.apache.catalina.session.StandardSession;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link StandardManager} extension for contexts holding a large number of sessions.
+ * <P>
+ * Sessions are kept in a striped map where each stripe is guarded by its own lock and keeps its sessions in
+ * access order. If <code>maxSessions</code> is set, the least recently used session of a stripe is evicted
+ * (expired) when the stripe goes over its share of the capacity, instead of rejecting new sessions.
+ * </P>
+ * <P>
+ * Instead of walking through all the sessions on each background process, each session is put into a time bucket
+ * by its expected expiry time, and only the sessions in the buckets that became due are checked. A checked session
+ * that is still valid because it was accessed in the meantime is simply put into a later bucket again.
+ * </P>
+ * <P>
+ * Besides the statistics provided by the base manager such as <code>activeSessions</code>,
+ * <code>sessionCounter</code> and <code>sessionCreateRate</code>, this exposes <code>evictedSessions</code>
+ * and <code>pendingExpiryBuckets</code>, all of which are available through JMX as well.
+ * </P>
+ * <P>
+ * If <code>snapshotEnabled</code> is set, sessions are persisted on stop in a memory-mapped
+ * {@link SessionSnapshotFile}, serialized by <code>snapshotThreads</code> threads in parallel, instead of the
+ * standard serialized sessions file. On start, only the index of the snapshot is read, and each session is restored
+ * on its first access or when its expiry time bucket becomes due, whichever comes first.
+ * </P>
+ * <P>
+ * If <code>offHeapEnabled</code> is set, only the <code>offHeapCacheSize</code> most recently used serializable
+ * attribute values are guaranteed to stay on heap. The others are serialized by the background process and stored
+ * in an off-heap arena growing on demand up to <code>offHeapCapacity</code> bytes, while their sessions are not in
+ * use, if the serialized size is at least <code>offHeapMinSize</code> bytes. See {@link StripedSession} for details.
+ * Off-heap usage and (de)serialization times are exposed as statistics as well.
+ * </P>
+ */
+public class StripedSessionManager extends StandardManager {
+
+    private static Logger log = LoggerFactory.getLogger(StripedSessionManager.class);
+
+    /**
+     * The descriptive name of this Manager implementation (for logging).
+     */
+    private static final String NAME = "StripedSessionManager";
+
+    private int stripes = 16;
+
+    private int maxSessions = -1;
+
+    private int expiryBucketSeconds = 10;
+
+    private boolean snapshotEnabled;
+
+    private int snapshotThreads = Runtime.getRuntime().availableProcessors();
+
+    private boolean offHeapEnabled;
+
+    private long offHeapCapacity = 256L * 1024 * 1024;
+
+    private int offHeapBlockSize = 4096;
+
+    private int offHeapCacheSize = 1024;
+
+    private int offHeapMinSize = 16 * 1024;
+
+    private final AtomicLong evictedSessions = new AtomicLong();
+
+    private final AtomicLong restoredSessions = new AtomicLong();
+
+    private volatile int lastSnapshotSessions;
+
+    private volatile long lastSnapshotMillis;
+
+    /**
+     * Session snapshot holding the sessions that have not been restored yet.
+     */
+    private volatile SessionSnapshotFile snapshot;
+
+    /**
+     * Off-heap arena holding serialized attribute values, created on start if off-heap storage is enabled.
+     */
+    private volatile OffHeapArena offHeapArena;
+
+    /**
+     * Recently used attributes kept on heap, created on start if off-heap storage is enabled.
+     */
+    private volatile OffHeapAttributeCache offHeapAttributeCache;
+
+    private final AtomicLong offHeapAttributes = new AtomicLong();
+
+    private final AtomicLong attributeSerializations = new AtomicLong();
+
+    private final AtomicLong attributeSerializationNanos = new AtomicLong();
+
+    private final AtomicLong attributeDeserializations = new AtomicLong();
+
+    private final AtomicLong attributeDeserializationNanos = new AtomicLong();
+
+    /**
+     * Session ids by expiry time bucket index.
+     */
+    private final ConcurrentSkipListMap<Long, ExpiryBucket> expiryBuckets = new ConcurrentSkipListMap<>();
+
+    /**
+     * The last expiry time bucket index processed.
+     */
+    private volatile long processedBucket;
+
+    public StripedSessionManager() {
+        super();
+        // Expiry checks are cheap now, so process those on every background process by default.
+        setProcessExpiresFrequency(1);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Returns the number of stripes of the session map.
+     * @return the number of stripes of the session map
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * Sets the number of stripes of the session map, rounded up to a power of two on start.
+     * @param stripes the number of stripes of the session map
+     */
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    /**
+     * Returns the maximum number of sessions to keep before evicting the least recently used ones,
+     * or a negative value if unbounded.
+     * @return the maximum number of sessions to keep before evicting the least recently used ones
+     */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * Sets the maximum number of sessions to keep before evicting the least recently used ones.
+     * A negative value means unbounded.
+     * @param maxSessions the maximum number of sessions to keep before evicting the least recently used ones
+     */
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+    }
+
+    /**
+     * Returns the length of each expiry time bucket in seconds.
+     * @return the length of each expiry time bucket in seconds
+     */
+    public int getExpiryBucketSeconds() {
+        return expiryBucketSeconds;
+    }
+
+    /**
+     * Sets the length of each expiry time bucket in seconds.
+     * @param expiryBucketSeconds the length of each expiry time bucket in seconds
+     */
+    public void setExpiryBucketSeconds(int expiryBucketSeconds) {
+        this.expiryBucketSeconds = expiryBucketSeconds;
+    }
+
+    /**
+     * Returns true if sessions are persisted in a {@link SessionSnapshotFile} instead of the standard
+     * serialized sessions file.
+     * @return true if sessions are persisted in a {@link SessionSnapshotFile}
+     */
+    public boolean isSnapshotEnabled() {
+        return snapshotEnabled;
+    }
+
+    /**
+     * Sets whether or not sessions are persisted in a {@link SessionSnapshotFile} instead of the standard
+     * serialized sessions file.
+     * @param snapshotEnabled whether or not sessions are persisted in a {@link SessionSnapshotFile}
+     */
+    public void setSnapshotEnabled(boolean snapshotEnabled) {
+        this.snapshotEnabled = snapshotEnabled;
+    }
+
+    /**
+     * Returns the number of threads to serialize sessions and write the session snapshot.
+     * @return the number of threads to serialize sessions and write the session snapshot
+     */
+    public int getSnapshotThreads() {
+        return snapshotThreads;
+    }
+
+    /**
+     * Sets the number of threads to serialize sessions and write the session snapshot.
+     * @param snapshotThreads the number of threads to serialize sessions and write the session snapshot
+     */
+    public void setSnapshotThreads(int snapshotThreads) {
+        this.snapshotThreads = snapshotThreads;
+    }
+
+    /**
+     * Returns the number of sessions restored from the session snapshot.
+     * @return the number of sessions restored from the session snapshot
+     */
+    public long getRestoredSessions() {
+        return restoredSessions.get();
+    }
+
+    /**
+     * Returns the number of sessions in the session snapshot that have not been restored yet.
+     * @return the number of sessions in the session snapshot that have not been restored yet
+     */
+    public int getPendingRestoreSessions() {
+        final SessionSnapshotFile pending = snapshot;
+        return (pending != null) ? pending.size() : 0;
+    }
+
+    /**
+     * Returns the number of sessions written in the last session snapshot.
+     * @return the number of sessions written in the last session snapshot
+     */
+    public int getLastSnapshotSessions() {
+        return lastSnapshotSessions;
+    }
+
+    /**
+     * Returns the time in milliseconds spent to write the last session snapshot.
+     * @return the time in milliseconds spent to write the last session snapshot
+     */
+    public long getLastSnapshotMillis() {
+        return lastSnapshotMillis;
+    }
+
+    /**
+     * Returns true if attribute values not used recently are moved off-heap.
+     * @return true if attribute values not used recently are moved off-heap
+     */
+    public boolean isOffHeapEnabled() {
+        return offHeapEnabled;
+    }
+
+    /**
+     * Sets whether or not attribute values not used recently are moved off-heap.
+     * @param offHeapEnabled whether or not attribute values not used recently are moved off-heap
+     */
+    public void setOffHeapEnabled(boolean offHeapEnabled) {
+        this.offHeapEnabled = offHeapEnabled;
+    }
+
+    /**
+     * Returns the off-heap memory capacity in bytes.
+     * @return the off-heap memory capacity in bytes
+     */
+    public long getOffHeapCapacity() {
+        return offHeapCapacity;
+    }
+
+    /**
+     * Sets the off-heap memory capacity in bytes. Direct memory is allocated on demand up to the capacity.
+     * @param offHeapCapacity the off-heap memory capacity in bytes
+     */
+    public void setOffHeapCapacity(long offHeapCapacity) {
+        this.offHeapCapacity = offHeapCapacity;
+    }
+
+    /**
+     * Returns the off-heap memory block size in bytes.
+     * @return the off-heap memory block size in bytes
+     */
+    public int getOffHeapBlockSize() {
+        return offHeapBlockSize;
+    }
+
+    /**
+     * Sets the off-heap memory block size in bytes.
+     * @param offHeapBlockSize the off-heap memory block size in bytes
+     */
+    public void setOffHeapBlockSize(int offHeapBlockSize) {
+        this.offHeapBlockSize = offHeapBlockSize;
+    }
+
+    /**
+     * Returns the number of recently used attributes always kept on heap.
+     * @return the number of recently used attributes always kept on heap
+     */
+    public int getOffHeapCacheSize() {
+        return offHeapCacheSize;
+    }
+
+    /**
+     * Sets the number of recently used attributes always kept on heap.
+     * @param offHeapCacheSize the number of recently used attributes always kept on heap
+     */
+    public void setOffHeapCacheSize(int offHeapCacheSize) {
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+    /**
+     * Returns the minimum serialized size in bytes of an attribute value to move off-heap.
+     * @return the minimum serialized size in bytes of an attribute value to move off-heap
+     */
+    public int getOffHeapMinSize() {
+        return offHeapMinSize;
+    }
+
+    /**
+     * Sets the minimum serialized size in bytes of an attribute value to move off-heap.
+     * @param offHeapMinSize the minimum serialized size in bytes of an attribute value to move off-heap
+     */
+    public void setOffHeapMinSize(int offHeapMinSize) {
+        this.offHeapMinSize = offHeapMinSize;
+    }
+
+    /**
+     * Returns the off-heap memory used in bytes.
+     * @return the off-heap memory used in bytes
+     */
+    public long getOffHeapUsedBytes() {
+        final OffHeapArena arena = offHeapArena;
+        return (arena != null) ? arena.getUsedBytes() : 0L;
+    }
+
+    /**
+     * Returns the off-heap memory allocated so far in bytes, which grows on demand up to the capacity.
+     * @return the off-heap memory allocated so far in bytes
+     */
+    public long getOffHeapAllocatedBytes() {
+        final OffHeapArena arena = offHeapArena;
+        return (arena != null) ? arena.getAllocatedBytes() : 0L;
+    }
+
+    /**
+     * Returns the number of attribute values currently stored off-heap.
+     * @return the number of attribute values currently stored off-heap
+     */
+    public long getOffHeapAttributes() {
+        return offHeapAttributes.get();
+    }
+
+    /**
+     * Returns the number of attribute values kept on heap because the off-heap memory was full.
+     * @return the number of attribute values kept on heap because the off-heap memory was full
+     */
+    public long getOffHeapFailedAllocations() {
+        final OffHeapArena arena = offHeapArena;
+        return (arena != null) ? arena.getFailedAllocations() : 0L;
+    }
+
+    /**
+     * Returns the number of attribute values serialized to move off-heap.
+     * @return the number of attribute values serialized to move off-heap
+     */
+    public long getAttributeSerializations() {
+        return attributeSerializations.get();
+    }
+
+    /**
+     * Returns the total time in milliseconds spent to serialize attribute values to move off-heap.
+     * @return the total time in milliseconds spent to serialize attribute values to move off-heap
+     */
+    public long getAttributeSerializationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(attributeSerializationNanos.get());
+    }
+
+    /**
+     * Returns the number of attribute values deserialized from off-heap.
+     * @return the number of attribute values deserialized from off-heap
+     */
+    public long getAttributeDeserializations() {
+        return attributeDeserializations.get();
+    }
+
+    /**
+     * Returns the total time in milliseconds spent to deserialize attribute values from off-heap.
+     * @return the total time in milliseconds spent to deserialize attribute values from off-heap
+     */
+    public long getAttributeDeserializationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(attributeDeserializationNanos.get());
+    }
+
+    /**
+     * Returns the number of sessions evicted due to the <code>maxSessions</code> limit.
+     * @return the number of sessions evicted due to the <code>maxSessions</code> limit
+     */
+    public long getEvictedSessions() {
+        return evictedSessions.get();
+    }
+
+    /**
+     * Returns the number of expiry time buckets waiting to be processed.
+     * @return the number of expiry time buckets waiting to be processed
+     */
+    public int getPendingExpiryBuckets() {
+        return expiryBuckets.size();
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        sessions = new StripedSessionMap(stripes, maxSessions, new StripedSessionMap.Listener() {
+            @Override
+            public void sessionStored(Session session) {
+                scheduleExpiry(session);
+            }
+
+            @Override
+            public void sessionEvicted(Session session) {
+                evictSession(session);
+            }
+        });
+
+        processedBucket = System.currentTimeMillis() / getExpiryBucketMillis();
+
+        if (offHeapEnabled) {
+            offHeapArena = new OffHeapArena(offHeapCapacity, offHeapBlockSize);
+            offHeapAttributeCache = new OffHeapAttributeCache(offHeapCacheSize);
+            log.info("Off-heap session attribute storage of up to {} bytes, allocated on demand, in {}.",
+                    offHeapArena.getCapacity(), getContext().getName());
+        }
+
+        super.startInternal();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        expiryBuckets.clear();
+
+        offHeapAttributeCache = null;
+
+        // Leave the direct buffers to the garbage collector.
+        offHeapArena = null;
+        offHeapAttributes.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Overridden to move the attribute values not recently used off-heap if off-heap storage is enabled.
+     * </P>
+     */
+    @Override
+    public void backgroundProcess() {
+        super.backgroundProcess();
+
+        final OffHeapAttributeCache cache = offHeapAttributeCache;
+
+        if (cache == null) {
+            return;
+        }
+
+        cache.offloadLeastRecentlyUsed(sessions.values());
+    }
+
+    @Override
+    protected StandardSession getNewSession() {
+        return new StripedSession(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Overridden to check only the sessions in the expiry time buckets that became due.
+     * </P>
+     */
+    @Override
+    public void processExpires() {
+        final long timeNow = System.currentTimeMillis();
+        final long currentBucket = timeNow / getExpiryBucketMillis();
+        int checked = 0;
+        int expireHere = 0;
+
+        processedBucket = currentBucket;
+
+        Map.Entry<Long, ExpiryBucket> entry = expiryBuckets.firstEntry();
+
+        while (entry != null && entry.getKey() <= currentBucket) {
+            expiryBuckets.remove(entry.getKey(), entry.getValue());
+
+            for (String id : entry.getValue().close()) {
+                Session session = sessions.get(id);
+
+                if (session == null && snapshot != null) {
+                    session = restoreSession(id);
+                }
+
+                if (session == null) {
+                    continue;
+                }
+
+                ++checked;
+
+                if (!session.isValid()) {
+                    ++expireHere;
+                } else {
+                    scheduleExpiry(session);
+                }
+            }
+
+            entry = expiryBuckets.firstEntry();
+        }
+
+        final long timeEnd = System.currentTimeMillis();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Expired {} of {} checked sessions out of {} in {}ms.", expireHere, checked,
+                    getActiveSessions(), timeEnd - timeNow);
+        }
+
+        processingTime += (timeEnd - timeNow);
+    }
+
+    /**
+     * Puts the session into the expiry time bucket by its expected expiry time.
+     * @param session session
+     */
+    void scheduleExpiry(final Session session) {
+        scheduleExpiry(session.getIdInternal(), session.getThisAccessedTimeInternal(),
+                session.getMaxInactiveInterval());
+    }
+
+    private void scheduleExpiry(final String id, final long thisAccessedTime, final int maxInactiveInterval) {
+        if (id == null || maxInactiveInterval <= 0) {
+            return;
+        }
+
+        final long bucketMillis = getExpiryBucketMillis();
+        final long dueTime = thisAccessedTime + maxInactiveInterval * 1000L;
+        long bucket = Math.max(dueTime / bucketMillis + 1, processedBucket + 1);
+
+        while (!bucketFor(bucket).add(id)) {
+            // The bucket was being processed concurrently, so try the next one.
+            ++bucket;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Overridden to restore the session from the session snapshot on its first access if snapshot is enabled.
+     * </P>
+     */
+    @Override
+    public Session findSession(String id) throws IOException {
+        Session session = super.findSession(id);
+
+        if (session == null && id != null && snapshot != null) {
+            session = restoreSession(id);
+        }
+
+        return session;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Overridden to map the session snapshot file and read its index only if snapshot is enabled.
+     * Each session is restored later on its first access, or when its expiry time bucket becomes due.
+     * </P>
+     */
+    @Override
+    protected void doLoad() throws ClassNotFoundException, IOException {
+        if (!isSnapshotEnabled()) {
+            super.doLoad();
+            return;
+        }
+
+        sessions.clear();
+
+        final File file = file();
+
+        if (file == null || !file.isFile()) {
+            return;
+        }
+
+        final long t0 = System.currentTimeMillis();
+        final SessionSnapshotFile snapshotFile = SessionSnapshotFile.open(file);
+
+        for (SessionSnapshotFile.Frame frame : snapshotFile.getFrames()) {
+            scheduleExpiry(frame.getId(), frame.getThisAccessedTime(), frame.getMaxInactiveInterval());
+        }
+
+        snapshot = (snapshotFile.size() > 0) ? snapshotFile : null;
+
+        // The mapping stays valid after deleting the file, so delete it just like the standard manager does.
+        if (!file.delete()) {
+            log.warn("Failed to delete the session snapshot file, {}.", file);
+        }
+
+        log.info("Mapped {} sessions from the session snapshot, {}, in {}ms.", snapshotFile.size(), file,
+                System.currentTimeMillis() - t0);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <P>
+     * Overridden to write all the sessions, including the ones not restored yet, into a session snapshot file
+     * in parallel if snapshot is enabled.
+     * </P>
+     */
+    @Override
+    protected void doUnload() throws IOException {
+        if (!isSnapshotEnabled()) {
+            super.doUnload();
+            return;
+        }
+
+        final SessionSnapshotFile pending = snapshot;
+        final File file = file();
+
+        if (file == null || (sessions.isEmpty() && (pending == null || pending.size() == 0))) {
+            return;
+        }
+
+        final long t0 = System.currentTimeMillis();
+        final List<SessionSnapshotFile.Frame> pendingFrames = new ArrayList<>();
+
+        if (pending != null) {
+            // Detach the snapshot first so no new restore starts, and claim each frame not restored yet under its
+            // lock, so a concurrent restore either completes into the sessions copied below or does not happen.
+            snapshot = null;
+
+            for (SessionSnapshotFile.Frame frame : pending.getFrames()) {
+                synchronized (frame) {
+                    if (!frame.isRestored()) {
+                        pendingFrames.add(pending.copyFrame(frame));
+                        frame.setRestored(true);
+                    }
+                }
+            }
+        }
+
+        final List<StandardSession> list = new ArrayList<>();
+
+        for (Session s : sessions.values()) {
+            StandardSession session = (StandardSession) s;
+            session.passivate();
+            list.add(session);
+        }
+
+        final SessionSnapshotFile.Frame [] frames = new SessionSnapshotFile.Frame[list.size()];
+
+        SessionSnapshotFile.runInParallel(list.size(), getSnapshotThreads(), new SessionSnapshotFile.IndexedTask() {
+            @Override
+            public void run(int index) throws IOException {
+                StandardSession session = list.get(index);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+
+                try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                    session.writeObjectData(oos);
+                }
+
+                frames[index] = new SessionSnapshotFile.Frame(session.getIdInternal(),
+                        session.getThisAccessedTimeInternal(), session.getMaxInactiveInterval(), baos.toByteArray());
+            }
+        });
+
+        final List<SessionSnapshotFile.Frame> frameList = new ArrayList<>(Arrays.asList(frames));
+        frameList.addAll(pendingFrames);
+
+        SessionSnapshotFile.write(file, frameList, getSnapshotThreads());
+
+        lastSnapshotSessions = frameList.size();
+        lastSnapshotMillis = System.currentTimeMillis() - t0;
+        log.info("Wrote {} sessions to the session snapshot, {}, in {}ms.", lastSnapshotSessions, file,
+                lastSnapshotMillis);
+
+        for (StandardSession session : list) {
+            try {
+                session.expire(false);
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+            } finally {
+                session.recycle();
+            }
+        }
+    }
+
+    private Session restoreSession(final String id) {
+        final SessionSnapshotFile pending = snapshot;
+
+        if (pending == null) {
+            return null;
+        }
+
+        final SessionSnapshotFile.Frame frame = pending.getFrame(id);
+
+        if (frame == null) {
+            return sessions.get(id);
+        }
+
+        synchronized (frame) {
+            if (!frame.isRestored()) {
+                try {
+                    restoreSession(pending, frame);
+                } catch (Exception e) {
+                    log.warn("Failed to restore session, {}, from the session snapshot.", id, e);
+                } finally {
+                    frame.setRestored(true);
+                    pending.removeFrame(id);
+
+                    if (pending.size() == 0 && snapshot == pending) {
+                        snapshot = null;
+                    }
+                }
+            }
+        }
+
+        return sessions.get(id);
+    }
+
+    private void restoreSession(final SessionSnapshotFile pending, final SessionSnapshotFile.Frame frame)
+            throws IOException, ClassNotFoundException {
+        final Context context = getContext();
+        final Loader loader = context.getLoader();
+        ClassLoader classLoader = (loader != null) ? loader.getClassLoader() : null;
+
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+
+        try (ObjectInputStream ois = new CustomObjectInputStream(pending.openStream(frame), classLoader,
+                context.getLogger(), getSessionAttributeValueClassNamePattern(),
+                getWarnOnSessionAttributeFilterFailure())) {
+            StripedSession session = (StripedSession) getNewSession();
+            session.readObjectData(ois);
+            session.setManager(this);
+            sessions.put(session.getIdInternal(), session);
+            session.activate();
+
+            if (!session.isValidFlag()) {
+                // If session is already invalid, expire session to prevent memory leak.
+                session.setValid(true);
+                session.expire();
+            }
+
+            sessionCounter++;
+            restoredSessions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Serializes the attribute value to store it off-heap.
+     * @param value attribute value
+     * @return the serialized value, or null if the value is not serializable or too small
+     */
+    ExposedByteArrayOutputStream serializeAttribute(final Object value) {
+        if (offHeapArena == null) {
+            return null;
+        }
+
+        final long t0 = System.nanoTime();
+        final ExposedByteArrayOutputStream baos = new ExposedByteArrayOutputStream(Math.max(256, offHeapMinSize));
+
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(value);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Keeping a non-serializable session attribute value on heap: {}", e.toString());
+            return null;
+        } finally {
+            attributeSerializations.incrementAndGet();
+            attributeSerializationNanos.addAndGet(System.nanoTime() - t0);
+        }
+
+        return (baos.size() < offHeapMinSize) ? null : baos;
+    }
+
+    /**
+     * Stores the serialized attribute value off-heap.
+     * @param serialized serialized attribute value
+     * @return the off-heap allocation, or null if the off-heap memory is full
+     */
+    OffHeapArena.Allocation storeAttribute(final ExposedByteArrayOutputStream serialized) {
+        final OffHeapArena arena = offHeapArena;
+
+        if (arena == null) {
+            return null;
+        }
+
+        final OffHeapArena.Allocation allocation = arena.store(serialized.getBuffer(), serialized.size());
+
+        if (allocation != null) {
+            offHeapAttributes.incrementAndGet();
+        }
+
+        return allocation;
+    }
+
+    /**
+     * Deserializes the attribute value stored off-heap.
+     * @param allocation the off-heap allocation
+     * @return the attribute value, or null if it cannot be deserialized
+     */
+    Object loadAttribute(final OffHeapArena.Allocation allocation) {
+        final OffHeapArena arena = offHeapArena;
+
+        if (arena == null) {
+            return null;
+        }
+
+        final long t0 = System.nanoTime();
+        final Loader loader = getContext().getLoader();
+        ClassLoader classLoader = (loader != null) ? loader.getClassLoader() : null;
+
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+
+        try (ObjectInputStream ois = new CustomObjectInputStream(arena.openStream(allocation), classLoader,
+                getContext().getLogger(), getSessionAttributeValueClassNamePattern(),
+                getWarnOnSessionAttributeFilterFailure())) {
+            return ois.readObject();
+        } catch (Exception e) {
+            log.warn("Failed to deserialize a session attribute value from off-heap.", e);
+            return null;
+        } finally {
+            attributeDeserializations.incrementAndGet();
+            attributeDeserializationNanos.addAndGet(System.nanoTime() - t0);
+        }
+    }
+
+    /**
+     * Frees the off-heap allocation.
+     * @param allocation the off-heap allocation
+     */
+    void freeAttribute(final OffHeapArena.Allocation allocation) {
+        final OffHeapArena arena = offHeapArena;
+
+        if (arena != null) {
+            arena.free(allocation);
+            offHeapAttributes.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns true if the context has any session attribute listener which needs the attribute values
+     * on removal or replacement.
+     * @return true if the context has any session attribute listener
+     */
+    boolean hasAttributeListeners() {
+        final Object [] listeners = getContext().getApplicationEventListeners();
+
+        if (listeners != null) {
+            for (Object listener : listeners) {
+                if (listener instanceof HttpSessionAttributeListener) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private ExpiryBucket bucketFor(final long bucket) {
+        ExpiryBucket expiryBucket = expiryBuckets.get(bucket);
+
+        if (expiryBucket == null) {
+            final ExpiryBucket newBucket = new ExpiryBucket();
+            expiryBucket = expiryBuckets.putIfAbsent(bucket, newBucket);
+
+            if (expiryBucket == null) {
+                expiryBucket = newBucket;
+            }
+        }
+
+        return expiryBucket;
+    }
+
+    private void evictSession(final Session session) {
+        evictedSessions.incrementAndGet();
+        log.debug("Evicting the least recently used session, {}, from {}.", session.getIdInternal(),
+                getContext() != null ? getContext().getName() : null);
+        session.expire();
+    }
+
+    private long getExpiryBucketMillis() {
+        return Math.max(1, expiryBucketSeconds) * 1000L;
+    }
+
+    /**
+     * {@link ByteArrayOutputStream} exposing its internal buffer to avoid copying.
+     */
+    static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ExposedByteArrayOutputStream(int size) {
+            super(size);
+        }
+
+        byte [] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Set of session ids whose expiry is due in the same time bucket.
+     */
+    private static class ExpiryBucket {
+
+        private Set<String> ids = new LinkedHashSet<>();
+
+        synchronized boolean add(String id) {
+            if (ids == null) {
+                return false;
+            }
+
+            ids.add(id);
+            return true;
+        }
+
+        synchronized Set<String> close() {
+            final Set<String> closedIds = ids;
+            ids = null;
+            return closedIds;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.catalina.Session;
+
+/**
+ * Session map split into a fixed number of stripes, each of which is an access ordered {@link LinkedHashMap}
+ * guarded by its own lock, so that concurrent requests on different sessions rarely contend and each stripe can
+ * evict its least recently used session when it goes over its share of the capacity.
+ * <P>
+ * Views such as {@link #entrySet()} and {@link #values()} are snapshots, so iterating them never blocks
+ * or fails on concurrent modifications, just like the default <code>ConcurrentHashMap</code> in the manager.
+ * </P>
+ */
+class StripedSessionMap extends AbstractMap<String, Session> {
+
+    /**
+     * Callback notified when a session is stored into or evicted from this map.
+     */
+    interface Listener {
+
+        void sessionStored(Session session);
+
+        void sessionEvicted(Session session);
+
+    }
+
+    private final Stripe [] stripes;
+
+    private final int stripeMask;
+
+    private final int stripeCapacity;
+
+    private final Listener listener;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructs a striped session map.
+     * @param stripeCount the number of stripes, rounded up to a power of two
+     * @param maxSessions the maximum number of sessions, or a negative value for unbounded map
+     * @param listener listener notified on session store and eviction
+     */
+    StripedSessionMap(final int stripeCount, final int maxSessions, final Listener listener) {
+        int count = 1;
+
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+
+        stripes = new Stripe[count];
+
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        stripeMask = count - 1;
+        stripeCapacity = (maxSessions < 0) ? -1 : Math.max(1, (maxSessions + count - 1) / count);
+        this.listener = listener;
+    }
+
+    @Override
+    public Session get(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        final Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+
+        try {
+            return stripe.map.get(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (key == null) {
+            return false;
+        }
+
+        final Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+
+        try {
+            return stripe.map.containsKey(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public Session put(String key, Session value) {
+        final Stripe stripe = stripeFor(key);
+        Session previous;
+        Session evicted = null;
+
+        stripe.lock.lock();
+
+        try {
+            previous = stripe.map.put(key, value);
+
+            if (previous == null) {
+                size.incrementAndGet();
+            }
+
+            if (stripeCapacity > 0 && stripe.map.size() > stripeCapacity) {
+                Iterator<Map.Entry<String, Session>> it = stripe.map.entrySet().iterator();
+                Map.Entry<String, Session> eldest = it.next();
+
+                if (!eldest.getKey().equals(key)) {
+                    evicted = eldest.getValue();
+                    it.remove();
+                    size.decrementAndGet();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+
+        if (listener != null) {
+            listener.sessionStored(value);
+
+            if (evicted != null) {
+                listener.sessionEvicted(evicted);
+            }
+        }
+
+        return previous;
+    }
+
+    @Override
+    public Session remove(Object key) {
+        if (key == null) {
+            return null;
+        }
+
+        final Stripe stripe = stripeFor(key);
+        stripe.lock.lock();
+
+        try {
+            Session removed = stripe.map.remove(key);
+
+            if (removed != null) {
+                size.decrementAndGet();
+            }
+
+            return removed;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+
+            try {
+                size.addAndGet(-stripe.map.size());
+                stripe.map.clear();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Session>> entrySet() {
+        Set<Map.Entry<String, Session>> snapshot = new LinkedHashSet<>();
+
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+
+            try {
+                for (Map.Entry<String, Session> entry : stripe.map.entrySet()) {
+                    snapshot.add(new SimpleImmutableEntry<>(entry));
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return snapshot;
+    }
+
+    @Override
+    public List<Session> values() {
+        List<Session> snapshot = new ArrayList<>(size());
+
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+
+            try {
+                snapshot.addAll(stripe.map.values());
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the number of stripes.
+     * @return the number of stripes
+     */
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    private Stripe stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & stripeMask];
+    }
+
+    private static class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final LinkedHashMap<String, Session> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    }
+}
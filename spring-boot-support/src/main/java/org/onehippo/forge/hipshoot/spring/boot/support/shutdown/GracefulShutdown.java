@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.shutdown;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Servlet;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.Service;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Connector;
+import org.onehippo.forge.hipshoot.spring.boot.support.servlet.DeferredInitDelegatingServlet;
+import org.onehippo.forge.hipshoot.spring.boot.support.valve.InFlightRequestValve;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link LifecycleListener} of the {@link Server}, shutting down gracefully before the server stops its services.
+ * <P>
+ * When the server is about to stop, it interrupts the pending initializations of
+ * {@link DeferredInitDelegatingServlet}s, pauses every connector so that no new request is processed, and waits
+ * up to <code>drainTimeoutMillis</code> for the in-flight requests counted by the {@link InFlightRequestValve}s to
+ * complete. Then it stops all the web application contexts in parallel, waiting up to
+ * <code>contextStopTimeoutMillis</code> for each, instead of stopping them one at a time.
+ * The requests still in flight when the drain timeout expires are reported as dropped.
+ * </P>
+ * <P>
+ * A context which does not stop within the timeout cannot be left behind, as <code>Lifecycle#stop()</code> is
+ * synchronized and the server would block on it again when stopping its host. So if <code>haltOnTimeout</code> is
+ * set (by default), the JVM is halted with exit status 1 once all the other contexts are stopped, without running
+ * the remaining shutdown hooks. Otherwise, the timed-out context is only reported and waited for until it stops.
+ * </P>
+ */
+public class GracefulShutdown implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(GracefulShutdown.class);
+
+    private final Server server;
+
+    private final List<InFlightRequestValve> inFlightRequestValves = new ArrayList<>();
+
+    private long drainTimeoutMillis = 30000;
+
+    private long contextStopTimeoutMillis = 30000;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private boolean haltOnTimeout = true;
+
+    private volatile long drainTime = -1L;
+
+    private volatile int droppedRequests;
+
+    private volatile int interruptedInitializations;
+
+    private volatile int stoppedContexts;
+
+    private volatile int timedOutContexts;
+
+    public GracefulShutdown(final Server server) {
+        this.server = server;
+    }
+
+    /**
+     * Adds a valve counting the in-flight requests to drain.
+     * @param valve valve counting the in-flight requests to drain
+     */
+    public void addInFlightRequestValve(final InFlightRequestValve valve) {
+        inFlightRequestValves.add(valve);
+    }
+
+    /**
+     * Returns the maximum time in milliseconds to wait for the in-flight requests to complete.
+     * @return the maximum time in milliseconds to wait for the in-flight requests to complete
+     */
+    public long getDrainTimeoutMillis() {
+        return drainTimeoutMillis;
+    }
+
+    public void setDrainTimeoutMillis(long drainTimeoutMillis) {
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds to wait for each context to stop.
+     * @return the maximum time in milliseconds to wait for each context to stop
+     */
+    public long getContextStopTimeoutMillis() {
+        return contextStopTimeoutMillis;
+    }
+
+    public void setContextStopTimeoutMillis(long contextStopTimeoutMillis) {
+        this.contextStopTimeoutMillis = contextStopTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of threads to stop contexts in parallel.
+     * @return the number of threads to stop contexts in parallel
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Returns whether to halt the JVM when a context is not stopped within the timeout.
+     * @return true if the JVM is halted when a context is not stopped within the timeout
+     */
+    public boolean isHaltOnTimeout() {
+        return haltOnTimeout;
+    }
+
+    public void setHaltOnTimeout(boolean haltOnTimeout) {
+        this.haltOnTimeout = haltOnTimeout;
+    }
+
+    /**
+     * Returns the number of requests currently being processed.
+     * @return the number of requests currently being processed
+     */
+    public int getInFlightRequests() {
+        int count = 0;
+
+        for (InFlightRequestValve valve : inFlightRequestValves) {
+            count += valve.getInFlightRequests();
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the time in milliseconds taken to drain the in-flight requests, or -1 if not shut down yet.
+     * @return the time in milliseconds taken to drain the in-flight requests
+     */
+    public long getDrainTime() {
+        return drainTime;
+    }
+
+    /**
+     * Returns the number of requests still in flight when the drain timeout expired.
+     * @return the number of requests still in flight when the drain timeout expired
+     */
+    public int getDroppedRequests() {
+        return droppedRequests;
+    }
+
+    /**
+     * Returns the number of deferred servlet initializations interrupted.
+     * @return the number of deferred servlet initializations interrupted
+     */
+    public int getInterruptedInitializations() {
+        return interruptedInitializations;
+    }
+
+    /**
+     * Returns the number of contexts stopped within the timeout.
+     * @return the number of contexts stopped within the timeout
+     */
+    public int getStoppedContexts() {
+        return stoppedContexts;
+    }
+
+    /**
+     * Returns the number of contexts not stopped within the timeout.
+     * @return the number of contexts not stopped within the timeout
+     */
+    public int getTimedOutContexts() {
+        return timedOutContexts;
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.BEFORE_STOP_EVENT.equals(event.getType())) {
+            shutdown();
+        }
+    }
+
+    private void shutdown() {
+        final long startTime = System.currentTimeMillis();
+
+        final List<Context> contexts = findAvailableContexts();
+        interruptedInitializations = interruptPendingInitializations(contexts);
+
+        pauseConnectors();
+        drain();
+        stopContexts(contexts);
+
+        log.info("Graceful shutdown done in {}ms: drainTime={}ms, droppedRequests={}, "
+                + "interruptedInitializations={}, stoppedContexts={}, timedOutContexts={}.",
+                System.currentTimeMillis() - startTime, drainTime, droppedRequests, interruptedInitializations,
+                stoppedContexts, timedOutContexts);
+
+        if (timedOutContexts > 0 && haltOnTimeout) {
+            log.error("Halting as {} contexts are not stopped in {}ms.", timedOutContexts, contextStopTimeoutMillis);
+            Runtime.getRuntime().halt(1);
+        }
+    }
+
+    private List<Context> findAvailableContexts() {
+        final List<Context> contexts = new ArrayList<>();
+
+        for (Service service : server.findServices()) {
+            if (service.getContainer() == null) {
+                continue;
+            }
+
+            for (Container host : service.getContainer().findChildren()) {
+                for (Container child : host.findChildren()) {
+                    if (child instanceof Context && child.getState().isAvailable()) {
+                        contexts.add((Context) child);
+                    }
+                }
+            }
+        }
+
+        return contexts;
+    }
+
+    /*
+     * Finds the DeferredInitDelegatingServlets by class name, as each web application may load its own copy
+     * of the class, and interrupts their pending initializations reflectively.
+     */
+    private int interruptPendingInitializations(final List<Context> contexts) {
+        final String servletClassName = DeferredInitDelegatingServlet.class.getName();
+        int count = 0;
+
+        for (Context context : contexts) {
+            for (Container child : context.findChildren()) {
+                if (!(child instanceof Wrapper) || !servletClassName.equals(((Wrapper) child).getServletClass())) {
+                    continue;
+                }
+
+                final Servlet servlet = ((Wrapper) child).getServlet();
+
+                if (servlet == null) {
+                    continue;
+                }
+
+                try {
+                    final Method method = servlet.getClass().getMethod("interruptInitialization");
+
+                    if (Boolean.TRUE.equals(method.invoke(servlet))) {
+                        ++count;
+                    }
+                } catch (Exception e) {
+                    log.warn("Failed to interrupt the initialization of servlet ('{}') in context ('{}'): {}",
+                            child.getName(), context.getPath(), e.toString());
+                }
+            }
+        }
+
+        return count;
+    }
+
+    private void pauseConnectors() {
+        for (Service service : server.findServices()) {
+            for (Connector connector : service.findConnectors()) {
+                try {
+                    connector.pause();
+                } catch (Exception e) {
+                    log.warn("Failed to pause connector ('{}'): {}", connector, e.toString());
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        final long startTime = System.currentTimeMillis();
+        final long deadline = startTime + drainTimeoutMillis;
+        int inFlight = getInFlightRequests();
+
+        while (inFlight > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(50L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            inFlight = getInFlightRequests();
+        }
+
+        drainTime = System.currentTimeMillis() - startTime;
+        droppedRequests = inFlight;
+
+        if (inFlight > 0) {
+            log.warn("Dropping {} in-flight requests not completed in {}ms.", inFlight, drainTimeoutMillis);
+        }
+    }
+
+    private void stopContexts(final List<Context> contexts) {
+        if (contexts.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, contexts.size())),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "graceful-shutdown-" + threadCount.incrementAndGet());
+                    // Don't let a context hanging on stop keep the JVM alive.
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        final Map<Context, Future<?>> futures = new LinkedHashMap<>();
+
+        for (final Context context : contexts) {
+            futures.put(context, executor.submit(() -> {
+                context.stop();
+                return null;
+            }));
+        }
+
+        executor.shutdown();
+
+        int stopped = 0;
+        int timedOut = 0;
+
+        for (Map.Entry<Context, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get(contextStopTimeoutMillis, TimeUnit.MILLISECONDS);
+                ++stopped;
+            } catch (TimeoutException e) {
+                ++timedOut;
+                log.warn("Context ('{}') not stopped in {}ms.", entry.getKey().getPath(), contextStopTimeoutMillis);
+
+                if (!haltOnTimeout) {
+                    awaitStop(entry.getKey(), entry.getValue());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.warn("Failed to stop context ('{}'): {}", entry.getKey().getPath(), e.toString());
+            }
+        }
+
+        stoppedContexts = stopped;
+        timedOutContexts = timedOut;
+    }
+
+    private void awaitStop(final Context context, final Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Failed to stop context ('{}'): {}", context.getPath(), e.toString());
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server level {@link org.apache.catalina.Valve}, typically added to an engine, limiting the number of requests
+ * running at once in each web application context by a limit adjusted continuously by the observed latency.
+ * <P>
+ * Every <code>windowMillis</code> milliseconds, the average latency of the window is compared with the long term
+ * average latency of the context, and the limit is adjusted by the gradient between those, similarly to
+ * the gradient algorithm of Netflix concurrency-limits:
+ * </P>
+ * <PRE>
+ * gradient = max(0.5, min(1.0, rttTolerance * longRtt / shortRtt))
+ * newLimit = limit * gradient + sqrt(limit)
+ * limit = limit * (1 - smoothing) + newLimit * smoothing
+ * </PRE>
+ * <P>
+ * So the limit grows slowly while latency stays around the long term average, and shrinks quickly as soon as
+ * requests start queuing up in the downstream systems. A request over the limit is rejected right away with
+ * <code>503</code>, without waiting, so the server stays near its best throughput under overload.
+ * </P>
+ */
+public class AdaptiveConcurrencyLimitValve extends ValveBase {
+
+    private static Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimitValve.class);
+
+    /**
+     * The number of windows over which the long term latency is averaged.
+     */
+    private static final int LONG_WINDOW = 600;
+
+    /**
+     * Concurrency limiter of a web application context.
+     */
+    private class ContextLimiter {
+
+        private final String name;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        private final AtomicLong rejectedCount = new AtomicLong();
+
+        private final AtomicLong sampleCount = new AtomicLong();
+
+        private final AtomicLong rttSum = new AtomicLong();
+
+        private final AtomicBoolean updating = new AtomicBoolean();
+
+        private volatile long windowStart = System.nanoTime();
+
+        private volatile int limit;
+
+        /**
+         * Estimated limit before rounding, guarded by <code>updating</code>.
+         */
+        private double estimatedLimit;
+
+        /**
+         * Long term average latency in nanoseconds, guarded by <code>updating</code>.
+         */
+        private volatile double longRtt;
+
+        private ContextLimiter(final String name) {
+            this.name = name;
+            estimatedLimit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+            limit = (int) estimatedLimit;
+        }
+
+        private boolean tryAcquire() {
+            for (;;) {
+                final int current = inFlight.get();
+
+                if (current >= limit) {
+                    rejectedCount.incrementAndGet();
+                    return false;
+                }
+
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    if (current + 1 > maxInFlight.get()) {
+                        maxInFlight.accumulateAndGet(current + 1, Math::max);
+                    }
+
+                    return true;
+                }
+            }
+        }
+
+        private void release(final long rttNanos, final boolean sample) {
+            inFlight.decrementAndGet();
+
+            if (!sample) {
+                return;
+            }
+
+            rttSum.addAndGet(rttNanos);
+            final long count = sampleCount.incrementAndGet();
+            final long now = System.nanoTime();
+
+            if (count >= minWindowSamples && now - windowStart >= TimeUnit.MILLISECONDS.toNanos(windowMillis)
+                    && updating.compareAndSet(false, true)) {
+                try {
+                    updateLimit(now);
+                } finally {
+                    updating.set(false);
+                }
+            }
+        }
+
+        private void updateLimit(final long now) {
+            final long count = sampleCount.getAndSet(0);
+            final long sum = rttSum.getAndSet(0);
+            final int windowMaxInFlight = maxInFlight.getAndSet(inFlight.get());
+            windowStart = now;
+
+            if (count <= 0) {
+                return;
+            }
+
+            final double shortRtt = (double) sum / count;
+
+            if (longRtt <= 0) {
+                longRtt = shortRtt;
+            } else {
+                longRtt = longRtt * (LONG_WINDOW - 1) / LONG_WINDOW + shortRtt / LONG_WINDOW;
+
+                // Recover quickly if latency has improved a lot, e.g. after a downstream system came back.
+                if (longRtt > shortRtt * 2) {
+                    longRtt *= 0.95;
+                }
+            }
+
+            final double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * longRtt / shortRtt));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+
+            // Don't grow the limit if it has not been reached anyway.
+            if (newLimit > estimatedLimit && windowMaxInFlight * 2 < estimatedLimit) {
+                newLimit = estimatedLimit;
+            }
+
+            newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+            newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+
+            final int oldLimit = limit;
+            estimatedLimit = newLimit;
+            limit = (int) newLimit;
+
+            if (log.isDebugEnabled() && oldLimit != limit) {
+                log.debug("Concurrency limit of context ('{}') changed from {} to {}: shortRtt={}ms, longRtt={}ms.",
+                        name, oldLimit, limit, shortRtt / 1000000, longRtt / 1000000);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + ": limit=" + limit + ", inFlight=" + inFlight.get() + ", rejected=" + rejectedCount.get()
+                    + ", longRtt=" + TimeUnit.NANOSECONDS.toMillis((long) longRtt) + "ms";
+        }
+    }
+
+    private int initialLimit = 20;
+
+    private int minLimit = 5;
+
+    private int maxLimit = 1000;
+
+    private double smoothing = 0.2;
+
+    private double rttTolerance = 2.0;
+
+    private long windowMillis = 1000;
+
+    private int minWindowSamples = 10;
+
+    private final Map<String, ContextLimiter> limiters = new ConcurrentHashMap<>();
+
+    public AdaptiveConcurrencyLimitValve() {
+        super(true);
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Returns the factor, between 0 and 1, by which a new limit estimate is applied to the current limit.
+     * @return the factor by which a new limit estimate is applied to the current limit
+     */
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Returns the ratio of the recent latency to the long term latency tolerated before the limit starts shrinking.
+     * @return the ratio of the recent latency to the long term latency tolerated
+     */
+    public double getRttTolerance() {
+        return rttTolerance;
+    }
+
+    public void setRttTolerance(double rttTolerance) {
+        this.rttTolerance = rttTolerance;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public int getMinWindowSamples() {
+        return minWindowSamples;
+    }
+
+    public void setMinWindowSamples(int minWindowSamples) {
+        this.minWindowSamples = minWindowSamples;
+    }
+
+    /**
+     * Returns the total number of requests rejected in all the contexts.
+     * @return the total number of requests rejected in all the contexts
+     */
+    public long getRejectedRequests() {
+        long total = 0;
+
+        for (ContextLimiter limiter : limiters.values()) {
+            total += limiter.rejectedCount.get();
+        }
+
+        return total;
+    }
+
+    /**
+     * Returns the current limit, in-flight and rejected requests, and the long term latency of each context.
+     * @return the current status of each context
+     */
+    public String [] getContextLimits() {
+        final List<String> status = new ArrayList<>();
+
+        for (ContextLimiter limiter : limiters.values()) {
+            status.add(limiter.toString());
+        }
+
+        return status.toArray(new String[status.size()]);
+    }
+
+    /**
+     * Returns the current concurrency limit of the context, or -1 if no request has been made to it yet.
+     * @param contextName context name
+     * @return the current concurrency limit of the context, or -1 if no request has been made to it yet
+     */
+    public int getLimit(String contextName) {
+        final ContextLimiter limiter = limiters.get(contextName);
+        return (limiter != null) ? limiter.limit : -1;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        final Context context = request.getContext();
+
+        if (context == null) {
+            getNext().invoke(request, response);
+            return;
+        }
+
+        ContextLimiter limiter = limiters.get(context.getName());
+
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(context.getName(), ContextLimiter::new);
+        }
+
+        if (!limiter.tryAcquire()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        boolean sample = false;
+
+        try {
+            getNext().invoke(request, response);
+            // The latency of asynchronous requests is not known here, and errors don't tell the real latency.
+            sample = !request.isAsync() && response.getStatus() < HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        } finally {
+            limiter.release(System.nanoTime() - start, sample);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.AccessLog;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * Access log {@link org.apache.catalina.Valve} which only captures the access log fields on the request thread
+ * and leaves the formatting and writing to an {@link AsyncAccessLogWriter}.
+ * <P>
+ * As an {@link AccessLog}, this is invoked by the container when the request is completed, including
+ * asynchronous requests.
+ * </P>
+ */
+public class AsyncAccessLogValve extends ValveBase implements AccessLog {
+
+    private final AsyncAccessLogWriter writer;
+
+    private boolean requestAttributesEnabled;
+
+    public AsyncAccessLogValve(final AsyncAccessLogWriter writer) {
+        super(true);
+        this.writer = writer;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        getNext().invoke(request, response);
+    }
+
+    @Override
+    public void log(Request request, Response response, long time) {
+        if (!getState().isAvailable()) {
+            return;
+        }
+
+        String remoteAddr = null;
+
+        if (requestAttributesEnabled) {
+            final Object addr = request.getAttribute(REMOTE_ADDR_ATTRIBUTE);
+
+            if (addr != null) {
+                remoteAddr = addr.toString();
+            }
+        }
+
+        if (remoteAddr == null) {
+            remoteAddr = request.getRemoteAddr();
+        }
+
+        long startTime = request.getCoyoteRequest().getStartTime();
+
+        if (startTime <= 0L) {
+            startTime = System.currentTimeMillis() - time;
+        }
+
+        writer.publish(startTime, remoteAddr, request.getMethod(),
+                request.getRequestURI(), request.getQueryString(), request.getProtocol(), request.getContextPath(),
+                response.getStatus(), response.getBytesWritten(false), time);
+    }
+
+    @Override
+    public void setRequestAttributesEnabled(boolean requestAttributesEnabled) {
+        this.requestAttributesEnabled = requestAttributesEnabled;
+    }
+
+    @Override
+    public boolean getRequestAttributesEnabled() {
+        return requestAttributesEnabled;
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous access log writer, shared by the {@link AsyncAccessLogValve}s of all the web application contexts.
+ * <P>
+ * Request threads only copy the access log fields into a preallocated slot of a bounded multi-producer ring buffer,
+ * without locking or formatting anything. A single background thread formats the entries in batches into a buffer,
+ * and writes it to a daily rolled file through a {@link FileChannel}. If the ring buffer is full, new entries are
+ * dropped and counted instead of blocking the request threads.
+ * </P>
+ * <P>
+ * If writing fails, e.g, when the disk is full, the entries being written are lost and the writer thread reopens
+ * the log file after {@link #RETRY_INTERVAL_MILLIS}, counting the failures, so that logging resumes once the problem
+ * is resolved.
+ * </P>
+ * <P>
+ * Each line is in the common log format followed by the context path and the processing time in milliseconds.
+ * </P>
+ * <P>
+ * This is registered as a {@link LifecycleListener} of the server, so it starts and stops with the server.
+ * </P>
+ */
+public class AsyncAccessLogWriter implements LifecycleListener {
+
+    private static Logger log = LoggerFactory.getLogger(AsyncAccessLogWriter.class);
+
+    /**
+     * Time to park the writer thread when there is nothing to write.
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    /**
+     * Time to wait before reopening the log file after a write failure.
+     */
+    private static final long RETRY_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * Ring buffer slot, reused for every entry.
+     */
+    private static final class Slot {
+
+        /**
+         * Sequence of the entry published in this slot, written last by the producer.
+         */
+        private volatile long sequence = -1L;
+
+        private long timestamp;
+        private String remoteAddr;
+        private String method;
+        private String uri;
+        private String queryString;
+        private String protocol;
+        private String contextPath;
+        private int status;
+        private long bytesSent;
+        private long time;
+
+        private void clear() {
+            remoteAddr = null;
+            method = null;
+            uri = null;
+            queryString = null;
+            protocol = null;
+            contextPath = null;
+        }
+    }
+
+    private final Slot [] slots;
+
+    private final int mask;
+
+    /**
+     * Next sequence to be claimed by a producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next sequence to be consumed by the writer thread.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    private final AtomicLong writeFailureCount = new AtomicLong();
+
+    private String directory = "logs";
+
+    private String prefix = "access_log";
+
+    private String suffix = ".log";
+
+    private int writeBufferSize = 64 * 1024;
+
+    private long flushIntervalMillis = 1000;
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    private ByteBuffer writeBuffer;
+
+    private FileChannel channel;
+
+    private String currentDate;
+
+    private final SimpleDateFormat fileDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+
+    private long cachedTimestampSecond = -1L;
+
+    private String cachedTimestamp;
+
+    private String cachedDate;
+
+    private final StringBuilder lineBuilder = new StringBuilder(256);
+
+    /**
+     * Constructs with the ring buffer size, rounded up to a power of two.
+     * @param bufferSize the maximum number of entries waiting to be written
+     */
+    public AsyncAccessLogWriter(final int bufferSize) {
+        int size = 2;
+
+        while (size < bufferSize) {
+            size <<= 1;
+        }
+
+        slots = new Slot[size];
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+
+        mask = size - 1;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public void setSuffix(String suffix) {
+        this.suffix = suffix;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    public long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public int getBufferSize() {
+        return slots.length;
+    }
+
+    /**
+     * Returns the number of entries dropped because the ring buffer was full.
+     * @return the number of entries dropped because the ring buffer was full
+     */
+    public long getDroppedEntries() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of entries written.
+     * @return the number of entries written
+     */
+    public long getWrittenEntries() {
+        return writtenCount.get();
+    }
+
+    /**
+     * Returns the number of times writing to the log file failed.
+     * @return the number of times writing to the log file failed
+     */
+    public long getWriteFailures() {
+        return writeFailureCount.get();
+    }
+
+    /**
+     * Returns the number of entries waiting to be written.
+     * @return the number of entries waiting to be written
+     */
+    public int getPendingEntries() {
+        return (int) Math.max(0L, tail.get() - head.get());
+    }
+
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+            start();
+        } else if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+            stop();
+        }
+    }
+
+    /**
+     * Captures an access log entry into the ring buffer, or drops it if the ring buffer is full.
+     * @return true if the entry was captured
+     */
+    boolean publish(final long timestamp, final String remoteAddr, final String method, final String uri,
+            final String queryString, final String protocol, final String contextPath, final int status,
+            final long bytesSent, final long time) {
+        if (!running) {
+            return false;
+        }
+
+        long sequence;
+
+        for (;;) {
+            sequence = tail.get();
+
+            if (sequence - head.get() >= slots.length) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+
+            if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        final Slot slot = slots[(int) (sequence & mask)];
+        slot.timestamp = timestamp;
+        slot.remoteAddr = remoteAddr;
+        slot.method = method;
+        slot.uri = uri;
+        slot.queryString = queryString;
+        slot.protocol = protocol;
+        slot.contextPath = contextPath;
+        slot.status = status;
+        slot.bytesSent = bytesSent;
+        slot.time = time;
+        slot.sequence = sequence;
+
+        return true;
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        writeBuffer = ByteBuffer.allocateDirect(Math.max(4096, writeBufferSize));
+        running = true;
+
+        writerThread = new Thread(this::run, "async-access-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        log.info("Started asynchronous access log writer: directory='{}', bufferSize={}.",
+                new File(directory).getAbsolutePath(), slots.length);
+    }
+
+    synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        LockSupport.unpark(writerThread);
+
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writerThread = null;
+        log.info("Stopped asynchronous access log writer: written={}, dropped={}.", writtenCount.get(),
+                droppedCount.get());
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        final long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+
+        boolean failing = false;
+
+        try {
+            while (running) {
+                try {
+                    final int count = drain();
+
+                    if (count == 0) {
+                        if (writeBuffer.position() > 0 && System.nanoTime() - lastFlush >= flushIntervalNanos) {
+                            flush();
+                            lastFlush = System.nanoTime();
+                        }
+
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+
+                    if (failing && channel != null) {
+                        failing = false;
+                        log.info("Asynchronous access log writer resumed writing.");
+                    }
+                } catch (IOException e) {
+                    writeFailureCount.incrementAndGet();
+
+                    if (!failing) {
+                        failing = true;
+                        log.error("Asynchronous access log writer failed to write. Retrying every {}ms.",
+                                RETRY_INTERVAL_MILLIS, e);
+                    }
+
+                    closeChannel();
+                    writeBuffer.clear();
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RETRY_INTERVAL_MILLIS));
+                }
+            }
+
+            // Write the entries published before stopped.
+            while (drain() > 0) {
+                // Keep draining.
+            }
+
+            flush();
+        } catch (Exception e) {
+            log.error("Asynchronous access log writer failed.", e);
+        } finally {
+            // Stop capturing entries if this thread dies unexpectedly, instead of filling the ring buffer.
+            running = false;
+            closeChannel();
+        }
+    }
+
+    /**
+     * Formats the published entries, up to {@link #MAX_BATCH_SIZE}, into the write buffer.
+     * @return the number of entries formatted
+     */
+    private int drain() throws IOException {
+        long sequence = head.get();
+        int count = 0;
+
+        try {
+            while (count < MAX_BATCH_SIZE) {
+                final Slot slot = slots[(int) (sequence & mask)];
+
+                if (slot.sequence != sequence) {
+                    break;
+                }
+
+                try {
+                    writeEntry(slot);
+                } finally {
+                    // Release the slot even if failed, so the writer never gets stuck on it.
+                    slot.clear();
+                    ++sequence;
+                    ++count;
+                }
+            }
+        } finally {
+            if (count > 0) {
+                head.set(sequence);
+            }
+        }
+
+        writtenCount.addAndGet(count);
+        return count;
+    }
+
+    private void writeEntry(final Slot slot) throws IOException {
+        final String timestamp = formatTimestamp(slot.timestamp);
+
+        if (channel == null || !cachedDate.equals(currentDate)) {
+            flush();
+            openChannel(cachedDate);
+        }
+
+        final StringBuilder sb = lineBuilder;
+        sb.setLength(0);
+        sb.append(slot.remoteAddr != null ? slot.remoteAddr : "-").append(" - - [").append(timestamp)
+                .append("] \"").append(slot.method).append(' ').append(slot.uri);
+
+        if (slot.queryString != null) {
+            sb.append('?').append(slot.queryString);
+        }
+
+        sb.append(' ').append(slot.protocol).append("\" ").append(slot.status).append(' ');
+
+        if (slot.bytesSent > 0) {
+            sb.append(slot.bytesSent);
+        } else {
+            sb.append('-');
+        }
+
+        sb.append(' ').append(slot.contextPath != null && !slot.contextPath.isEmpty() ? slot.contextPath : "/")
+                .append(' ').append(slot.time).append('\n');
+
+        final byte [] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (bytes.length > writeBuffer.remaining()) {
+            flush();
+        }
+
+        if (bytes.length > writeBuffer.remaining()) {
+            channel.write(ByteBuffer.wrap(bytes));
+        } else {
+            writeBuffer.put(bytes);
+        }
+    }
+
+    /**
+     * Formats the timestamp, updating the date of the log file as well, once per second.
+     */
+    private String formatTimestamp(final long timestamp) {
+        final long second = timestamp / 1000L;
+
+        if (second != cachedTimestampSecond) {
+            final Date date = new Date(timestamp);
+            cachedTimestamp = timestampFormat.format(date);
+            cachedDate = fileDateFormat.format(date);
+            cachedTimestampSecond = second;
+        }
+
+        return cachedTimestamp;
+    }
+
+    private void openChannel(final String date) throws IOException {
+        closeChannel();
+
+        final File dir = new File(directory);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create access log directory: " + dir.getAbsolutePath());
+        }
+
+        final File file = new File(dir, prefix + "." + date + suffix);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        currentDate = date;
+    }
+
+    private void flush() throws IOException {
+        if (channel == null || writeBuffer.position() == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+
+        writeBuffer.clear();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close access log file.", e);
+            }
+
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Concurrency bulkhead {@link org.apache.catalina.Valve}, limiting the number of requests running at once
+ * in the container, typically a web application context.
+ * <P>
+ * A request gets a permit without any locking as long as fewer than <code>maxConcurrentRequests</code> requests
+ * are running. Otherwise, it waits in a bounded FIFO queue for up to <code>queueTimeout</code> milliseconds,
+ * and a permit released by a finishing request is handed directly to the oldest waiting request.
+ * A request which cannot be queued or times out in the queue is rejected with <code>503</code>, so a slow web
+ * application cannot hold every connector thread.
+ * </P>
+ * <P>
+ * The permit is released when the request processing returns to this valve, even for asynchronous requests.
+ * </P>
+ */
+public class BulkheadValve extends ValveBase {
+
+    private static Logger log = LoggerFactory.getLogger(BulkheadValve.class);
+
+    private static final int WAITING = 0;
+
+    private static final int GRANTED = 1;
+
+    private static final int CANCELLED = 2;
+
+    /**
+     * Request thread waiting for a permit.
+     */
+    private static final class Waiter {
+
+        private final Thread thread;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        private Waiter(final Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    private int maxConcurrentRequests = 100;
+
+    private int maxQueueSize = 100;
+
+    private long queueTimeout = 1000;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong timedOutCount = new AtomicLong();
+
+    public BulkheadValve() {
+        super(true);
+    }
+
+    /**
+     * Returns the maximum number of requests running at once.
+     * @return the maximum number of requests running at once
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the maximum number of requests running at once.
+     * @param maxConcurrentRequests the maximum number of requests running at once
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Returns the maximum number of requests waiting for a permit.
+     * @return the maximum number of requests waiting for a permit
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for a permit.
+     * @param maxQueueSize the maximum number of requests waiting for a permit
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds for a request to wait for a permit.
+     * @return the maximum time in milliseconds for a request to wait for a permit
+     */
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds for a request to wait for a permit.
+     * @param queueTimeout the maximum time in milliseconds for a request to wait for a permit
+     */
+    public void setQueueTimeout(long queueTimeout) {
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Returns the number of requests currently running.
+     * @return the number of requests currently running
+     */
+    public int getInFlightRequests() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the number of requests currently waiting for a permit.
+     * @return the number of requests currently waiting for a permit
+     */
+    public int getQueuedRequests() {
+        return queued.get();
+    }
+
+    /**
+     * Returns the number of requests rejected, including the ones timed out in the queue.
+     * @return the number of requests rejected
+     */
+    public long getRejectedRequests() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Returns the number of requests rejected after waiting for a permit until timeout.
+     * @return the number of requests rejected after waiting for a permit until timeout
+     */
+    public long getTimedOutRequests() {
+        return timedOutCount.get();
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        if (!acquire()) {
+            rejectedCount.incrementAndGet();
+
+            if (log.isDebugEnabled()) {
+                log.debug("Rejecting request ('{}') by the bulkhead: inFlight={}, queued={}.",
+                        request.getRequestURI(), inFlight.get(), queued.get());
+            }
+
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            release();
+        }
+    }
+
+    private boolean tryAcquire() {
+        for (;;) {
+            final int current = inFlight.get();
+
+            if (current >= maxConcurrentRequests) {
+                return false;
+            }
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean acquire() {
+        if (waiters.isEmpty() && tryAcquire()) {
+            return true;
+        }
+
+        if (queued.incrementAndGet() > maxQueueSize) {
+            queued.decrementAndGet();
+            return false;
+        }
+
+        try {
+            final Waiter waiter = new Waiter(Thread.currentThread());
+            waiters.add(waiter);
+
+            // Check again as a permit might have been released before queuing.
+            if (tryAcquire()) {
+                if (!waiter.state.compareAndSet(WAITING, CANCELLED)) {
+                    // A permit has been handed over concurrently as well, so give one back.
+                    release();
+                }
+
+                waiters.remove(waiter);
+                return true;
+            }
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+            long remaining;
+
+            while (waiter.state.get() == WAITING) {
+                remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0L || Thread.currentThread().isInterrupted()) {
+                    if (waiter.state.compareAndSet(WAITING, CANCELLED)) {
+                        waiters.remove(waiter);
+                        timedOutCount.incrementAndGet();
+                        return false;
+                    }
+
+                    break;
+                }
+
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            return true;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private void release() {
+        if (handOff()) {
+            return;
+        }
+
+        inFlight.decrementAndGet();
+
+        // A request might have been queued after the hand-off attempt, before the permit is given back.
+        while (!waiters.isEmpty() && tryAcquire()) {
+            if (!handOff()) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Hands the caller's permit over to the oldest waiting request.
+     * @return true if the permit has been handed over
+     */
+    private boolean handOff() {
+        Waiter waiter;
+
+        while ((waiter = waiters.poll()) != null) {
+            if (waiter.state.compareAndSet(WAITING, GRANTED)) {
+                LockSupport.unpark(waiter.thread);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
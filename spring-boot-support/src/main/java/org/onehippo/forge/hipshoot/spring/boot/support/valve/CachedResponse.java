@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.connector.Response;
+
+/**
+ * Immutable copy of a complete response, with its status, headers and body.
+ */
+final class CachedResponse {
+
+    /**
+     * Approximate memory overhead of an entry besides the body and headers.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final int status;
+    private final String contentType;
+    private final String [] headerNames;
+    private final String [] headerValues;
+    private final byte [] body;
+    private final String etag;
+    private final long createdAt;
+    private final long expiresAt;
+    private final int size;
+
+    private CachedResponse(final int status, final String contentType, final String [] headerNames,
+            final String [] headerValues, final byte [] body, final String etag, final long createdAt,
+            final long expiresAt) {
+        this.status = status;
+        this.contentType = contentType;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.body = body;
+        this.etag = etag;
+        this.createdAt = createdAt;
+        this.expiresAt = expiresAt;
+
+        int headerSize = 0;
+
+        for (int i = 0; i < headerNames.length; i++) {
+            headerSize += 2 * (headerNames[i].length() + headerValues[i].length());
+        }
+
+        size = ENTRY_OVERHEAD + body.length + headerSize;
+    }
+
+    /**
+     * Copies the status and headers of the response with the captured body. Headers which must not be replayed,
+     * such as <code>Set-Cookie</code> or <code>Date</code>, are left out. An <code>ETag</code> is computed from
+     * the body if the response doesn't have one.
+     * @param response response
+     * @param body captured body
+     * @param ttlMillis time to live in milliseconds
+     * @return a copy of the response
+     */
+    static CachedResponse of(final Response response, final byte [] body, final long ttlMillis) {
+        final List<String> names = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+        String etag = null;
+
+        for (String name : response.getHeaderNames()) {
+            final String lowerName = name.toLowerCase(Locale.ROOT);
+
+            if (isHopByHopOrPrivateHeader(lowerName) || names.contains(name)) {
+                continue;
+            }
+
+            final Collection<String> headerValues = response.getHeaders(name);
+
+            for (String value : headerValues) {
+                if ("etag".equals(lowerName)) {
+                    etag = value;
+                } else {
+                    names.add(name);
+                    values.add(value);
+                }
+            }
+        }
+
+        if (etag == null) {
+            final CRC32 crc = new CRC32();
+            crc.update(body, 0, body.length);
+            etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length) + "\"";
+        }
+
+        final long now = System.currentTimeMillis();
+
+        return new CachedResponse(response.getStatus(), response.getContentType(),
+                names.toArray(new String[names.size()]), values.toArray(new String[values.size()]), body, etag,
+                now, now + ttlMillis);
+    }
+
+    /**
+     * Returns true if the response can be served to other requests, i.e, it is <code>200</code>, doesn't set
+     * a cookie, and doesn't forbid caching by <code>Cache-Control</code> or <code>Vary: *</code>.
+     * @param response response
+     * @return true if the response can be served to other requests
+     */
+    static boolean isCacheable(final Response response) {
+        if (response.getStatus() != HttpServletResponse.SC_OK || response.isError()
+                || response.containsHeader("Set-Cookie")) {
+            return false;
+        }
+
+        final String cacheControl = response.getHeader("Cache-Control");
+
+        if (cacheControl != null) {
+            final String value = cacheControl.toLowerCase(Locale.ROOT);
+
+            if (value.contains("private") || value.contains("no-store") || value.contains("no-cache")) {
+                return false;
+            }
+        }
+
+        final String vary = response.getHeader("Vary");
+        return vary == null || !vary.contains("*");
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    boolean isExpired(final long now) {
+        return now >= expiresAt;
+    }
+
+    /**
+     * Returns the approximate memory size of this entry.
+     * @return the approximate memory size of this entry
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Writes this response, or <code>304</code> if <code>ifNoneMatch</code> matches the ETag.
+     * @param response response
+     * @param ifNoneMatch <code>If-None-Match</code> request header value, or null
+     * @param writeBody whether or not to write the body, false for <code>HEAD</code> requests
+     * @return true if <code>304</code> was sent
+     * @throws IOException if an I/O error occurs
+     */
+    boolean writeTo(final HttpServletResponse response, final String ifNoneMatch, final boolean writeBody)
+            throws IOException {
+        final boolean notModified = matchesEtag(ifNoneMatch);
+
+        response.setStatus(notModified ? HttpServletResponse.SC_NOT_MODIFIED : status);
+
+        for (int i = 0; i < headerNames.length; i++) {
+            response.addHeader(headerNames[i], headerValues[i]);
+        }
+
+        response.setHeader("ETag", etag);
+
+        if (notModified) {
+            return true;
+        }
+
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+
+        response.setContentLength(body.length);
+
+        if (writeBody && body.length > 0) {
+            response.getOutputStream().write(body);
+        }
+
+        return false;
+    }
+
+    private boolean matchesEtag(final String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        if ("*".equals(ifNoneMatch.trim())) {
+            return true;
+        }
+
+        for (String token : ifNoneMatch.split(",")) {
+            String value = token.trim();
+
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+
+            if (value.equals(etag) || ("W/" + value).equals(etag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isHopByHopOrPrivateHeader(final String lowerName) {
+        switch (lowerName) {
+        case "set-cookie":
+        case "set-cookie2":
+        case "date":
+        case "connection":
+        case "keep-alive":
+        case "transfer-encoding":
+        case "content-length":
+        case "content-type":
+        case "content-encoding":
+            return true;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * {@link org.apache.catalina.Valve} counting the hits of the static resources served by the
+ * <code>DefaultServlet</code> of a web application context, to tell the hot set of the static resources to
+ * preload into the resource cache on the next startup.
+ * <P>
+ * At most <code>maxTrackedPaths</code> paths are tracked, so new paths are ignored once the limit is reached.
+ * </P>
+ */
+public class HotSetRecorderValve extends ValveBase {
+
+    private static final String DEFAULT_SERVLET_CLASS_NAME = "org.apache.catalina.servlets.DefaultServlet";
+
+    private int maxTrackedPaths = 10000;
+
+    private final ConcurrentMap<String, LongAdder> hits = new ConcurrentHashMap<>();
+
+    public HotSetRecorderValve() {
+        super(true);
+    }
+
+    public int getMaxTrackedPaths() {
+        return maxTrackedPaths;
+    }
+
+    public void setMaxTrackedPaths(int maxTrackedPaths) {
+        this.maxTrackedPaths = maxTrackedPaths;
+    }
+
+    /**
+     * Returns the number of paths tracked.
+     * @return the number of paths tracked
+     */
+    public int getTrackedPathCount() {
+        return hits.size();
+    }
+
+    /**
+     * Returns the most frequently hit resource paths, the hottest first.
+     * @param max maximum number of paths to return
+     * @return the most frequently hit resource paths
+     */
+    public List<String> getHotSet(final int max) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(hits.size());
+
+        for (Map.Entry<String, LongAdder> entry : hits.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+
+        entries.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+
+        final List<String> hotSet = new ArrayList<>(Math.min(max, entries.size()));
+
+        for (int i = 0; i < entries.size() && i < max; i++) {
+            hotSet.add(entries.get(i).getKey());
+        }
+
+        return hotSet;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        getNext().invoke(request, response);
+
+        if (response.getStatus() != HttpServletResponse.SC_OK) {
+            return;
+        }
+
+        final Wrapper wrapper = request.getWrapper();
+
+        if (wrapper == null || !DEFAULT_SERVLET_CLASS_NAME.equals(wrapper.getServletClass())) {
+            return;
+        }
+
+        final String pathInfo = request.getPathInfo();
+        final String path = (pathInfo == null) ? request.getServletPath() : request.getServletPath() + pathInfo;
+        LongAdder counter = hits.get(path);
+
+        if (counter == null) {
+            if (hits.size() >= maxTrackedPaths) {
+                return;
+            }
+
+            counter = hits.computeIfAbsent(path, key -> new LongAdder());
+        }
+
+        counter.increment();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * {@link org.apache.catalina.Valve} counting the requests being processed in the container, typically an engine,
+ * so that the requests can be drained before stopping the web application contexts.
+ * <P>
+ * A request is counted until the processing returns to this valve, so an asynchronous request is not counted
+ * while waiting for its completion.
+ * </P>
+ */
+public class InFlightRequestValve extends ValveBase {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public InFlightRequestValve() {
+        super(true);
+    }
+
+    /**
+     * Returns the number of requests currently being processed.
+     * @return the number of requests currently being processed
+     */
+    public int getInFlightRequests() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        inFlight.incrementAndGet();
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+}
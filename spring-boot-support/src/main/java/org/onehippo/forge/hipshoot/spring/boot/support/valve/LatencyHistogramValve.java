@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * {@link org.apache.catalina.Valve} recording the request latency of a web application context into
+ * {@link LatencyHistogram}s, to tell the percentiles that Tomcat's request statistics cannot tell.
+ * <P>
+ * Latency is always recorded into the histogram of the whole context, and optionally into the histogram of the
+ * group by the first matching URL pattern in <code>urlPatterns</code> and by the status class (e.g, <code>2xx</code>)
+ * if <code>groupByStatusClass</code> is true. URL patterns are comma separated servlet mapping style patterns,
+ * i.e, exact paths, path prefixes such as <code>/api/*</code> or extensions such as <code>*.jsp</code>, matched
+ * against the request path in the context.
+ * </P>
+ * <P>
+ * The percentiles are available through JMX, and as plain text at <code>endpointPath</code> in the context
+ * if it is set. The latency of asynchronous requests is not recorded as they are not completed in this valve.
+ * </P>
+ * <P>
+ * The histograms are rotated every <code>intervalSeconds</code>, so the count and percentiles are of the last full
+ * interval, telling the current latency rather than the average over the whole uptime. Set it to zero to report
+ * everything recorded since start.
+ * </P>
+ */
+public class LatencyHistogramValve extends ValveBase {
+
+    private static final int STATUS_CLASS_COUNT = 6;
+
+    private static final String ALL_GROUP = "all";
+
+    private static final String OTHER_GROUP = "other";
+
+    private String urlPatterns;
+
+    private boolean groupByStatusClass;
+
+    private String endpointPath;
+
+    private long intervalSeconds = 60;
+
+    private RotatingLatencyHistogram contextHistogram = new RotatingLatencyHistogram(0L);
+
+    private UrlPatterns patterns = UrlPatterns.parse(null);
+
+    /**
+     * Histograms by the URL pattern and status class, created on the first record.
+     */
+    private AtomicReferenceArray<RotatingLatencyHistogram> groupHistograms;
+
+    public LatencyHistogramValve() {
+        super(true);
+    }
+
+    /**
+     * Returns comma separated URL patterns to group the requests by.
+     * @return comma separated URL patterns to group the requests by
+     */
+    public String getUrlPatterns() {
+        return urlPatterns;
+    }
+
+    /**
+     * Sets comma separated URL patterns to group the requests by.
+     * @param urlPatterns comma separated URL patterns to group the requests by
+     */
+    public void setUrlPatterns(String urlPatterns) {
+        this.urlPatterns = urlPatterns;
+    }
+
+    /**
+     * Returns true if the requests are grouped by the status class as well.
+     * @return true if the requests are grouped by the status class as well
+     */
+    public boolean isGroupByStatusClass() {
+        return groupByStatusClass;
+    }
+
+    /**
+     * Sets whether or not the requests are grouped by the status class as well.
+     * @param groupByStatusClass whether or not the requests are grouped by the status class as well
+     */
+    public void setGroupByStatusClass(boolean groupByStatusClass) {
+        this.groupByStatusClass = groupByStatusClass;
+    }
+
+    /**
+     * Returns the path in the context at which the percentiles are rendered as plain text.
+     * @return the path in the context at which the percentiles are rendered as plain text
+     */
+    public String getEndpointPath() {
+        return endpointPath;
+    }
+
+    /**
+     * Sets the path in the context at which the percentiles are rendered as plain text.
+     * @param endpointPath the path in the context at which the percentiles are rendered as plain text
+     */
+    public void setEndpointPath(String endpointPath) {
+        this.endpointPath = endpointPath;
+    }
+
+    /**
+     * Returns the interval in seconds at which the histograms are rotated, or zero to never rotate them.
+     * @return the interval in seconds at which the histograms are rotated
+     */
+    public long getIntervalSeconds() {
+        return intervalSeconds;
+    }
+
+    /**
+     * Sets the interval in seconds at which the histograms are rotated, or zero to never rotate them.
+     * @param intervalSeconds the interval in seconds at which the histograms are rotated
+     */
+    public void setIntervalSeconds(long intervalSeconds) {
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public long getRequestCount() {
+        return contextHistogram.getLastInterval().getCount();
+    }
+
+    public double getMeanMillis() {
+        return contextHistogram.getLastInterval().getMeanMicros() / 1000.0;
+    }
+
+    public double getP50Millis() {
+        return contextHistogram.getLastInterval().getValueAtPercentile(50.0) / 1000.0;
+    }
+
+    public double getP99Millis() {
+        return contextHistogram.getLastInterval().getValueAtPercentile(99.0) / 1000.0;
+    }
+
+    public double getP999Millis() {
+        return contextHistogram.getLastInterval().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    public double getMaxMillis() {
+        return contextHistogram.getLastInterval().getMaxMicros() / 1000.0;
+    }
+
+    /**
+     * Returns the request count and latency percentiles of each group.
+     * @return the request count and latency percentiles of each group
+     */
+    public String [] getGroupPercentiles() {
+        final List<String> lines = new ArrayList<>();
+        final AtomicReferenceArray<RotatingLatencyHistogram> histograms = groupHistograms;
+
+        if (histograms != null) {
+            for (int i = 0; i < histograms.length(); i++) {
+                final RotatingLatencyHistogram histogram = histograms.get(i);
+
+                if (histogram != null) {
+                    lines.add(formatLine(getGroupName(i), histogram.getLastInterval()));
+                }
+            }
+        }
+
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Clears all the recorded values.
+     */
+    public void reset() {
+        contextHistogram.reset();
+        final AtomicReferenceArray<RotatingLatencyHistogram> histograms = groupHistograms;
+
+        if (histograms != null) {
+            for (int i = 0; i < histograms.length(); i++) {
+                final RotatingLatencyHistogram histogram = histograms.get(i);
+
+                if (histogram != null) {
+                    histogram.reset();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        if (endpointPath != null && isEndpointRequest(request)) {
+            writeReport(response);
+            return;
+        }
+
+        final long start = System.nanoTime();
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (!request.isAsync()) {
+                record(request, response, (System.nanoTime() - start) / 1000L);
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        patterns = UrlPatterns.parse(urlPatterns);
+        contextHistogram = new RotatingLatencyHistogram(TimeUnit.SECONDS.toMillis(intervalSeconds));
+
+        if (patterns.size() > 0 || groupByStatusClass) {
+            groupHistograms = new AtomicReferenceArray<>((patterns.size() + 1) * STATUS_CLASS_COUNT);
+        } else {
+            groupHistograms = null;
+        }
+
+        super.startInternal();
+    }
+
+    private void record(final Request request, final Response response, final long micros) {
+        contextHistogram.record(micros);
+
+        final AtomicReferenceArray<RotatingLatencyHistogram> histograms = groupHistograms;
+
+        if (histograms == null) {
+            return;
+        }
+
+        int statusClass = 0;
+
+        if (groupByStatusClass) {
+            statusClass = response.getStatus() / 100;
+
+            if (statusClass < 0 || statusClass >= STATUS_CLASS_COUNT) {
+                statusClass = 0;
+            }
+        }
+
+        final int index = patterns.match(request) * STATUS_CLASS_COUNT + statusClass;
+        RotatingLatencyHistogram histogram = histograms.get(index);
+
+        if (histogram == null) {
+            histograms.compareAndSet(index, null,
+                    new RotatingLatencyHistogram(TimeUnit.SECONDS.toMillis(intervalSeconds)));
+            histogram = histograms.get(index);
+        }
+
+        histogram.record(micros);
+    }
+
+    private boolean isEndpointRequest(final Request request) {
+        final String uri = request.getDecodedRequestURI();
+        final String contextPath = request.getContextPath();
+        final int offset = (contextPath != null) ? contextPath.length() : 0;
+
+        return uri != null && uri.length() - offset == endpointPath.length()
+                && uri.regionMatches(offset, endpointPath, 0, endpointPath.length());
+    }
+
+    private void writeReport(final Response response) throws IOException {
+        response.setContentType("text/plain");
+        response.setCharacterEncoding("UTF-8");
+
+        final PrintWriter writer = response.getWriter();
+        writer.println(formatLine(ALL_GROUP, contextHistogram.getLastInterval()));
+
+        for (String line : getGroupPercentiles()) {
+            writer.println(line);
+        }
+
+        writer.flush();
+    }
+
+    private String getGroupName(final int index) {
+        final int patternIndex = index / STATUS_CLASS_COUNT;
+        final int statusClass = index % STATUS_CLASS_COUNT;
+        String pattern = ALL_GROUP;
+
+        if (patternIndex < patterns.size()) {
+            pattern = patterns.get(patternIndex);
+        } else if (patterns.size() > 0) {
+            pattern = OTHER_GROUP;
+        }
+
+        if (!groupByStatusClass) {
+            return pattern;
+        }
+
+        return pattern + " " + ((statusClass > 0) ? statusClass + "xx" : OTHER_GROUP);
+    }
+
+    private static String formatLine(final String name, final LatencyHistogram histogram) {
+        return String.format(Locale.ROOT,
+                "%s count=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms", name, histogram.getCount(),
+                histogram.getMeanMicros() / 1000.0, histogram.getValueAtPercentile(50.0) / 1000.0,
+                histogram.getValueAtPercentile(99.0) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxMicros() / 1000.0);
+    }
+}
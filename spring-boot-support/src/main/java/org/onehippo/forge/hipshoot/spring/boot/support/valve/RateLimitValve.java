@@ -0,0 +1,350 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rate limiting {@link org.apache.catalina.Valve}, keeping a token bucket per client key, which is the remote
+ * address or a value of <code>keyHeader</code> (e.g, <code>X-Forwarded-For</code>) if set.
+ * <P>
+ * As the client may send any value in <code>keyHeader</code> itself, only the values appended by the proxies in
+ * front of the server can be trusted. So the client key is the value at <code>trustedProxyCount</code> from the
+ * right, i.e, the address seen by the outermost trusted proxy, or the leftmost value if there are fewer values.
+ * Alternatively, leave <code>keyHeader</code> unset and put a <code>RemoteIpValve</code> before this valve.
+ * </P>
+ * <P>
+ * Each bucket holds up to <code>burst</code> tokens and is refilled at <code>requestsPerSecond</code> tokens per
+ * second. A request taking a token proceeds, and a request finding its bucket empty is rejected with
+ * <code>429</code> and a <code>Retry-After</code> header before it reaches the application.
+ * </P>
+ * <P>
+ * The buckets are kept in a fixed-size table split into stripes of {@link #STRIPE_SIZE} slots, and a client key
+ * can be stored only in the stripe selected by its hash. Each slot is updated by compare-and-set of an immutable
+ * bucket, so no lock is taken. When a new client finds no free slot in its stripe, the least recently used bucket
+ * in the stripe is evicted, which approximates LRU eviction over the whole table while keeping the memory bounded
+ * regardless of the number of distinct clients. A bucket is used by rejected requests as well, so a client being
+ * throttled is not evicted in favor of idle clients. A client evicted and seen again just starts with a full bucket.
+ * </P>
+ */
+public class RateLimitValve extends ValveBase {
+
+    private static Logger log = LoggerFactory.getLogger(RateLimitValve.class);
+
+    /**
+     * The number of slots in each stripe.
+     */
+    public static final int STRIPE_SIZE = 8;
+
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Immutable token bucket of a client, replaced on each update.
+     */
+    private static final class Bucket {
+
+        private final String key;
+        private final double tokens;
+        private final long lastNanos;
+
+        private Bucket(final String key, final double tokens, final long lastNanos) {
+            this.key = key;
+            this.tokens = tokens;
+            this.lastNanos = lastNanos;
+        }
+    }
+
+    private double requestsPerSecond = 10;
+
+    private int burst = 20;
+
+    private String keyHeader;
+
+    private int trustedProxyCount = 1;
+
+    private int tableSize = 65536;
+
+    private AtomicReferenceArray<Bucket> table;
+
+    private int stripeMask;
+
+    private final LongAdder allowedCount = new LongAdder();
+
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    public RateLimitValve() {
+        super(true);
+    }
+
+    /**
+     * Returns the number of tokens added to each bucket per second.
+     * @return the number of tokens added to each bucket per second
+     */
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * Sets the number of tokens added to each bucket per second.
+     * @param requestsPerSecond the number of tokens added to each bucket per second
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        this.requestsPerSecond = requestsPerSecond;
+    }
+
+    /**
+     * Returns the maximum number of tokens in each bucket.
+     * @return the maximum number of tokens in each bucket
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * Sets the maximum number of tokens in each bucket.
+     * @param burst the maximum number of tokens in each bucket
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    /**
+     * Returns the request header name to read the client key from, or null to use the remote address.
+     * @return the request header name to read the client key from
+     */
+    public String getKeyHeader() {
+        return keyHeader;
+    }
+
+    /**
+     * Sets the request header name to read the client key from, or null to use the remote address.
+     * @param keyHeader the request header name to read the client key from
+     */
+    public void setKeyHeader(String keyHeader) {
+        this.keyHeader = keyHeader;
+    }
+
+    /**
+     * Returns the number of trusted proxies appending to <code>keyHeader</code>, i.e, the position from the right
+     * of the value used as the client key.
+     * @return the number of trusted proxies appending to <code>keyHeader</code>
+     */
+    public int getTrustedProxyCount() {
+        return trustedProxyCount;
+    }
+
+    /**
+     * Sets the number of trusted proxies appending to <code>keyHeader</code>, i.e, the position from the right
+     * of the value used as the client key.
+     * @param trustedProxyCount the number of trusted proxies appending to <code>keyHeader</code>
+     */
+    public void setTrustedProxyCount(int trustedProxyCount) {
+        this.trustedProxyCount = trustedProxyCount;
+    }
+
+    /**
+     * Returns the maximum number of buckets, rounded up to a power of two on start.
+     * @return the maximum number of buckets
+     */
+    public int getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * Sets the maximum number of buckets, rounded up to a power of two on start.
+     * @param tableSize the maximum number of buckets
+     */
+    public void setTableSize(int tableSize) {
+        this.tableSize = tableSize;
+    }
+
+    /**
+     * Returns the number of requests allowed.
+     * @return the number of requests allowed
+     */
+    public long getAllowedRequests() {
+        return allowedCount.sum();
+    }
+
+    /**
+     * Returns the number of requests rejected.
+     * @return the number of requests rejected
+     */
+    public long getRejectedRequests() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * Returns the number of buckets evicted to make room for new clients.
+     * @return the number of buckets evicted to make room for new clients
+     */
+    public long getEvictedBuckets() {
+        return evictionCount.sum();
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        final int minStripes = Math.max(1, (tableSize + STRIPE_SIZE - 1) / STRIPE_SIZE);
+        final int stripes = (minStripes == 1) ? 1 : Integer.highestOneBit(minStripes - 1) << 1;
+        table = new AtomicReferenceArray<>(stripes * STRIPE_SIZE);
+        stripeMask = stripes - 1;
+
+        super.startInternal();
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        super.stopInternal();
+
+        table = null;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        final String key = getClientKey(request);
+
+        if (key == null || tryAcquire(key)) {
+            allowedCount.increment();
+            getNext().invoke(request, response);
+            return;
+        }
+
+        rejectedCount.increment();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Rejecting request ('{}') of the client ('{}') by the rate limit.", request.getRequestURI(),
+                    key);
+        }
+
+        final double rate = requestsPerSecond;
+        final long retryAfterSeconds = (rate > 0.0) ? Math.max(1L, (long) Math.ceil(1.0 / rate)) : 60L;
+        response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+        response.sendError(SC_TOO_MANY_REQUESTS);
+    }
+
+    private String getClientKey(final Request request) {
+        if (keyHeader != null) {
+            final String value = request.getHeader(keyHeader);
+
+            if (value != null) {
+                final String [] values = value.split(",");
+                final String trusted = values[Math.max(0, values.length - Math.max(1, trustedProxyCount))].trim();
+
+                if (!trusted.isEmpty()) {
+                    return trusted;
+                }
+            }
+        }
+
+        return request.getRemoteAddr();
+    }
+
+    /**
+     * Takes a token from the bucket of the client key.
+     * @param key client key
+     * @return true if a token was taken
+     */
+    boolean tryAcquire(final String key) {
+        return tryAcquire(key, System.nanoTime());
+    }
+
+    /**
+     * Takes a token from the bucket of the client key at the given time.
+     * @param key client key
+     * @param now current time in nanoseconds as given by <code>System.nanoTime()</code>
+     * @return true if a token was taken
+     */
+    boolean tryAcquire(final String key, final long now) {
+        final AtomicReferenceArray<Bucket> slots = table;
+
+        if (slots == null) {
+            return true;
+        }
+
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        final int base = (hash & stripeMask) * STRIPE_SIZE;
+        final double capacity = Math.max(1, burst);
+        final double tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+
+        for (;;) {
+            int victim = -1;
+            Bucket victimBucket = null;
+            boolean found = false;
+
+            for (int i = base; i < base + STRIPE_SIZE; i++) {
+                final Bucket bucket = slots.get(i);
+
+                if (bucket == null) {
+                    if (victim == -1 || victimBucket != null) {
+                        victim = i;
+                        victimBucket = null;
+                    }
+                    continue;
+                }
+
+                if (key.equals(bucket.key)) {
+                    found = true;
+                    final double tokens = Math.min(capacity,
+                            bucket.tokens + Math.max(0L, now - bucket.lastNanos) * tokensPerNano);
+
+                    // Store the bucket refilled until now even when rejecting, so that a throttled client stays
+                    // recently used and does not get evicted to come back with a full bucket.
+                    final boolean acquired = tokens >= 1.0;
+
+                    if (slots.compareAndSet(i, bucket, new Bucket(key, acquired ? tokens - 1.0 : tokens, now))) {
+                        return acquired;
+                    }
+
+                    break;
+                }
+
+                if (victim == -1 || (victimBucket != null && bucket.lastNanos - victimBucket.lastNanos < 0L)) {
+                    victim = i;
+                    victimBucket = bucket;
+                }
+            }
+
+            if (found) {
+                // Lost the race to another request of the same client, so retry.
+                continue;
+            }
+
+            if (slots.compareAndSet(victim, victimBucket, new Bucket(key, capacity - 1.0, now))) {
+                if (victimBucket != null) {
+                    evictionCount.increment();
+                }
+
+                return true;
+            }
+        }
+    }
+}
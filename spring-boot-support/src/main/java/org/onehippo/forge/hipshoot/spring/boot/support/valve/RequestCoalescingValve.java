@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * {@link org.apache.catalina.Valve} collapsing concurrent identical <code>GET</code> requests of a web application
+ * context into a single rendering, e.g, to avoid rendering the same expensive page hundreds of times in parallel
+ * right after a cache flush.
+ * <P>
+ * The first request for a key becomes the leader and goes through the pipeline as usual, while its body is
+ * captured up to <code>maxResponseSize</code>. The requests for the same key arriving in the meantime wait for
+ * the leader up to <code>timeoutMillis</code> and get a copy of its response. If the leader response cannot be
+ * shared (i.e, it is not <code>200</code>, sets a cookie, forbids caching, goes async or is bigger than
+ * <code>maxResponseSize</code>) or if the wait times out, the waiting requests fall back to the pipeline.
+ * </P>
+ * <P>
+ * The request key consists of the request URI, query string and the values of the request headers in
+ * <code>keyHeaders</code>. Only the requests matching <code>urlPatterns</code> are coalesced, and requests having
+ * any cookie in <code>bypassCookies</code> or carrying credentials are never coalesced.
+ * </P>
+ */
+public class RequestCoalescingValve extends ValveBase {
+
+    /**
+     * Request being rendered by a leader.
+     */
+    private static final class InFlight {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile CachedResponse result;
+
+        void complete(final CachedResponse result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        CachedResponse await(final long timeoutMillis) throws InterruptedException {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS) ? result : null;
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+    }
+
+    private String urlPatterns;
+
+    private String keyHeaders;
+
+    private String bypassCookies = "JSESSIONID";
+
+    private int maxResponseSize = 1024 * 1024;
+
+    private long timeoutMillis = 5000;
+
+    private UrlPatterns patterns = UrlPatterns.parse(null);
+
+    private String [] keyHeaderNames = new String[0];
+
+    private String [] bypassCookieNames = new String[0];
+
+    private final ConcurrentMap<String, InFlight> inFlights = new ConcurrentHashMap<>();
+
+    private final AtomicLong leaderCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final AtomicLong fallbackCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicInteger waitingCount = new AtomicInteger();
+
+    public RequestCoalescingValve() {
+        super(true);
+    }
+
+    public String getUrlPatterns() {
+        return urlPatterns;
+    }
+
+    public void setUrlPatterns(String urlPatterns) {
+        this.urlPatterns = urlPatterns;
+    }
+
+    /**
+     * Returns comma separated request header names whose values are part of the request key.
+     * @return comma separated request header names whose values are part of the request key
+     */
+    public String getKeyHeaders() {
+        return keyHeaders;
+    }
+
+    public void setKeyHeaders(String keyHeaders) {
+        this.keyHeaders = keyHeaders;
+    }
+
+    /**
+     * Returns comma separated cookie names with which requests are never coalesced.
+     * @return comma separated cookie names with which requests are never coalesced
+     */
+    public String getBypassCookies() {
+        return bypassCookies;
+    }
+
+    public void setBypassCookies(String bypassCookies) {
+        this.bypassCookies = bypassCookies;
+    }
+
+    /**
+     * Returns the maximum size in bytes of a leader response body to buffer for the waiting requests.
+     * @return the maximum size in bytes of a leader response body to buffer for the waiting requests
+     */
+    public int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public void setMaxResponseSize(int maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds for a request to wait for the leader of the same key.
+     * @return the maximum time in milliseconds for a request to wait for the leader of the same key
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the number of requests which rendered the response for the others waiting.
+     * @return the number of requests which rendered the response for the others waiting
+     */
+    public long getLeaderCount() {
+        return leaderCount.get();
+    }
+
+    /**
+     * Returns the number of requests served with the response of a leader.
+     * @return the number of requests served with the response of a leader
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * Returns the number of waiting requests which fell back to the pipeline as the leader response could not be
+     * shared.
+     * @return the number of waiting requests which fell back to the pipeline
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    /**
+     * Returns the number of waiting requests which fell back to the pipeline as the leader took too long.
+     * @return the number of waiting requests which fell back to the pipeline as the leader took too long
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Returns the number of keys being rendered by leaders.
+     * @return the number of keys being rendered by leaders
+     */
+    public int getInFlightCount() {
+        return inFlights.size();
+    }
+
+    /**
+     * Returns the number of requests currently waiting for a leader.
+     * @return the number of requests currently waiting for a leader
+     */
+    public int getWaitingCount() {
+        return waitingCount.get();
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        if (!"GET".equals(request.getMethod()) || !patterns.matches(request)
+                || RequestKeys.hasAnyCookie(request, bypassCookieNames) || RequestKeys.isAuthorized(request)) {
+            getNext().invoke(request, response);
+            return;
+        }
+
+        final String key = RequestKeys.build(request, "", keyHeaderNames);
+        final InFlight mine = new InFlight();
+        final InFlight leader = inFlights.putIfAbsent(key, mine);
+
+        if (leader != null) {
+            follow(leader, request, response);
+            return;
+        }
+
+        leaderCount.incrementAndGet();
+        CachedResponse result = null;
+
+        try {
+            result = lead(request, response);
+        } finally {
+            inFlights.remove(key, mine);
+            mine.complete(result);
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        patterns = UrlPatterns.parse(urlPatterns);
+        keyHeaderNames = RequestKeys.tokenize(keyHeaders);
+        bypassCookieNames = RequestKeys.tokenize(bypassCookies);
+
+        super.startInternal();
+    }
+
+    private CachedResponse lead(final Request request, final Response response)
+            throws IOException, ServletException {
+        final HttpServletResponse applicationResponse = response.getResponse();
+        final ResponseCaptureWrapper wrapper = new ResponseCaptureWrapper(applicationResponse, maxResponseSize);
+        response.setResponse(wrapper);
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (!request.isAsync()) {
+                response.setResponse(applicationResponse);
+            }
+        }
+
+        if (request.isAsync() || !CachedResponse.isCacheable(response)) {
+            return null;
+        }
+
+        final byte [] body = wrapper.getCapturedBody();
+        return body != null ? CachedResponse.of(response, body, 0L) : null;
+    }
+
+    private void follow(final InFlight leader, final Request request, final Response response)
+            throws IOException, ServletException {
+        CachedResponse result = null;
+        boolean timedOut = false;
+
+        waitingCount.incrementAndGet();
+
+        try {
+            result = leader.await(timeoutMillis);
+            timedOut = !leader.isDone();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waitingCount.decrementAndGet();
+        }
+
+        if (result == null) {
+            if (timedOut) {
+                timeoutCount.incrementAndGet();
+            } else {
+                fallbackCount.incrementAndGet();
+            }
+
+            getNext().invoke(request, response);
+            return;
+        }
+
+        coalescedCount.incrementAndGet();
+        // write through the application response so that wrappers of the enclosing valves (e.g, the body capture
+        // of a ResponseCacheValve) see the copy as if the follower had been rendered by the pipeline
+        result.writeTo(response.getResponse(), request.getHeader("If-None-Match"), true);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import javax.servlet.http.Cookie;
+
+import org.apache.catalina.connector.Request;
+import org.springframework.util.StringUtils;
+
+/**
+ * Utilities to tell identical requests, for the valves sharing a response between requests.
+ */
+final class RequestKeys {
+
+    private RequestKeys() {
+    }
+
+    /**
+     * Builds a request key from the scheme, server name and port, request URI, query string and the values of
+     * the request headers, so that the same path of different virtual hosts or over http and https never shares
+     * a response.
+     * @param request request
+     * @param prefix key prefix, e.g, to tell the context
+     * @param headerNames request header names whose values are part of the key
+     * @return request key
+     */
+    static String build(final Request request, final String prefix, final String [] headerNames) {
+        final StringBuilder sb = new StringBuilder(128);
+        sb.append(prefix).append(request.getScheme()).append("://").append(request.getServerName()).append(':')
+                .append(request.getServerPort()).append(request.getDecodedRequestURI());
+
+        final String queryString = request.getQueryString();
+
+        if (queryString != null) {
+            sb.append('?').append(queryString);
+        }
+
+        for (String name : headerNames) {
+            final String value = request.getHeader(name);
+            sb.append('\n');
+
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if the request carries credentials or is already authenticated, so its response must not be
+     * shared with other clients (RFC 7234, section 3.2).
+     * @param request request
+     * @return true if the request carries credentials or is already authenticated
+     */
+    static boolean isAuthorized(final Request request) {
+        return request.getHeader("Authorization") != null || request.getUserPrincipal() != null;
+    }
+
+    /**
+     * Returns true if the request has any of the cookies.
+     * @param request request
+     * @param cookieNames cookie names
+     * @return true if the request has any of the cookies
+     */
+    static boolean hasAnyCookie(final Request request, final String [] cookieNames) {
+        if (cookieNames.length == 0) {
+            return false;
+        }
+
+        final Cookie [] cookies = request.getCookies();
+
+        if (cookies == null) {
+            return false;
+        }
+
+        for (Cookie cookie : cookies) {
+            for (String name : cookieNames) {
+                if (name.equals(cookie.getName())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Splits comma separated names.
+     * @param value comma separated names
+     * @return names
+     */
+    static String [] tokenize(final String value) {
+        if (value == null) {
+            return new String[0];
+        }
+
+        return StringUtils.tokenizeToStringArray(value, ",");
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Response cache store shared by the {@link ResponseCacheValve}s of all the web application contexts, bounded by
+ * a single memory budget.
+ * <P>
+ * Entries are split into a fixed number of stripes selected by the key hash, each of which is an access ordered
+ * {@link LinkedHashMap} guarded by its own lock, so that concurrent cache hits rarely contend. Whenever the total
+ * size of the entries goes over the budget, the least recently used entry of each stripe is evicted in turn until
+ * it fits again, which approximates LRU eviction over the whole store. Expired entries are removed when they are
+ * looked up.
+ * </P>
+ */
+public class ResponseCacheStore {
+
+    /**
+     * Default number of stripes.
+     */
+    public static final int DEFAULT_STRIPE_COUNT = 64;
+
+    /**
+     * Entries of a stripe in access order, guarded by <code>lock</code>.
+     */
+    private static final class Stripe {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private final long maxMemory;
+
+    private final Stripe [] stripes;
+
+    private final int stripeMask;
+
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    /**
+     * Stripe to evict from next, rotating so that every stripe gives up its least recently used entries in turn.
+     */
+    private final AtomicInteger evictionCursor = new AtomicInteger();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong expirationCount = new AtomicLong();
+
+    /**
+     * Constructs with the memory budget.
+     * @param maxMemory the maximum total size in bytes of the cached responses
+     */
+    public ResponseCacheStore(final long maxMemory) {
+        this(maxMemory, DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Constructs with the memory budget and the number of stripes.
+     * @param maxMemory the maximum total size in bytes of the cached responses
+     * @param stripeCount the number of stripes, rounded up to a power of two
+     */
+    public ResponseCacheStore(final long maxMemory, final int stripeCount) {
+        this.maxMemory = maxMemory;
+
+        int count = 1;
+
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+
+        stripes = new Stripe[count];
+
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        stripeMask = count - 1;
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Returns the approximate total size in bytes of the cached responses.
+     * @return the approximate total size in bytes of the cached responses
+     */
+    public long getMemoryUsed() {
+        return memoryUsed.get();
+    }
+
+    public int getEntryCount() {
+        int count = 0;
+
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+
+            try {
+                count += stripe.entries.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the memory budget.
+     * @return the number of entries evicted to stay within the memory budget
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the number of entries removed as expired.
+     * @return the number of entries removed as expired
+     */
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        clear("");
+    }
+
+    /**
+     * Removes all the entries having the key prefix, e.g, all the entries of a context.
+     * @param keyPrefix key prefix
+     */
+    void clear(final String keyPrefix) {
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+
+            try {
+                final Iterator<Map.Entry<String, CachedResponse>> it = stripe.entries.entrySet().iterator();
+
+                while (it.hasNext()) {
+                    final Map.Entry<String, CachedResponse> entry = it.next();
+
+                    if (entry.getKey().startsWith(keyPrefix)) {
+                        memoryUsed.addAndGet(-entry.getValue().getSize());
+                        it.remove();
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the entry by the key, or null if not found or expired.
+     * @param key key
+     * @return the entry by the key, or null if not found or expired
+     */
+    CachedResponse get(final String key) {
+        final Stripe stripe = stripeOf(key);
+        stripe.lock.lock();
+
+        try {
+            final CachedResponse entry = stripe.entries.get(key);
+
+            if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+                stripe.entries.remove(key);
+                memoryUsed.addAndGet(-entry.getSize());
+                expirationCount.incrementAndGet();
+                return null;
+            }
+
+            return entry;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the entry, evicting the least recently used entries if it goes over the memory budget.
+     * @param key key
+     * @param entry entry
+     * @return true if stored, or false if the entry alone is bigger than a quarter of the memory budget
+     */
+    boolean put(final String key, final CachedResponse entry) {
+        if (entry.getSize() > maxMemory / 4) {
+            return false;
+        }
+
+        final Stripe stripe = stripeOf(key);
+        stripe.lock.lock();
+
+        try {
+            final CachedResponse old = stripe.entries.put(key, entry);
+            memoryUsed.addAndGet(entry.getSize() - ((old != null) ? old.getSize() : 0L));
+        } finally {
+            stripe.lock.unlock();
+        }
+
+        if (memoryUsed.get() > maxMemory) {
+            evict(entry);
+        }
+
+        return true;
+    }
+
+    /**
+     * Evicts the least recently used entry of each stripe in turn until the entries fit in the memory budget,
+     * locking a single stripe at a time.
+     */
+    private void evict(final CachedResponse keep) {
+        int emptyStripes = 0;
+
+        while (memoryUsed.get() > maxMemory && emptyStripes < stripes.length) {
+            final Stripe stripe = stripes[evictionCursor.getAndIncrement() & stripeMask];
+            boolean evicted = false;
+            stripe.lock.lock();
+
+            try {
+                final Iterator<CachedResponse> it = stripe.entries.values().iterator();
+
+                while (it.hasNext()) {
+                    final CachedResponse eldest = it.next();
+
+                    if (eldest != keep) {
+                        it.remove();
+                        memoryUsed.addAndGet(-eldest.getSize());
+                        evictionCount.incrementAndGet();
+                        evicted = true;
+                        break;
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+
+            emptyStripes = evicted ? 0 : emptyStripes + 1;
+        }
+    }
+
+    private Stripe stripeOf(final String key) {
+        final int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & stripeMask];
+    }
+}
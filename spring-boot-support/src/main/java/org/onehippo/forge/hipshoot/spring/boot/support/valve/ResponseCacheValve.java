@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+
+/**
+ * {@link org.apache.catalina.Valve} caching complete <code>GET</code> responses of a web application context
+ * in a {@link ResponseCacheStore} shared by all the contexts.
+ * <P>
+ * Only the requests matching <code>urlPatterns</code> are cached. Requests having any cookie in
+ * <code>bypassCookies</code> (e.g, a session cookie of a logged-in user), an <code>Authorization</code> header
+ * or an authenticated user always bypass the cache, like a shared cache must.
+ * The cache key consists of the scheme, server name and port, request URI, query string and the values of the
+ * request headers in <code>varyHeaders</code>, so that a response is never served to another virtual host or
+ * over another scheme.
+ * </P>
+ * <P>
+ * A response is cached for <code>ttlSeconds</code> only if it is <code>200</code>, no bigger than
+ * <code>maxEntrySize</code>, doesn't set a cookie, and doesn't forbid caching by <code>Cache-Control</code> or
+ * <code>Vary: *</code>. The body is captured while being written to the client, so a cache miss costs nothing
+ * more than copying the body. Cached responses have an <code>ETag</code>, and a request with a matching
+ * <code>If-None-Match</code> gets <code>304</code>.
+ * </P>
+ */
+public class ResponseCacheValve extends ValveBase {
+
+    private final ResponseCacheStore store;
+
+    private String urlPatterns;
+
+    private long ttlSeconds = 60;
+
+    private int maxEntrySize = 1024 * 1024;
+
+    private String varyHeaders;
+
+    private String bypassCookies = "JSESSIONID";
+
+    private UrlPatterns patterns = UrlPatterns.parse(null);
+
+    private String [] varyHeaderNames = new String[0];
+
+    private String [] bypassCookieNames = new String[0];
+
+    private String keyPrefix;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong notModifiedCount = new AtomicLong();
+
+    private final AtomicLong storeCount = new AtomicLong();
+
+    private final AtomicLong bypassCount = new AtomicLong();
+
+    public ResponseCacheValve(final ResponseCacheStore store) {
+        super(true);
+        this.store = store;
+    }
+
+    public String getUrlPatterns() {
+        return urlPatterns;
+    }
+
+    public void setUrlPatterns(String urlPatterns) {
+        this.urlPatterns = urlPatterns;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public void setMaxEntrySize(int maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * Returns comma separated request header names whose values are part of the cache key.
+     * @return comma separated request header names whose values are part of the cache key
+     */
+    public String getVaryHeaders() {
+        return varyHeaders;
+    }
+
+    public void setVaryHeaders(String varyHeaders) {
+        this.varyHeaders = varyHeaders;
+    }
+
+    /**
+     * Returns comma separated cookie names with which requests bypass the cache.
+     * @return comma separated cookie names with which requests bypass the cache
+     */
+    public String getBypassCookies() {
+        return bypassCookies;
+    }
+
+    public void setBypassCookies(String bypassCookies) {
+        this.bypassCookies = bypassCookies;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of cache hits answered with <code>304</code>.
+     * @return the number of cache hits answered with <code>304</code>
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    public long getStoreCount() {
+        return storeCount.get();
+    }
+
+    /**
+     * Returns the number of cacheable requests which bypassed the cache due to a bypass cookie or credentials.
+     * @return the number of cacheable requests which bypassed the cache due to a bypass cookie or credentials
+     */
+    public long getBypassCount() {
+        return bypassCount.get();
+    }
+
+    /**
+     * Returns the number of entries of all the contexts evicted to stay within the shared memory budget.
+     * @return the number of entries of all the contexts evicted to stay within the shared memory budget
+     */
+    public long getEvictionCount() {
+        return store.getEvictionCount();
+    }
+
+    /**
+     * Returns the number of entries of all the contexts removed as expired.
+     * @return the number of entries of all the contexts removed as expired
+     */
+    public long getExpirationCount() {
+        return store.getExpirationCount();
+    }
+
+    /**
+     * Returns the approximate total size in bytes of the cached responses of all the contexts.
+     * @return the approximate total size in bytes of the cached responses of all the contexts
+     */
+    public long getMemoryUsed() {
+        return store.getMemoryUsed();
+    }
+
+    /**
+     * Removes all the cached responses of this context, e.g, after publishing content.
+     */
+    public void clear() {
+        if (keyPrefix != null) {
+            store.clear(keyPrefix);
+        }
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        final String method = request.getMethod();
+        final boolean head = "HEAD".equals(method);
+
+        if ((!head && !"GET".equals(method)) || !patterns.matches(request)) {
+            getNext().invoke(request, response);
+            return;
+        }
+
+        if (RequestKeys.hasAnyCookie(request, bypassCookieNames) || RequestKeys.isAuthorized(request)) {
+            bypassCount.incrementAndGet();
+            getNext().invoke(request, response);
+            return;
+        }
+
+        final String key = RequestKeys.build(request, keyPrefix, varyHeaderNames);
+        final CachedResponse cached = store.get(key);
+
+        if (cached != null) {
+            hitCount.incrementAndGet();
+
+            if (cached.writeTo(response, request.getHeader("If-None-Match"), !head)) {
+                notModifiedCount.incrementAndGet();
+            }
+
+            return;
+        }
+
+        missCount.incrementAndGet();
+
+        if (head) {
+            getNext().invoke(request, response);
+            return;
+        }
+
+        final HttpServletResponse applicationResponse = response.getResponse();
+        final ResponseCaptureWrapper wrapper = new ResponseCaptureWrapper(applicationResponse, maxEntrySize);
+        response.setResponse(wrapper);
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            if (!request.isAsync()) {
+                response.setResponse(applicationResponse);
+            }
+        }
+
+        if (!request.isAsync() && CachedResponse.isCacheable(response)) {
+            final byte [] body = wrapper.getCapturedBody();
+
+            if (body != null && store.put(key,
+                    CachedResponse.of(response, body, TimeUnit.SECONDS.toMillis(ttlSeconds)))) {
+                storeCount.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        patterns = UrlPatterns.parse(urlPatterns);
+        varyHeaderNames = RequestKeys.tokenize(varyHeaders);
+        bypassCookieNames = RequestKeys.tokenize(bypassCookies);
+        keyPrefix = getContainer().getName() + '\n';
+
+        super.startInternal();
+    }
+}
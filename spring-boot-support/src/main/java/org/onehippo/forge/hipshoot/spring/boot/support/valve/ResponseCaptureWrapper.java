@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper writing the response body to the wrapped response as usual while capturing a copy of it,
+ * up to a limit. If the body goes over the limit, the capture is abandoned.
+ */
+class ResponseCaptureWrapper extends HttpServletResponseWrapper {
+
+    private final int limit;
+
+    private ByteArrayOutputStream capture = new ByteArrayOutputStream(1024);
+
+    private boolean overflowed;
+
+    private ServletOutputStream outputStream;
+
+    private PrintWriter writer;
+
+    /**
+     * Writer encoding the characters written through <code>writer</code> into <code>capture</code>.
+     */
+    private Writer captureWriter;
+
+    ResponseCaptureWrapper(final HttpServletResponse response, final int limit) {
+        super(response);
+        this.limit = limit;
+    }
+
+    /**
+     * Flushes the characters written so far, and returns the captured body, or null if the body went over
+     * the limit.
+     * @return the captured body, or null if the body went over the limit
+     * @throws IOException if an I/O error occurs
+     */
+    byte [] getCapturedBody() throws IOException {
+        if (captureWriter != null) {
+            captureWriter.flush();
+        }
+
+        return overflowed ? null : capture.toByteArray();
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
+
+        if (outputStream == null) {
+            outputStream = new TeeOutputStream(super.getOutputStream());
+        }
+
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer != null) {
+            return writer;
+        }
+
+        if (outputStream != null) {
+            throw new IllegalStateException("getOutputStream() has already been called for this response");
+        }
+
+        // The container's writer locks the character encoding into the content type.
+        final PrintWriter containerWriter = super.getWriter();
+        captureWriter = new OutputStreamWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+                capture(b);
+            }
+
+            @Override
+            public void write(byte [] b, int off, int len) {
+                capture(b, off, len);
+            }
+        }, getCharacterEncoding());
+        writer = new PrintWriter(new TeeWriter(containerWriter, captureWriter));
+
+        return writer;
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+
+        if (!overflowed) {
+            capture.reset();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+
+        if (!overflowed) {
+            capture.reset();
+        }
+    }
+
+    /**
+     * Captures the byte unless it goes over the limit.
+     */
+    private void capture(final int b) {
+        if (overflowed) {
+            return;
+        }
+
+        if (capture.size() + 1 > limit) {
+            overflow();
+            return;
+        }
+
+        capture.write(b);
+    }
+
+    /**
+     * Captures the bytes unless it goes over the limit.
+     */
+    private void capture(final byte [] b, final int off, final int len) {
+        if (overflowed) {
+            return;
+        }
+
+        if (capture.size() + len > limit) {
+            overflow();
+            return;
+        }
+
+        capture.write(b, off, len);
+    }
+
+    private void overflow() {
+        overflowed = true;
+        capture = null;
+    }
+
+    /**
+     * Output stream writing to the wrapped response while capturing a copy.
+     */
+    private class TeeOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream target;
+
+        private TeeOutputStream(final ServletOutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            capture(b);
+        }
+
+        @Override
+        public void write(byte [] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return target.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            target.setWriteListener(writeListener);
+        }
+    }
+
+    /**
+     * Writer writing to the container's writer while capturing a copy.
+     */
+    private static class TeeWriter extends Writer {
+
+        private final Writer target;
+
+        private final Writer copy;
+
+        private TeeWriter(final Writer target, final Writer copy) {
+            this.target = target;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(char [] cbuf, int off, int len) throws IOException {
+            target.write(cbuf, off, len);
+            copy.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            target.write(str, off, len);
+            copy.write(str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
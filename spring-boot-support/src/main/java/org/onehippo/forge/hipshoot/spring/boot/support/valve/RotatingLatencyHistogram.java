@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Pair of {@link LatencyHistogram}s swapped every interval, so that the percentiles tell the latency of the last
+ * full interval instead of everything recorded since start.
+ * <P>
+ * Values are recorded into the active histogram. When an interval has passed, checked on each record or read,
+ * the active histogram becomes the one reported and the one reported before is cleared to record the next interval.
+ * If no value was recorded during the last full interval, an empty histogram is reported. A value recorded by
+ * a thread racing with the swap may be counted in the interval before, which is fine for monitoring.
+ * If the interval is zero or negative, nothing is swapped and everything recorded since start is reported.
+ * </P>
+ */
+class RotatingLatencyHistogram {
+
+    private final long intervalMillis;
+
+    private final LongSupplier clock;
+
+    private final AtomicLong intervalStart;
+
+    private volatile LatencyHistogram active = new LatencyHistogram();
+
+    private volatile LatencyHistogram lastInterval = new LatencyHistogram();
+
+    RotatingLatencyHistogram(final long intervalMillis) {
+        this(intervalMillis, System::currentTimeMillis);
+    }
+
+    RotatingLatencyHistogram(final long intervalMillis, final LongSupplier clock) {
+        this.intervalMillis = intervalMillis;
+        this.clock = clock;
+        intervalStart = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Records a latency value into the histogram of the current interval.
+     * @param micros latency in microseconds
+     */
+    void record(final long micros) {
+        rotateIfDue();
+        active.record(micros);
+    }
+
+    /**
+     * Returns the histogram of the last full interval, or of everything recorded if the interval is not positive.
+     * @return the histogram of the last full interval
+     */
+    LatencyHistogram getLastInterval() {
+        if (intervalMillis <= 0L) {
+            return active;
+        }
+
+        rotateIfDue();
+        return lastInterval;
+    }
+
+    void reset() {
+        active.reset();
+        lastInterval.reset();
+        intervalStart.set(clock.getAsLong());
+    }
+
+    private void rotateIfDue() {
+        if (intervalMillis <= 0L) {
+            return;
+        }
+
+        final long start = intervalStart.get();
+        final long intervals = (clock.getAsLong() - start) / intervalMillis;
+
+        if (intervals < 1L || !intervalStart.compareAndSet(start, start + intervals * intervalMillis)) {
+            return;
+        }
+
+        final LatencyHistogram full = active;
+        final LatencyHistogram next = lastInterval;
+        next.reset();
+        active = next;
+
+        if (intervals > 1L) {
+            // Nothing was recorded during the last full interval.
+            full.reset();
+        }
+
+        lastInterval = full;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link org.apache.catalina.Valve} making the <code>DefaultServlet</code> of a web application context send
+ * static files bigger than <code>sendfileSize</code> through the connector's sendfile path, which lets the operating
+ * system copy the file to the socket without copying it through user space.
+ * <P>
+ * On start, this sets the <code>sendfileSize</code> init parameter of every <code>DefaultServlet</code> in
+ * the context, overriding the value of the web application. This also counts the number of responses and bytes
+ * sent by sendfile and by buffered writes, to tell how much of the traffic benefits from it.
+ * </P>
+ * <P>
+ * Note that sendfile is used only if the connector supports it (<code>useSendfile</code> of the NIO and NIO2
+ * connectors is on by default), the resource is backed by a file, and neither the request nor the response is
+ * wrapped, e.g, by the response cache or request coalescing for the request.
+ * </P>
+ */
+public class SendfileValve extends ValveBase {
+
+    private static Logger log = LoggerFactory.getLogger(SendfileValve.class);
+
+    private static final String DEFAULT_SERVLET_CLASS_NAME = "org.apache.catalina.servlets.DefaultServlet";
+
+    private int sendfileSize = 48;
+
+    private final AtomicLong sendfileCount = new AtomicLong();
+
+    private final AtomicLong sendfileBytes = new AtomicLong();
+
+    private final AtomicLong bufferedCount = new AtomicLong();
+
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    public SendfileValve() {
+        super(true);
+    }
+
+    /**
+     * Returns the minimum size in kilobytes of a static file to send through sendfile.
+     * @return the minimum size in kilobytes of a static file to send through sendfile
+     */
+    public int getSendfileSize() {
+        return sendfileSize;
+    }
+
+    public void setSendfileSize(int sendfileSize) {
+        this.sendfileSize = sendfileSize;
+    }
+
+    /**
+     * Returns the number of responses sent by sendfile.
+     * @return the number of responses sent by sendfile
+     */
+    public long getSendfileCount() {
+        return sendfileCount.get();
+    }
+
+    /**
+     * Returns the number of body bytes sent by sendfile.
+     * @return the number of body bytes sent by sendfile
+     */
+    public long getSendfileBytes() {
+        return sendfileBytes.get();
+    }
+
+    /**
+     * Returns the number of responses with a body written through the response buffer.
+     * @return the number of responses with a body written through the response buffer
+     */
+    public long getBufferedCount() {
+        return bufferedCount.get();
+    }
+
+    /**
+     * Returns the number of body bytes written through the response buffer.
+     * @return the number of body bytes written through the response buffer
+     */
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        getNext().invoke(request, response);
+
+        if (request.isAsync()) {
+            return;
+        }
+
+        if (request.getAttribute(Globals.SENDFILE_FILENAME_ATTR) != null) {
+            final Object start = request.getAttribute(Globals.SENDFILE_FILE_START_ATTR);
+            final Object end = request.getAttribute(Globals.SENDFILE_FILE_END_ATTR);
+
+            sendfileCount.incrementAndGet();
+
+            if (start instanceof Long && end instanceof Long) {
+                sendfileBytes.addAndGet((Long) end - (Long) start);
+            }
+        } else {
+            final long written = response.getContentWritten();
+
+            if (written > 0) {
+                bufferedCount.incrementAndGet();
+                bufferedBytes.addAndGet(written);
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        // The wrappers are configured by now, but not loaded yet as the pipeline starts before loading servlets.
+        for (Container child : getContainer().findChildren()) {
+            if (!(child instanceof Wrapper)) {
+                continue;
+            }
+
+            final Wrapper wrapper = (Wrapper) child;
+
+            if (DEFAULT_SERVLET_CLASS_NAME.equals(wrapper.getServletClass())) {
+                final String oldValue = wrapper.findInitParameter("sendfileSize");
+                wrapper.addInitParameter("sendfileSize", Integer.toString(sendfileSize));
+                log.info("Setting sendfileSize of servlet '{}' in context ('{}'): {}KB (was {}).", wrapper.getName(),
+                        getContainer().getName(), sendfileSize, oldValue);
+            }
+        }
+
+        super.startInternal();
+    }
+}
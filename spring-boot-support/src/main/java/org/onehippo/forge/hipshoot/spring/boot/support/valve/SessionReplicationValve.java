@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.Session;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.valves.ValveBase;
+import org.onehippo.forge.hipshoot.spring.boot.support.cluster.SessionChangeTracker;
+import org.onehippo.forge.hipshoot.spring.boot.support.cluster.SessionDelta;
+import org.onehippo.forge.hipshoot.spring.boot.support.cluster.SessionReplicator;
+
+/**
+ * {@link org.apache.catalina.Valve} of a web application context, replicating the session changes made by each
+ * request through {@link SessionReplicator}.
+ * <P>
+ * A new session or a session of which the ID has changed is replicated in full. Otherwise, only the attributes
+ * set or removed during the request are replicated, or just the last access time at most once per
+ * <code>accessReplicationIntervalSeconds</code> if nothing changed, to keep the session from expiring on the other
+ * instances. Changes to mutable attribute values without calling <code>setAttribute</code> again are not detected.
+ * </P>
+ */
+public class SessionReplicationValve extends ValveBase {
+
+    /**
+     * Session note name for the last time in milliseconds the session was replicated.
+     */
+    private static final String LAST_SENT_NOTE = "hipshoot.replication.lastSent";
+
+    private final SessionReplicator replicator;
+
+    private final SessionChangeTracker tracker = new SessionChangeTracker();
+
+    private int accessReplicationIntervalSeconds = 60;
+
+    private String contextPath;
+
+    public SessionReplicationValve(final SessionReplicator replicator) {
+        super(true);
+        this.replicator = replicator;
+    }
+
+    /**
+     * Returns the minimum interval in seconds to replicate the last access time of a session not changed.
+     * @return the minimum interval in seconds to replicate the last access time of a session not changed
+     */
+    public int getAccessReplicationIntervalSeconds() {
+        return accessReplicationIntervalSeconds;
+    }
+
+    /**
+     * Sets the minimum interval in seconds to replicate the last access time of a session not changed.
+     * Zero or a negative value disables it.
+     * @param accessReplicationIntervalSeconds the minimum interval in seconds to replicate the last access time
+     */
+    public void setAccessReplicationIntervalSeconds(int accessReplicationIntervalSeconds) {
+        this.accessReplicationIntervalSeconds = accessReplicationIntervalSeconds;
+    }
+
+    @Override
+    public void invoke(Request request, Response response) throws IOException, ServletException {
+        final Session startSession = request.getSessionInternal(false);
+        final String startId = (startSession != null) ? startSession.getIdInternal() : null;
+        Map<String, Set<String>> changes = null;
+
+        tracker.begin();
+
+        try {
+            getNext().invoke(request, response);
+        } finally {
+            changes = tracker.end();
+        }
+
+        if (startSession != null && !startSession.isValid()) {
+            replicator.replicate(SessionDelta.invalidate(contextPath, startId));
+        }
+
+        final Session endSession = request.getSessionInternal(false);
+
+        if (endSession == null || !endSession.isValid()) {
+            return;
+        }
+
+        final String endId = endSession.getIdInternal();
+        final long now = System.currentTimeMillis();
+
+        if (startId != null && !startId.equals(endId) && startSession == endSession) {
+            replicator.replicate(SessionDelta.invalidate(contextPath, startId));
+            replicate(endSession, null, now);
+        } else if (endSession.getSession().isNew() || startSession != endSession) {
+            replicate(endSession, null, now);
+        } else if (changes.containsKey(endId)) {
+            replicate(endSession, changes.get(endId), now);
+        } else if (accessReplicationIntervalSeconds > 0) {
+            final Object lastSent = endSession.getNote(LAST_SENT_NOTE);
+
+            if (!(lastSent instanceof Long) || now - (Long) lastSent >= accessReplicationIntervalSeconds * 1000L) {
+                replicator.replicate(SessionDelta.update(contextPath, endId, endSession.getCreationTimeInternal(),
+                        endSession.getMaxInactiveInterval()));
+                endSession.setNote(LAST_SENT_NOTE, now);
+            }
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        final Context context = (Context) getContainer();
+        contextPath = context.getPath();
+
+        if (!(context instanceof StandardContext)) {
+            throw new LifecycleException("Session replication valve must be in a standard context.");
+        }
+
+        // The pipeline starts before the application listeners, so this is kept until the context stops.
+        ((StandardContext) context).addApplicationEventListener(tracker);
+        replicator.register(context);
+
+        super.startInternal();
+    }
+
+    private void replicate(final Session session, final Set<String> names, final long now) {
+        try {
+            replicator.replicate(replicator.createUpdate(contextPath, session, names));
+            session.setNote(LAST_SENT_NOTE, now);
+        } catch (IllegalStateException e) {
+            // Invalidated concurrently.
+        }
+    }
+}
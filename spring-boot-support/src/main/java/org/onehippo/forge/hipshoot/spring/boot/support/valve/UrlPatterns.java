@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.catalina.connector.Request;
+import org.springframework.util.StringUtils;
+
+/**
+ * Servlet mapping style URL patterns, i.e, exact paths, path prefixes such as <code>/api/*</code> or extensions
+ * such as <code>*.jsp</code>, matched against the request path in the context without creating any string.
+ */
+final class UrlPatterns {
+
+    private final String [] patterns;
+
+    private UrlPatterns(final String [] patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * Parses comma separated URL patterns.
+     * @param urlPatterns comma separated URL patterns
+     * @return URL patterns
+     */
+    static UrlPatterns parse(final String urlPatterns) {
+        final List<String> list = new ArrayList<>();
+
+        if (urlPatterns != null) {
+            for (String token : StringUtils.tokenizeToStringArray(urlPatterns, ",")) {
+                if (!token.trim().isEmpty()) {
+                    list.add(token.trim());
+                }
+            }
+        }
+
+        return new UrlPatterns(list.toArray(new String[list.size()]));
+    }
+
+    int size() {
+        return patterns.length;
+    }
+
+    String get(final int index) {
+        return patterns[index];
+    }
+
+    /**
+     * Returns the index of the first pattern matching the request path in the context, or {@link #size()}
+     * if nothing matches.
+     * @param request request
+     * @return the index of the first pattern matching the request path in the context
+     */
+    int match(final Request request) {
+        if (patterns.length == 0) {
+            return 0;
+        }
+
+        final String uri = request.getDecodedRequestURI();
+
+        if (uri == null) {
+            return patterns.length;
+        }
+
+        final String contextPath = request.getContextPath();
+        final int offset = (contextPath != null) ? Math.min(contextPath.length(), uri.length()) : 0;
+        final int pathLength = uri.length() - offset;
+
+        for (int i = 0; i < patterns.length; i++) {
+            final String pattern = patterns[i];
+
+            if (pattern.startsWith("*.")) {
+                final int extLength = pattern.length() - 1;
+
+                if (pathLength >= extLength && uri.regionMatches(uri.length() - extLength, pattern, 1, extLength)) {
+                    return i;
+                }
+            } else if (pattern.endsWith("/*")) {
+                final int prefixLength = pattern.length() - 2;
+
+                if (pathLength >= prefixLength && uri.regionMatches(offset, pattern, 0, prefixLength)
+                        && (pathLength == prefixLength || uri.charAt(offset + prefixLength) == '/')) {
+                    return i;
+                }
+            } else if (pathLength == pattern.length() && uri.regionMatches(offset, pattern, 0, pathLength)) {
+                return i;
+            }
+        }
+
+        return patterns.length;
+    }
+
+    /**
+     * Returns true if any pattern matches the request path in the context.
+     * @param request request
+     * @return true if any pattern matches the request path in the context
+     */
+    boolean matches(final Request request) {
+        return patterns.length > 0 && match(request) < patterns.length;
+    }
+}
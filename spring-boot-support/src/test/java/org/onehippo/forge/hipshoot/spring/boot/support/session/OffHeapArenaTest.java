@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link OffHeapArena}.
+ */
+public class OffHeapArenaTest {
+
+    private static final int BLOCK_SIZE = 64;
+
+    @Test
+    public void testAllocatesSlabOnDemand() throws Exception {
+        final OffHeapArena arena = new OffHeapArena(16 * BLOCK_SIZE, BLOCK_SIZE);
+
+        assertEquals(16L * BLOCK_SIZE, arena.getCapacity());
+        assertEquals(0L, arena.getAllocatedBytes());
+        assertEquals(0L, arena.getUsedBytes());
+
+        assertNotNull(arena.store(newData(10), 10));
+        assertEquals(16L * BLOCK_SIZE, arena.getAllocatedBytes());
+        assertEquals(BLOCK_SIZE, arena.getUsedBytes());
+    }
+
+    @Test
+    public void testStoresAndReadsDataAcrossBlocks() throws Exception {
+        final OffHeapArena arena = new OffHeapArena(16 * BLOCK_SIZE, BLOCK_SIZE);
+        final byte [] data = newData(3 * BLOCK_SIZE + 1);
+
+        final OffHeapArena.Allocation allocation = arena.store(data, data.length);
+
+        assertNotNull(allocation);
+        assertEquals(data.length, allocation.getLength());
+        assertEquals(4L * BLOCK_SIZE, arena.getUsedBytes());
+        assertArrayEquals(data, readAll(arena.openStream(allocation)));
+    }
+
+    @Test
+    public void testStoresEmptyDataInOneBlock() throws Exception {
+        final OffHeapArena arena = new OffHeapArena(16 * BLOCK_SIZE, BLOCK_SIZE);
+
+        final OffHeapArena.Allocation allocation = arena.store(new byte[0], 0);
+
+        assertNotNull(allocation);
+        assertEquals(BLOCK_SIZE, arena.getUsedBytes());
+        assertEquals(0, readAll(arena.openStream(allocation)).length);
+    }
+
+    @Test
+    public void testReusesFreedBlocks() throws Exception {
+        final OffHeapArena arena = new OffHeapArena(4 * BLOCK_SIZE, BLOCK_SIZE);
+        final byte [] big = newData(4 * BLOCK_SIZE);
+
+        final OffHeapArena.Allocation first = arena.store(big, big.length);
+        assertNotNull(first);
+        assertEquals(4L * BLOCK_SIZE, arena.getUsedBytes());
+
+        arena.free(first);
+        assertEquals(0L, arena.getUsedBytes());
+
+        final byte [] small = newData(2 * BLOCK_SIZE);
+        final OffHeapArena.Allocation second = arena.store(small, small.length);
+        final OffHeapArena.Allocation third = arena.store(small, small.length);
+
+        assertNotNull(second);
+        assertNotNull(third);
+        assertEquals(4L * BLOCK_SIZE, arena.getUsedBytes());
+        assertEquals(4L * BLOCK_SIZE, arena.getAllocatedBytes());
+        assertArrayEquals(small, readAll(arena.openStream(second)));
+        assertArrayEquals(small, readAll(arena.openStream(third)));
+        assertEquals(0L, arena.getFailedAllocations());
+    }
+
+    @Test
+    public void testFailsAllocationWhenFull() throws Exception {
+        final OffHeapArena arena = new OffHeapArena(4 * BLOCK_SIZE, BLOCK_SIZE);
+        final byte [] data = newData(3 * BLOCK_SIZE);
+
+        final OffHeapArena.Allocation allocation = arena.store(data, data.length);
+
+        assertNotNull(allocation);
+        assertNull(arena.store(data, data.length));
+        assertEquals(1L, arena.getFailedAllocations());
+        assertEquals(3L * BLOCK_SIZE, arena.getUsedBytes());
+
+        arena.free(allocation);
+
+        assertNotNull(arena.store(data, data.length));
+        assertEquals(1L, arena.getFailedAllocations());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCapacitySmallerThanBlock() throws Exception {
+        new OffHeapArena(BLOCK_SIZE - 1, BLOCK_SIZE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInvalidBlockSize() throws Exception {
+        new OffHeapArena(1024, 0);
+    }
+
+    private static byte [] newData(final int length) {
+        final byte [] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+
+        return data;
+    }
+
+    private static byte [] readAll(final InputStream input) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte [] buffer = new byte[37];
+        int len;
+
+        while ((len = input.read(buffer, 0, buffer.length)) != -1) {
+            baos.write(buffer, 0, len);
+        }
+
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link SessionSnapshotFile}.
+ */
+public class SessionSnapshotFileTest {
+
+    private File baseDir;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDirectory("snapshot").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteRecursively(baseDir);
+    }
+
+    @Test
+    public void testWritesAndOpensFrames() throws Exception {
+        final List<SessionSnapshotFile.Frame> frames = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            frames.add(new SessionSnapshotFile.Frame("session" + i, 1000L + i, 60 * i, payload(i)));
+        }
+
+        final File file = new File(baseDir, "sessions.snapshot");
+        SessionSnapshotFile.write(file, frames, 2);
+
+        assertTrue(file.isFile());
+        assertFalse(new File(baseDir, "sessions.snapshot.tmp").exists());
+
+        final SessionSnapshotFile snapshot = SessionSnapshotFile.open(file);
+        assertEquals(5, snapshot.size());
+
+        for (int i = 0; i < 5; i++) {
+            final SessionSnapshotFile.Frame frame = snapshot.getFrame("session" + i);
+            assertEquals("session" + i, frame.getId());
+            assertEquals(1000L + i, frame.getThisAccessedTime());
+            assertEquals(60 * i, frame.getMaxInactiveInterval());
+            assertEquals(payload(i).length, frame.getLength());
+            assertArrayEquals(payload(i), readAll(snapshot.openStream(frame)));
+        }
+    }
+
+    @Test
+    public void testRewritesCopiedFrames() throws Exception {
+        final File file = new File(baseDir, "sessions.snapshot");
+        SessionSnapshotFile.write(file, Arrays.asList(
+                new SessionSnapshotFile.Frame("a", 1L, 10, payload(1)),
+                new SessionSnapshotFile.Frame("b", 2L, 20, payload(2)),
+                new SessionSnapshotFile.Frame("c", 3L, 30, new byte[0])), 1);
+
+        final SessionSnapshotFile snapshot = SessionSnapshotFile.open(file);
+        snapshot.removeFrame("b");
+
+        assertEquals(2, snapshot.size());
+        assertNull(snapshot.getFrame("b"));
+
+        final List<SessionSnapshotFile.Frame> copies = new ArrayList<>();
+
+        for (SessionSnapshotFile.Frame frame : snapshot.getFrames()) {
+            copies.add(snapshot.copyFrame(frame));
+        }
+
+        final File rewritten = new File(baseDir, "rewritten.snapshot");
+        SessionSnapshotFile.write(rewritten, copies, 2);
+        final SessionSnapshotFile reopened = SessionSnapshotFile.open(rewritten);
+
+        assertEquals(2, reopened.size());
+        assertNull(reopened.getFrame("b"));
+        assertEquals(10, reopened.getFrame("a").getMaxInactiveInterval());
+        assertArrayEquals(payload(1), readAll(reopened.openStream(reopened.getFrame("a"))));
+        assertEquals(3L, reopened.getFrame("c").getThisAccessedTime());
+        assertEquals(0, readAll(reopened.openStream(reopened.getFrame("c"))).length);
+    }
+
+    @Test
+    public void testRejectsOtherFile() throws Exception {
+        final File file = new File(baseDir, "SESSIONS.ser");
+        Files.write(file.toPath(), "not a snapshot".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            SessionSnapshotFile.open(file);
+            fail("Opened a file which is not a session snapshot file.");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Not a session snapshot file"));
+        }
+    }
+
+    private static byte [] payload(final int index) {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i <= index * 100; i++) {
+            sb.append("payload of session ").append(index).append(' ');
+        }
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte [] readAll(final InputStream input) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte [] buffer = new byte[4096];
+        int len;
+
+        while ((len = input.read(buffer, 0, buffer.length)) != -1) {
+            baos.write(buffer, 0, len);
+        }
+
+        return baos.toByteArray();
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File [] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests moving the attribute values of {@link StripedSession} off-heap and back.
+ */
+public class StripedSessionTest {
+
+    private static final String VALUE = String.join("", Collections.nCopies(20, "off-heap attribute value "));
+
+    private File baseDir;
+
+    private Tomcat tomcat;
+
+    private StripedSessionManager manager;
+
+    @After
+    public void tearDown() throws Exception {
+        if (tomcat != null) {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+
+        if (baseDir != null) {
+            deleteRecursively(baseDir);
+        }
+    }
+
+    @Test
+    public void testOffloadsAndReloadsAttribute() throws Exception {
+        startManager(1024 * 1024, 64);
+        final StripedSession session = (StripedSession) manager.createSession(null);
+        session.setAttribute("a", VALUE);
+
+        assertEquals(Arrays.asList("a"), session.getOnHeapCandidateNames());
+        assertEquals(StripedSession.OffloadResult.OFFLOADED, session.offloadAttribute("a"));
+        assertEquals(1L, manager.getOffHeapAttributes());
+        assertTrue(manager.getOffHeapUsedBytes() > 0L);
+        assertTrue(session.getOnHeapCandidateNames().isEmpty());
+
+        assertEquals(VALUE, session.getAttribute("a"));
+        assertEquals(0L, manager.getOffHeapAttributes());
+        assertEquals(0L, manager.getOffHeapUsedBytes());
+        assertEquals(Arrays.asList("a"), session.getOnHeapCandidateNames());
+    }
+
+    @Test
+    public void testSkipsSessionInUse() throws Exception {
+        startManager(1024 * 1024, 64);
+        final StripedSession session = (StripedSession) manager.createSession(null);
+        session.setAttribute("a", VALUE);
+
+        session.access();
+        assertTrue(session.isInUse());
+        assertEquals(StripedSession.OffloadResult.SKIPPED, session.offloadAttribute("a"));
+        assertEquals(0L, manager.getOffHeapAttributes());
+
+        session.endAccess();
+        assertFalse(session.isInUse());
+        assertEquals(StripedSession.OffloadResult.OFFLOADED, session.offloadAttribute("a"));
+        assertEquals(1L, manager.getOffHeapAttributes());
+    }
+
+    @Test
+    public void testSkipsIneligibleValueUntilReplaced() throws Exception {
+        startManager(1024 * 1024, 64);
+        final StripedSession session = (StripedSession) manager.createSession(null);
+        final ArrayList<Object> unserializable = new ArrayList<>();
+        unserializable.add(new Object());
+        session.setAttribute("a", unserializable);
+
+        assertEquals(StripedSession.OffloadResult.SKIPPED, session.offloadAttribute("a"));
+        assertEquals(1L, manager.getAttributeSerializations());
+        assertTrue(session.getOnHeapCandidateNames().isEmpty());
+
+        assertEquals(StripedSession.OffloadResult.SKIPPED, session.offloadAttribute("a"));
+        assertEquals(1L, manager.getAttributeSerializations());
+
+        final ArrayList<Object> serializable = new ArrayList<>();
+        serializable.add(VALUE);
+        session.setAttribute("a", serializable);
+
+        assertEquals(Arrays.asList("a"), session.getOnHeapCandidateNames());
+        assertEquals(StripedSession.OffloadResult.OFFLOADED, session.offloadAttribute("a"));
+        assertEquals(2L, manager.getAttributeSerializations());
+        assertEquals(serializable, session.getAttribute("a"));
+    }
+
+    @Test
+    public void testKeepsAttributeOnHeapWhenFull() throws Exception {
+        startManager(64, 64);
+        final StripedSession session = (StripedSession) manager.createSession(null);
+        session.setAttribute("a", VALUE);
+
+        assertEquals(StripedSession.OffloadResult.FULL, session.offloadAttribute("a"));
+        assertEquals(0L, manager.getOffHeapAttributes());
+        assertEquals(1L, manager.getOffHeapFailedAllocations());
+        assertEquals(VALUE, session.getAttribute("a"));
+    }
+
+    private void startManager(final long capacity, final int blockSize) throws Exception {
+        baseDir = Files.createTempDirectory("offheap").toFile();
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+
+        final Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+        ((StandardContext) context).setClearReferencesObjectStreamClassCaches(false);
+
+        manager = new StripedSessionManager();
+        manager.setOffHeapEnabled(true);
+        manager.setOffHeapCapacity(capacity);
+        manager.setOffHeapBlockSize(blockSize);
+        manager.setOffHeapMinSize(1);
+        manager.setPathname(null);
+        context.setManager(manager);
+
+        tomcat.start();
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File [] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        file.delete();
+    }
+}
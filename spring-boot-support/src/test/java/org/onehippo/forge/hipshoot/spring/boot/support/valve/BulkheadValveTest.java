@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link BulkheadValve}.
+ */
+public class BulkheadValveTest {
+
+    private static final String HOLDER = "holder";
+
+    private final List<String> invoked = new CopyOnWriteArrayList<>();
+
+    private final ConcurrentMap<String, Thread> threads = new ConcurrentHashMap<>();
+
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private final CountDownLatch holding = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private BulkheadValve bulkhead;
+
+    private Connector connector;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        connector = new Connector();
+        executor = Executors.newCachedThreadPool();
+
+        bulkhead = new BulkheadValve();
+        bulkhead.setMaxConcurrentRequests(1);
+        bulkhead.setNext(new ValveBase(true) {
+            @Override
+            public void invoke(Request request, Response response) throws IOException, ServletException {
+                final int current = concurrent.incrementAndGet();
+                maxConcurrent.accumulateAndGet(current, Math::max);
+                final String name = Thread.currentThread().getName();
+                invoked.add(name);
+
+                try {
+                    if (HOLDER.equals(name)) {
+                        holding.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    concurrent.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testHandsPermitOverInArrivalOrder() throws Exception {
+        bulkhead.setMaxQueueSize(10);
+        bulkhead.setQueueTimeout(10000L);
+
+        final Future<Integer> holder = executor.submit(() -> invoke(HOLDER));
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        final Future<Integer> first = executor.submit(() -> invoke("first"));
+        awaitParked("first");
+        final Future<Integer> second = executor.submit(() -> invoke("second"));
+        awaitParked("second");
+        final Future<Integer> third = executor.submit(() -> invoke("third"));
+        awaitParked("third");
+
+        assertEquals(3, bulkhead.getQueuedRequests());
+        assertEquals(1, bulkhead.getInFlightRequests());
+        release.countDown();
+
+        assertEquals(200, (int) holder.get(10, TimeUnit.SECONDS));
+        assertEquals(200, (int) first.get(10, TimeUnit.SECONDS));
+        assertEquals(200, (int) second.get(10, TimeUnit.SECONDS));
+        assertEquals(200, (int) third.get(10, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList(HOLDER, "first", "second", "third"), invoked);
+        assertEquals(1, maxConcurrent.get());
+        assertEquals(0, bulkhead.getInFlightRequests());
+        assertEquals(0, bulkhead.getQueuedRequests());
+        assertEquals(0L, bulkhead.getRejectedRequests());
+    }
+
+    @Test
+    public void testRejectsRequestTimedOutInQueue() throws Exception {
+        bulkhead.setMaxQueueSize(10);
+        bulkhead.setQueueTimeout(100L);
+
+        final Future<Integer> holder = executor.submit(() -> invoke(HOLDER));
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        assertEquals(503, invoke("waiter"));
+        assertEquals(1L, bulkhead.getTimedOutRequests());
+        assertEquals(1L, bulkhead.getRejectedRequests());
+        assertEquals(0, bulkhead.getQueuedRequests());
+
+        release.countDown();
+        assertEquals(200, (int) holder.get(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(HOLDER), invoked);
+        assertEquals(0, bulkhead.getInFlightRequests());
+    }
+
+    @Test
+    public void testRejectsRequestWhenQueueIsFull() throws Exception {
+        bulkhead.setMaxQueueSize(0);
+        bulkhead.setQueueTimeout(10000L);
+
+        final Future<Integer> holder = executor.submit(() -> invoke(HOLDER));
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+
+        assertEquals(503, invoke("rejected"));
+        assertEquals(1L, bulkhead.getRejectedRequests());
+        assertEquals(0L, bulkhead.getTimedOutRequests());
+
+        release.countDown();
+        assertEquals(200, (int) holder.get(10, TimeUnit.SECONDS));
+        assertEquals(200, invoke("after"));
+        assertEquals(Arrays.asList(HOLDER, "after"), invoked);
+    }
+
+    private int invoke(final String threadName) throws Exception {
+        final Thread thread = Thread.currentThread();
+        final String oldName = thread.getName();
+        thread.setName(threadName);
+        threads.put(threadName, thread);
+
+        try {
+            final Request request = new Request(connector);
+            request.setCoyoteRequest(new org.apache.coyote.Request());
+            final Response response = new Response();
+            response.setCoyoteResponse(new org.apache.coyote.Response());
+            response.setStatus(200);
+
+            bulkhead.invoke(request, response);
+            return response.getStatus();
+        } finally {
+            thread.setName(oldName);
+        }
+    }
+
+    /**
+     * Waits until the request thread parks in the queue, which it does only after having been queued.
+     */
+    private void awaitParked(final String threadName) throws InterruptedException {
+        awaitCondition(() -> {
+            final Thread thread = threads.get(threadName);
+            return thread != null && thread.getState() == Thread.State.TIMED_WAITING;
+        });
+    }
+
+    private static void awaitCondition(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (!condition.getAsBoolean()) {
+            assertTrue("Condition not met in time.", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsSmallValuesExactly() throws Exception {
+        for (int value = 0; value < LatencyHistogram.SUB_BUCKET_COUNT; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound(value));
+        }
+    }
+
+    @Test
+    public void testBucketsLargeValuesWithBoundedError() throws Exception {
+        int lastIndex = LatencyHistogram.bucketIndex(0L);
+
+        for (long value = 1L; value < 100_000_000L; value += 1 + value / 1000) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            final long upperBound = LatencyHistogram.bucketUpperBound(index);
+
+            assertTrue(index >= lastIndex);
+            assertTrue("value " + value + " above its bucket bound " + upperBound, value <= upperBound);
+            assertTrue("value " + value + " too far from its bucket bound " + upperBound,
+                    upperBound - value <= value / LatencyHistogram.SUB_BUCKET_COUNT);
+
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+
+            lastIndex = index;
+        }
+    }
+
+    @Test
+    public void testReportsPercentilesOfBuckets() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100L);
+        }
+
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(100_000L, histogram.getMaxMicros());
+        assertEquals(50_050.0, histogram.getMeanMicros(), 0.001);
+        assertWithinBucket(50_000L, histogram.getValueAtPercentile(50.0));
+        assertWithinBucket(90_000L, histogram.getValueAtPercentile(90.0));
+        assertWithinBucket(99_000L, histogram.getValueAtPercentile(99.0));
+        assertEquals(100_000L, histogram.getValueAtPercentile(100.0));
+        assertWithinBucket(100L, histogram.getValueAtPercentile(0.0));
+    }
+
+    @Test
+    public void testCapsPercentileAtMaximum() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000L);
+
+        assertEquals(1000L, histogram.getValueAtPercentile(50.0));
+        assertEquals(1000L, histogram.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void testClampsNegativeValuesAndResets() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5L);
+        histogram.record(7L);
+
+        assertEquals(2L, histogram.getCount());
+        assertEquals(7L, histogram.getMaxMicros());
+        assertEquals(0L, histogram.getValueAtPercentile(50.0));
+        assertEquals(3.5, histogram.getMeanMicros(), 0.001);
+
+        histogram.reset();
+
+        assertEquals(0L, histogram.getCount());
+        assertEquals(0L, histogram.getMaxMicros());
+        assertEquals(0.0, histogram.getMeanMicros(), 0.001);
+        assertEquals(0L, histogram.getValueAtPercentile(99.0));
+    }
+
+    private static void assertWithinBucket(final long expected, final long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                actual >= expected && actual - expected <= expected / LatencyHistogram.SUB_BUCKET_COUNT);
+    }
+}
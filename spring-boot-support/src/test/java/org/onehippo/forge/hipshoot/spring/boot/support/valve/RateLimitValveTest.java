@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.core.StandardEngine;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the striped token bucket table of {@link RateLimitValve}.
+ */
+public class RateLimitValveTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private RateLimitValve valve;
+
+    @After
+    public void tearDown() throws Exception {
+        if (valve != null) {
+            valve.stop();
+        }
+    }
+
+    @Test
+    public void testAllowsEverythingBeforeStart() throws Exception {
+        final RateLimitValve notStarted = new RateLimitValve();
+        notStarted.setBurst(1);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(notStarted.tryAcquire("client", 0L));
+        }
+    }
+
+    @Test
+    public void testRefillsTokensOverTime() throws Exception {
+        startValve(1024, 2, 10.0);
+
+        assertTrue(valve.tryAcquire("client", 0L));
+        assertTrue(valve.tryAcquire("client", 0L));
+        assertFalse(valve.tryAcquire("client", 0L));
+        assertTrue(valve.tryAcquire("other", 0L));
+
+        // a token per 100 milliseconds
+        assertFalse(valve.tryAcquire("client", SECOND / 20));
+        assertTrue(valve.tryAcquire("client", SECOND / 10 + MILLISECOND));
+        assertFalse(valve.tryAcquire("client", SECOND / 10 + MILLISECOND));
+
+        // never refills beyond the burst
+        assertTrue(valve.tryAcquire("client", 10 * SECOND));
+        assertTrue(valve.tryAcquire("client", 10 * SECOND));
+        assertFalse(valve.tryAcquire("client", 10 * SECOND));
+        assertEquals(0L, valve.getEvictedBuckets());
+    }
+
+    @Test
+    public void testRejectionKeepsRefilledTokens() throws Exception {
+        startValve(1024, 1, 10.0);
+
+        assertTrue(valve.tryAcquire("client", 0L));
+
+        // rejected attempts store the partially refilled tokens, neither losing nor adding any
+        assertFalse(valve.tryAcquire("client", SECOND / 20));
+        assertFalse(valve.tryAcquire("client", SECOND / 20 + SECOND / 40));
+        assertFalse(valve.tryAcquire("client", SECOND / 10 - MILLISECOND));
+        assertTrue(valve.tryAcquire("client", SECOND / 10 + MILLISECOND));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBucketOfStripe() throws Exception {
+        startValve(RateLimitValve.STRIPE_SIZE, 1, 1.0);
+
+        for (int i = 0; i < RateLimitValve.STRIPE_SIZE; i++) {
+            assertTrue(valve.tryAcquire("client" + i, i));
+        }
+
+        // the throttled client stays recently used when rejected
+        assertFalse(valve.tryAcquire("client0", 100L));
+        assertEquals(0L, valve.getEvictedBuckets());
+
+        assertTrue(valve.tryAcquire("newcomer", 200L));
+        assertEquals(1L, valve.getEvictedBuckets());
+
+        // client1 was evicted, so it comes back with a full bucket, while client0 is still throttled
+        assertFalse(valve.tryAcquire("client0", 300L));
+        assertEquals(1L, valve.getEvictedBuckets());
+        assertTrue(valve.tryAcquire("client1", 400L));
+        assertEquals(2L, valve.getEvictedBuckets());
+    }
+
+    private void startValve(final int tableSize, final int burst, final double requestsPerSecond) throws Exception {
+        valve = new RateLimitValve();
+        valve.setTableSize(tableSize);
+        valve.setBurst(burst);
+        valve.setRequestsPerSecond(requestsPerSecond);
+        valve.setContainer(new StandardEngine());
+        valve.start();
+    }
+}
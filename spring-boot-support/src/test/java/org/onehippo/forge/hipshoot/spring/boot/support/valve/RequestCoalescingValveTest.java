@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.valves.ValveBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link RequestCoalescingValve} behind a {@link ResponseCacheValve}, as installed by
+ * {@link org.onehippo.forge.hipshoot.spring.boot.support.AppsDeployingTomcatServletWebServerFactory}.
+ */
+public class RequestCoalescingValveTest {
+
+    private static final String LEADER_ATTR = RequestCoalescingValveTest.class.getName() + ".leader";
+
+    private static final int FOLLOWERS = 3;
+
+    private final AtomicInteger renderCount = new AtomicInteger();
+
+    private final CountDownLatch rendering = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final CountDownLatch leaderStored = new CountDownLatch(1);
+
+    private File baseDir;
+
+    private Tomcat tomcat;
+
+    private ResponseCacheValve cacheValve;
+
+    private RequestCoalescingValve coalescingValve;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDirectory("coalescing").toFile();
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+
+        final Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+        ((StandardContext) context).setClearReferencesObjectStreamClassCaches(false);
+
+        context.getPipeline().addValve(new ValveBase(true) {
+            private final AtomicInteger requestCount = new AtomicInteger();
+
+            @Override
+            public void invoke(Request request, Response response) throws IOException, ServletException {
+                final boolean leader = requestCount.getAndIncrement() == 0;
+                request.setAttribute(LEADER_ATTR, leader);
+                getNext().invoke(request, response);
+
+                // the cache valve stored the response of the leader by now
+                if (leader) {
+                    leaderStored.countDown();
+                }
+            }
+        });
+        cacheValve = new ResponseCacheValve(new ResponseCacheStore(1024 * 1024));
+        cacheValve.setUrlPatterns("/*");
+        context.getPipeline().addValve(cacheValve);
+        context.getPipeline().addValve(new ValveBase(true) {
+            @Override
+            public void invoke(Request request, Response response) throws IOException, ServletException {
+                getNext().invoke(request, response);
+
+                // let the followers return to the cache valve only after the leader stored its response
+                if (!Boolean.TRUE.equals(request.getAttribute(LEADER_ATTR))) {
+                    try {
+                        leaderStored.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        coalescingValve = new RequestCoalescingValve();
+        coalescingValve.setUrlPatterns("/*");
+        context.getPipeline().addValve(coalescingValve);
+
+        Tomcat.addServlet(context, "page", new HttpServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+                renderCount.incrementAndGet();
+                rendering.countDown();
+
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                response.setContentType("text/html");
+                response.getWriter().write(body(request.getServerName()));
+            }
+        });
+        context.addServletMappingDecoded("/*", "page");
+
+        tomcat.start();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        executor.shutdownNow();
+        tomcat.stop();
+        tomcat.destroy();
+        deleteRecursively(baseDir);
+    }
+
+    @Test
+    public void testCoalescedResponsesKeepCachedEntryIntact() throws Exception {
+        final Future<String> leader = executor.submit(get("localhost", "/page"));
+        assertTrue(rendering.await(10, TimeUnit.SECONDS));
+
+        final List<Future<String>> followers = new ArrayList<>();
+
+        for (int i = 0; i < FOLLOWERS; i++) {
+            followers.add(executor.submit(get("localhost", "/page")));
+        }
+
+        awaitCondition(() -> coalescingValve.getWaitingCount() == FOLLOWERS);
+        release.countDown();
+
+        final String body = body("localhost");
+        assertEquals(body, leader.get(10, TimeUnit.SECONDS));
+
+        for (Future<String> follower : followers) {
+            assertEquals(body, follower.get(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, renderCount.get());
+        assertEquals(FOLLOWERS, coalescingValve.getCoalescedCount());
+
+        // the responses of the followers must not overwrite the entry stored for the leader with an empty body
+        assertEquals(body, get("localhost", "/page").call());
+        assertEquals(body, get("localhost", "/page").call());
+        assertEquals(1, renderCount.get());
+        assertEquals(2, cacheValve.getHitCount());
+    }
+
+    @Test
+    public void testRequestsForOtherHostAreNotCoalesced() throws Exception {
+        final Future<String> first = executor.submit(get("localhost", "/page"));
+        assertTrue(rendering.await(10, TimeUnit.SECONDS));
+
+        // the same path on another host name must render on its own instead of waiting for the first request
+        final Future<String> second = executor.submit(get("127.0.0.1", "/page"));
+        awaitCondition(() -> renderCount.get() == 2);
+        release.countDown();
+
+        assertEquals(body("localhost"), first.get(10, TimeUnit.SECONDS));
+        assertEquals(body("127.0.0.1"), second.get(10, TimeUnit.SECONDS));
+        assertEquals(2, coalescingValve.getLeaderCount());
+        assertEquals(0, coalescingValve.getCoalescedCount());
+        assertEquals(0, coalescingValve.getTimeoutCount());
+
+        assertEquals(body("localhost"), get("localhost", "/page").call());
+        assertEquals(body("127.0.0.1"), get("127.0.0.1", "/page").call());
+        assertEquals(2, renderCount.get());
+    }
+
+    private static String body(final String serverName) {
+        return "<html><body>expensive page of " + serverName + "</body></html>";
+    }
+
+    private static void awaitCondition(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (!condition.getAsBoolean()) {
+            assertTrue("Condition not met in time.", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Callable<String> get(final String host, final String path) {
+        final int port = tomcat.getConnector().getLocalPort();
+
+        return () -> {
+            final HttpURLConnection conn =
+                    (HttpURLConnection) new URL("http://" + host + ":" + port + path).openConnection();
+
+            try {
+                assertEquals(200, conn.getResponseCode());
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                try (InputStream in = conn.getInputStream()) {
+                    final byte [] buf = new byte[4096];
+
+                    for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                        out.write(buf, 0, n);
+                    }
+                }
+
+                final String body = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+                assertEquals(body.length(), conn.getContentLength());
+                return body;
+            } finally {
+                conn.disconnect();
+            }
+        };
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File [] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+
+        file.delete();
+    }
+}
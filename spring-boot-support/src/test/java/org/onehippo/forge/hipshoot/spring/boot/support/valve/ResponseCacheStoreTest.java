@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.catalina.connector.Response;
+import org.junit.Test;
+
+/**
+ * Tests {@link ResponseCacheStore}.
+ */
+public class ResponseCacheStoreTest {
+
+    private static final int BODY_SIZE = 1000;
+
+    @Test
+    public void testEvictsLeastRecentlyUsedEntryOfStripe() throws Exception {
+        final CachedResponse a = newEntry(60000L);
+        final ResponseCacheStore store = new ResponseCacheStore(4L * a.getSize(), 1);
+
+        assertTrue(store.put("a", a));
+        assertTrue(store.put("b", newEntry(60000L)));
+        assertTrue(store.put("c", newEntry(60000L)));
+        assertTrue(store.put("d", newEntry(60000L)));
+        assertNotNull(store.get("a"));
+        assertTrue(store.put("e", newEntry(60000L)));
+
+        assertNotNull(store.get("a"));
+        assertNull(store.get("b"));
+        assertNotNull(store.get("c"));
+        assertNotNull(store.get("d"));
+        assertNotNull(store.get("e"));
+        assertEquals(1L, store.getEvictionCount());
+        assertEquals(4L * a.getSize(), store.getMemoryUsed());
+    }
+
+    @Test
+    public void testStaysWithinMemoryBudgetAcrossStripes() throws Exception {
+        final int entrySize = newEntry(60000L).getSize();
+        final ResponseCacheStore store = new ResponseCacheStore(10L * entrySize, 8);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(store.put("key" + i, newEntry(60000L)));
+            assertTrue(store.getMemoryUsed() <= store.getMaxMemory());
+        }
+
+        assertEquals(10, store.getEntryCount());
+        assertEquals(90L, store.getEvictionCount());
+        assertNotNull(store.get("key99"));
+    }
+
+    @Test
+    public void testRejectsEntryBiggerThanQuarterOfBudget() throws Exception {
+        final CachedResponse entry = newEntry(60000L);
+        final ResponseCacheStore store = new ResponseCacheStore(4L * entry.getSize() - 1L);
+
+        assertFalse(store.put("key", entry));
+        assertEquals(0L, store.getMemoryUsed());
+    }
+
+    @Test
+    public void testRemovesExpiredEntryOnLookup() throws Exception {
+        final ResponseCacheStore store = new ResponseCacheStore(1024L * 1024L);
+
+        assertTrue(store.put("key", newEntry(0L)));
+        assertNull(store.get("key"));
+        assertEquals(1L, store.getExpirationCount());
+        assertEquals(0L, store.getMemoryUsed());
+    }
+
+    @Test
+    public void testClearsEntriesByKeyPrefix() throws Exception {
+        final ResponseCacheStore store = new ResponseCacheStore(1024L * 1024L);
+
+        store.put("/site\nhttp://localhost:8080/a", newEntry(60000L));
+        store.put("/site\nhttp://localhost:8080/b", newEntry(60000L));
+        store.put("/cms\nhttp://localhost:8080/a", newEntry(60000L));
+        store.clear("/site\n");
+
+        assertEquals(1, store.getEntryCount());
+        assertNotNull(store.get("/cms\nhttp://localhost:8080/a"));
+        assertEquals(newEntry(60000L).getSize(), store.getMemoryUsed());
+    }
+
+    private static CachedResponse newEntry(final long ttlMillis) {
+        final Response response = new Response();
+        response.setCoyoteResponse(new org.apache.coyote.Response());
+        response.setStatus(200);
+        return CachedResponse.of(response, new byte[BODY_SIZE], ttlMillis);
+    }
+}
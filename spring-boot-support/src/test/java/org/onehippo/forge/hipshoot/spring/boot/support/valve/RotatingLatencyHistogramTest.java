@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.forge.hipshoot.spring.boot.support.valve;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link RotatingLatencyHistogram}.
+ */
+public class RotatingLatencyHistogramTest {
+
+    private final AtomicLong now = new AtomicLong(1000L);
+
+    @Test
+    public void testReportsLastFullInterval() throws Exception {
+        final RotatingLatencyHistogram histogram = new RotatingLatencyHistogram(100L, now::get);
+
+        histogram.record(5000L);
+        histogram.record(5000L);
+        assertEquals(0L, histogram.getLastInterval().getCount());
+
+        now.addAndGet(100L);
+        histogram.record(100L);
+        assertEquals(2L, histogram.getLastInterval().getCount());
+        assertEquals(5000L, histogram.getLastInterval().getValueAtPercentile(50.0));
+
+        now.addAndGet(150L);
+        assertEquals(1L, histogram.getLastInterval().getCount());
+        assertEquals(100L, histogram.getLastInterval().getValueAtPercentile(50.0));
+
+        // still within the same interval
+        now.addAndGet(40L);
+        assertEquals(1L, histogram.getLastInterval().getCount());
+    }
+
+    @Test
+    public void testReportsNothingAfterIdleIntervals() throws Exception {
+        final RotatingLatencyHistogram histogram = new RotatingLatencyHistogram(100L, now::get);
+
+        histogram.record(5000L);
+        now.addAndGet(250L);
+
+        assertEquals(0L, histogram.getLastInterval().getCount());
+    }
+
+    @Test
+    public void testReportsEverythingWithoutInterval() throws Exception {
+        final RotatingLatencyHistogram histogram = new RotatingLatencyHistogram(0L, now::get);
+
+        histogram.record(5000L);
+        now.addAndGet(1000000L);
+        histogram.record(100L);
+
+        assertEquals(2L, histogram.getLastInterval().getCount());
+    }
+
+    @Test
+    public void testResets() throws Exception {
+        final RotatingLatencyHistogram histogram = new RotatingLatencyHistogram(100L, now::get);
+
+        histogram.record(5000L);
+        now.addAndGet(100L);
+        histogram.reset();
+
+        assertEquals(0L, histogram.getLastInterval().getCount());
+        now.addAndGet(100L);
+        assertEquals(0L, histogram.getLastInterval().getCount());
+    }
+}